@@ -13,6 +13,7 @@ import androidx.preference.PreferenceManager;
 import com.developer.crashx.config.CrashConfig;
 import com.tyron.builder.BuildModule;
 import com.tyron.completion.java.CompletionModule;
+import com.tyron.completion.java.Parser;
 
 public class ApplicationLoader extends Application {
     
@@ -35,6 +36,14 @@ public class ApplicationLoader extends Application {
                 .apply();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            Parser.clearCache();
+        }
+    }
+
     public static SharedPreferences getDefaultPreferences() {
         return PreferenceManager.getDefaultSharedPreferences(applicationContext);
     }
@@ -169,7 +169,6 @@ public class CompilerService extends Service {
             Module module = project.getMainModule();
             Builder<? extends Module> projectBuilder = getBuilderForProject(module, type);
 
-            module.clear();
             module.index();
 
             boolean success = true;
@@ -7,6 +7,7 @@ import com.tyron.code.ui.file.action.android.CreateAndroidClassAction;
 import com.tyron.code.ui.file.action.file.CreateDirectoryAction;
 import com.tyron.code.ui.file.action.file.CreateFileAction;
 import com.tyron.code.ui.file.action.file.DeleteFileAction;
+import com.tyron.code.ui.file.action.file.FindInFilesAction;
 import com.tyron.code.ui.file.action.java.CreateClassAction;
 import com.tyron.code.ui.file.action.kotlin.CreateKotlinClassAction;
 import com.tyron.code.ui.file.action.xml.CreateLayoutAction;
@@ -28,6 +29,7 @@ public class FileActionManager {
         registerAction(new CreateAndroidClassAction());
         registerAction(new CreateDirectoryAction());
         registerAction(new CreateFileAction());
+        registerAction(new FindInFilesAction());
     }
 
     public void registerAction(FileAction action) {
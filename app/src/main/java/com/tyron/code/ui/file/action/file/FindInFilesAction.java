@@ -0,0 +1,116 @@
+package com.tyron.code.ui.file.action.file;
+
+import android.app.Activity;
+import android.content.DialogInterface;
+import android.text.Editable;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+
+import com.google.android.material.textfield.TextInputLayout;
+import com.tyron.code.R;
+import com.tyron.code.ui.file.action.ActionContext;
+import com.tyron.code.ui.file.action.FileAction;
+import com.tyron.common.util.FindInFiles;
+import com.tyron.common.util.SingleTextWatcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Searches the files under a directory for a string, the matches are listed as they are
+ * found and selecting one opens its file
+ */
+public class FindInFilesAction extends FileAction {
+
+    @Override
+    public boolean isApplicable(File file) {
+        return file.isDirectory();
+    }
+
+    @Override
+    public void addMenu(ActionContext context) {
+        context.getMenu().add(R.string.menu_action_find_in_files)
+                .setOnMenuItemClickListener(i -> onMenuItemClick(context));
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    public boolean onMenuItemClick(ActionContext context) {
+        File currentDir = context.getCurrentNode().getValue().getFile();
+        AlertDialog dialog = new AlertDialog.Builder(context.getFragment().requireContext())
+                .setView(R.layout.create_class_dialog)
+                .setTitle(R.string.menu_action_find_in_files)
+                .setPositiveButton(R.string.find_in_files_positive, null)
+                .setNegativeButton(android.R.string.cancel, null)
+                .create();
+        dialog.setOnShowListener((d) -> {
+            dialog.findViewById(R.id.til_class_type).setVisibility(View.GONE);
+            TextInputLayout til = dialog.findViewById(R.id.til_class_name);
+            EditText editText = dialog.findViewById(R.id.et_class_name);
+            Button positive = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
+
+            til.setHint(R.string.text_to_search);
+            positive.setEnabled(false);
+            positive.setOnClickListener(v -> {
+                dialog.dismiss();
+                showResults(context, currentDir, editText.getText().toString());
+            });
+            editText.addTextChangedListener(new SingleTextWatcher() {
+                @Override
+                public void afterTextChanged(Editable editable) {
+                    positive.setEnabled(editable.length() > 0);
+                }
+            });
+        });
+        dialog.show();
+        return true;
+    }
+
+    private void showResults(ActionContext context, File directory, String query) {
+        Activity activity = context.getFragment().requireActivity();
+        List<FindInFiles.Match> matches = new ArrayList<>();
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(activity,
+                android.R.layout.simple_list_item_1);
+        AlertDialog dialog = new AlertDialog.Builder(activity)
+                .setTitle(R.string.find_in_files_searching)
+                .setAdapter(adapter, (d, which) -> context.getFragment().getMainViewModel()
+                        .openFile(matches.get(which).getFile().toFile()))
+                .setNegativeButton(android.R.string.cancel, null)
+                .create();
+
+        FindInFiles.Search search = new FindInFiles().search(
+                Collections.singletonList(directory), query, false, FindInFiles.TEXT_FILES,
+                new FindInFiles.Callback() {
+                    @Override
+                    public void onMatch(FindInFiles.Match match) {
+                        activity.runOnUiThread(() -> {
+                            matches.add(match);
+                            adapter.add(getLabel(directory, match));
+                        });
+                    }
+
+                    @Override
+                    public void onFinished(boolean cancelled) {
+                        if (!cancelled) {
+                            activity.runOnUiThread(() -> dialog.setTitle(
+                                    activity.getString(R.string.find_in_files_results,
+                                            matches.size())));
+                        }
+                    }
+                });
+        dialog.setOnDismissListener(d -> search.cancel());
+        dialog.show();
+    }
+
+    @NonNull
+    private static String getLabel(File directory, FindInFiles.Match match) {
+        String path = directory.toPath().relativize(match.getFile()).toString();
+        return path + ":" + (match.getLine() + 1) + "\n" + match.getLineText().trim();
+    }
+}
@@ -2,6 +2,7 @@ package com.tyron.builder;
 
 import android.content.Context;
 
+import com.tyron.builder.compiler.incremental.kotlin.IncrementalKotlinCompiler;
 import com.tyron.common.util.Decompress;
 
 import java.io.File;
@@ -14,6 +15,7 @@ public class BuildModule {
 
     public static void initialize(Context applicationContext) {
             sApplicationContext = applicationContext.getApplicationContext();
+            IncrementalKotlinCompiler.keepEnvironmentAlive();
     }
 
     public static Context getContext() {
@@ -9,6 +9,7 @@ import com.tyron.builder.compiler.incremental.java.IncrementalJavaTask;
 import com.tyron.builder.compiler.incremental.kotlin.IncrementalKotlinCompiler;
 import com.tyron.builder.compiler.incremental.resource.IncrementalAapt2Task;
 import com.tyron.builder.compiler.log.InjectLoggerTask;
+import com.tyron.builder.compiler.log.LoggerTransformTask;
 import com.tyron.builder.compiler.manifest.ManifestMergeTask;
 import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.log.ILogger;
@@ -37,6 +38,9 @@ public class AndroidAppBuilder extends BuilderImpl<AndroidModule> {
         tasks.add(new MergeSymbolsTask(getProject(), getLogger()));
         tasks.add(new IncrementalKotlinCompiler(getProject(), getLogger()));
         tasks.add(new IncrementalJavaTask(getProject(), getLogger()));
+        if (type == BuildType.DEBUG) {
+            tasks.add(new LoggerTransformTask(getProject(), getLogger()));
+        }
         if (getProject().getSettings().getBoolean(ModuleSettings.USE_R8, false) &&
                 type == BuildType.RELEASE) {
             tasks.add(new R8Task(getProject(), getLogger()));
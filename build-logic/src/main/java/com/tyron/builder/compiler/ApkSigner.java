@@ -3,10 +3,24 @@ package com.tyron.builder.compiler;
 import androidx.annotation.VisibleForTesting;
 
 import com.tyron.builder.BuildModule;
+import com.tyron.builder.compiler.apk.IncrementalApkSigner;
 import com.tyron.common.util.Decompress;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 public class ApkSigner {
@@ -17,36 +31,79 @@ public class ApkSigner {
     }
 
 
-    private final ArrayList<String> commands ;
     private final String mApkInputPath ;
     private final String mApkOutputPath;
+    private int mMinSdkVersion = 21;
 
     public ApkSigner(String inputPath ,String outputPath,int mode){
-        commands = new ArrayList<>();
         mApkInputPath = inputPath;
         mApkOutputPath = outputPath;
     }
 
-    //TODO: Adjust min and max sdk
+    /**
+     * Sets the min sdk version of the apk, the v1 signature scheme is only used
+     * if the min sdk version is lower than 24
+     */
+    public void setMinSdkVersion(int minSdkVersion) {
+        mMinSdkVersion = minSdkVersion;
+    }
+
+    /**
+     * Apks that don't need the JAR signature are signed with {@link IncrementalApkSigner},
+     * which only digests the chunks of the apk that changed since it was last signed
+     */
     public void sign() throws Exception {
-        commands.add("sign");
-        commands.add("--key");
-        commands.add(getTestKeyFilePath());
-        commands.add("--cert");
-        commands.add(getTestCertFilePath());
-        commands.add("--min-sdk-version");
-        commands.add("21");
-        commands.add("--max-sdk-version");
-        commands.add("30");
-        commands.add("--out");
-        commands.add(mApkOutputPath);
-        commands.add("--in");
-        commands.add(mApkInputPath);
-        com.android.apksigner.ApkSignerTool.main(commands.toArray(new String[0]));
+        if (mMinSdkVersion >= 24) {
+            com.android.apksig.ApkSigner.SignerConfig config = getTestSignerConfig();
+            IncrementalApkSigner.sign(new File(mApkInputPath), new File(mApkOutputPath),
+                    config.getPrivateKey(), config.getCertificates(), mMinSdkVersion);
+            return;
+        }
+        new com.android.apksig.ApkSigner.Builder(
+                Collections.singletonList(getTestSignerConfig()))
+                .setInputApk(new File(mApkInputPath))
+                .setOutputApk(new File(mApkOutputPath))
+                .setMinSdkVersion(mMinSdkVersion)
+                .setV1SigningEnabled(mMinSdkVersion < 24)
+                .setV2SigningEnabled(true)
+                .setDebuggableApkPermitted(true)
+                .build()
+                .sign();
     }
 
+    /**
+     * The test key and certificate are only parsed once and reused for later builds
+     */
+    private static synchronized com.android.apksig.ApkSigner.SignerConfig getTestSignerConfig()
+            throws Exception {
+        if (sTestSignerConfig != null) {
+            return sTestSignerConfig;
+        }
+
+        byte[] encodedKey = Files.readAllBytes(Paths.get(getTestKeyFilePath()));
+        PrivateKey privateKey;
+        try {
+            privateKey = KeyFactory.getInstance("RSA")
+                    .generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+        } catch (InvalidKeySpecException e) {
+            privateKey = KeyFactory.getInstance("EC")
+                    .generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+        }
+
+        List<X509Certificate> certificates = new ArrayList<>();
+        try (InputStream in = new FileInputStream(getTestCertFilePath())) {
+            for (Certificate certificate : CertificateFactory.getInstance("X.509")
+                    .generateCertificates(in)) {
+                certificates.add((X509Certificate) certificate);
+            }
+        }
+
+        sTestSignerConfig = new com.android.apksig.ApkSigner.SignerConfig.Builder(
+                "CERT", privateKey, certificates).build();
+        return sTestSignerConfig;
+    }
 
-    private String getTestKeyFilePath() {
+    private static String getTestKeyFilePath() {
         if (sTestKeyFile != null) {
             return sTestKeyFile.getAbsolutePath();
         }
@@ -63,7 +120,7 @@ public class ApkSigner {
         return check.getAbsolutePath();
     }
 
-    private String getTestCertFilePath() {
+    private static String getTestCertFilePath() {
         if (sTestCertFile != null) {
             return sTestCertFile.getAbsolutePath();
         }
@@ -83,16 +140,19 @@ public class ApkSigner {
     }
 
     @VisibleForTesting
-    public static void setTestKeyFile(File file) {
+    public static synchronized void setTestKeyFile(File file) {
         sTestKeyFile = file;
+        sTestSignerConfig = null;
     }
 
     @VisibleForTesting
-    public static void setTestCertFile(File file) {
+    public static synchronized void setTestCertFile(File file) {
         sTestCertFile = file;
+        sTestSignerConfig = null;
     }
 
     private static File sTestKeyFile;
     private static File sTestCertFile;
+    private static com.android.apksig.ApkSigner.SignerConfig sTestSignerConfig;
 
 }
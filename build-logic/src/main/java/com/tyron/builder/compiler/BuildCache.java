@@ -0,0 +1,327 @@
+package com.tyron.builder.compiler;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.tyron.builder.BuildModule;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A content addressed store of build outputs that is shared between builds and projects.
+ *
+ * Entries are grouped by category and identified by a key, usually a hash of the inputs
+ * used to produce the entry. Entries are never modified once stored, so two projects
+ * depending on the same library can reuse the output of each other.
+ *
+ * The modification time of an entry is updated when it is used, {@link #trim(long)} deletes
+ * the least recently used entries once the cache grows past its maximum size.
+ */
+public class BuildCache {
+
+    /**
+     * The size the cache is trimmed to after a build
+     */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    private static final ReadWriteLock sLock = new ReentrantReadWriteLock();
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static File sDirectory;
+
+    @VisibleForTesting
+    public static void setDirectory(File directory) {
+        sDirectory = directory;
+    }
+
+    public static synchronized File getDirectory() {
+        if (sDirectory == null) {
+            Context context = BuildModule.getContext();
+            if (context != null) {
+                sDirectory = new File(context.getCacheDir(), "build-cache");
+            } else {
+                sDirectory = new File(System.getProperty("java.io.tmpdir"), "build-cache");
+            }
+        }
+        return sDirectory;
+    }
+
+    /**
+     * @return the file where the entry with the given category and key is stored,
+     * the file may not exist yet
+     */
+    public static File getEntry(String category, String key) {
+        return new File(new File(getDirectory(), category), key);
+    }
+
+    /**
+     * Copies the entry to the destination if it exists
+     *
+     * @return whether the entry was copied
+     */
+    public static boolean restore(String category, String key, File destination)
+            throws IOException {
+        sLock.readLock().lock();
+        try {
+            File entry = getEntry(category, key);
+            if (!entry.isFile()) {
+                return false;
+            }
+            FileUtils.copyFile(entry, destination, false);
+            //noinspection ResultOfMethodCallIgnored
+            entry.setLastModified(System.currentTimeMillis());
+            return true;
+        } finally {
+            sLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores a copy of the given file as the entry with the given category and key.
+     * The copy is written to a temporary file first so other builds never see a
+     * partially written entry.
+     */
+    public static void store(String category, String key, File source) throws IOException {
+        sLock.readLock().lock();
+        try {
+            File entry = getEntry(category, key);
+            if (entry.isFile()) {
+                return;
+            }
+            File parent = entry.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Unable to create cache directory " + parent);
+            }
+
+            File temp = new File(parent, key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+            try {
+                FileUtils.copyFile(source, temp, false);
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                FileUtils.deleteQuietly(temp);
+            }
+        } finally {
+            sLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restores every file of a directory entry to the destination directory. The files are
+     * hard linked when possible so they don't take extra storage, so the restored files
+     * must not be modified in place.
+     *
+     * @return whether the entry exists and was restored
+     */
+    public static boolean restoreFiles(String category, String key, File destination)
+            throws IOException {
+        sLock.readLock().lock();
+        try {
+            File entry = getEntry(category, key);
+            File[] files = entry.listFiles();
+            if (files == null || files.length == 0) {
+                return false;
+            }
+            if (!destination.exists() && !destination.mkdirs()) {
+                throw new IOException("Unable to create directory " + destination);
+            }
+            for (File file : files) {
+                File target = new File(destination, file.getName());
+                Files.deleteIfExists(target.toPath());
+                try {
+                    Files.createLink(target.toPath(), file.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    FileUtils.copyFile(file, target, false);
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            entry.setLastModified(System.currentTimeMillis());
+            return true;
+        } finally {
+            sLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores copies of the given files as a directory entry with the given category and key
+     */
+    public static void storeFiles(String category, String key, Collection<File> files)
+            throws IOException {
+        sLock.readLock().lock();
+        try {
+            File entry = getEntry(category, key);
+            if (entry.isDirectory()) {
+                return;
+            }
+            File parent = entry.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Unable to create cache directory " + parent);
+            }
+
+            File temp = new File(parent, key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+            try {
+                for (File file : files) {
+                    FileUtils.copyFileToDirectory(file, temp, false);
+                }
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // another build has stored the same entry
+            } finally {
+                FileUtils.deleteQuietly(temp);
+            }
+        } finally {
+            sLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the entries take at most the given
+     * number of bytes. Waits for the entries that are being restored or stored.
+     *
+     * Entries with files that are still hard linked into a build directory are kept, their
+     * storage is shared with the build and deleting them would not free it.
+     */
+    public static void trim(long maxSize) {
+        sLock.writeLock().lock();
+        try {
+            File[] categories = getDirectory().listFiles(File::isDirectory);
+            if (categories == null) {
+                return;
+            }
+            List<File> entries = new ArrayList<>();
+            for (File category : categories) {
+                File[] files = category.listFiles(file -> !file.getName().endsWith(TEMP_SUFFIX));
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (!isLinked(file)) {
+                        entries.add(file);
+                    }
+                }
+            }
+
+            Map<File, Long> sizes = new HashMap<>();
+            long size = 0;
+            for (File entry : entries) {
+                long entrySize = FileUtils.sizeOf(entry);
+                sizes.put(entry, entrySize);
+                size += entrySize;
+            }
+            if (size <= maxSize) {
+                return;
+            }
+
+            // sorting by a value that may change while sorting breaks the comparator
+            Map<File, Long> lastUsed = new HashMap<>();
+            for (File entry : entries) {
+                lastUsed.put(entry, entry.lastModified());
+            }
+            entries.sort(Comparator.comparing(lastUsed::get));
+            for (File entry : entries) {
+                if (size <= maxSize) {
+                    break;
+                }
+                if (FileUtils.deleteQuietly(entry)) {
+                    size -= sizes.get(entry);
+                }
+            }
+        } finally {
+            sLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether a file of the entry has another link, assumed to be true when the
+     * number of links can't be read
+     */
+    private static boolean isLinked(File entry) {
+        File[] files = entry.isDirectory() ? entry.listFiles() : new File[]{entry};
+        if (files == null) {
+            return false;
+        }
+        for (File file : files) {
+            try {
+                Object links = Files.getAttribute(file.toPath(), "unix:nlink");
+                if (links instanceof Integer && (Integer) links > 1) {
+                    return true;
+                }
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hashes the relative paths and contents of every file inside the directory along
+     * with the given extra values
+     */
+    public static String hashDirectory(@NonNull File directory, String... extras)
+            throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String extra : extras) {
+            hasher.putString(extra, StandardCharsets.UTF_8);
+        }
+
+        List<File> files = new ArrayList<>(FileUtils.listFiles(directory, null, true));
+        Collections.sort(files);
+
+        String root = directory.getAbsolutePath();
+        for (File file : files) {
+            hasher.putString(file.getAbsolutePath().substring(root.length()),
+                    StandardCharsets.UTF_8);
+            hasher.putLong(file.length());
+            hasher.putBytes(com.google.common.io.Files.asByteSource(file).hash(
+                    Hashing.murmur3_128()).asBytes());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Hashes the contents of the file along with the given extra values
+     */
+    public static String hashFile(@NonNull File file, String... extras) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String extra : extras) {
+            hasher.putString(extra, StandardCharsets.UTF_8);
+        }
+        hasher.putBytes(com.google.common.io.Files.asByteSource(file).hash(
+                Hashing.murmur3_128()).asBytes());
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return a value identifying the version of the given tool binary, used so that
+     * entries produced by an older version of the tool are not reused
+     */
+    public static String getToolVersion(@Nullable File binary) {
+        if (binary == null) {
+            return "";
+        }
+        return binary.getName() + ":" + binary.length() + ":" + binary.lastModified();
+    }
+}
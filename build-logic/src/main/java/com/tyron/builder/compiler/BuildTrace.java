@@ -0,0 +1,322 @@
+package com.tyron.builder.compiler;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long each task of a build took and what it did. The trace is written in the
+ * Chrome trace event format so it can be opened in chrome://tracing or Perfetto.
+ *
+ * The heap usage is sampled periodically while the build is running, so the peak heap of
+ * a task is only an approximation and includes the memory used by the tasks running at
+ * the same time. At most {@link #MAX_HEAP_SAMPLES} samples are kept, long builds are
+ * sampled less often. The cpu time of a task only includes the thread that ran the task.
+ */
+public class BuildTrace {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 50;
+
+    /**
+     * Once reached, every other sample is dropped and the interval between samples is doubled
+     */
+    @VisibleForTesting
+    static final int MAX_HEAP_SAMPLES = 1024;
+
+    private final long mStartNanos = System.nanoTime();
+    private final List<TaskTrace> mTasks = Collections.synchronizedList(new ArrayList<>());
+    private final Set<TaskTrace> mRunningTasks = ConcurrentHashMap.newKeySet();
+    private final long[] mSampleTimes = new long[MAX_HEAP_SAMPLES];
+    private final long[] mSampleHeap = new long[MAX_HEAP_SAMPLES];
+    private int mSampleCount;
+    private long mSampleInterval = SAMPLE_INTERVAL_MILLIS;
+    private Thread mSampler;
+
+    public class TaskTrace {
+
+        private final String mName;
+        private final long mThreadId;
+        private final String mThreadName;
+        private final TaskMetrics mMetrics = new TaskMetrics();
+        private final AtomicLong mPeakHeap = new AtomicLong();
+
+        private final long mStart;
+        private final long mStartCpu;
+        private long mPrepareEnd;
+        private long mPrepareEndCpu;
+        private long mEnd;
+        private long mEndCpu;
+        private boolean mSuccess;
+
+        private TaskTrace(String name) {
+            Thread thread = Thread.currentThread();
+            mName = name;
+            mThreadId = thread.getId();
+            mThreadName = thread.getName();
+            mStart = now();
+            mStartCpu = SystemClock.currentThreadTimeMillis();
+            mPrepareEnd = mStart;
+            mPrepareEndCpu = mStartCpu;
+            updatePeakHeap(getUsedHeap());
+        }
+
+        public TaskMetrics getMetrics() {
+            return mMetrics;
+        }
+
+        /**
+         * Called after {@link Task#prepare(BuildType)} has returned
+         */
+        public void onPrepared() {
+            mPrepareEnd = now();
+            mPrepareEndCpu = SystemClock.currentThreadTimeMillis();
+        }
+
+        /**
+         * Called once the task has finished running, whether it has failed or not
+         */
+        public void onFinished(boolean success) {
+            mEnd = now();
+            mEndCpu = SystemClock.currentThreadTimeMillis();
+            mSuccess = success;
+            updatePeakHeap(getUsedHeap());
+            mRunningTasks.remove(this);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the wall time of the task in microseconds
+         */
+        public long getDuration() {
+            return mEnd - mStart;
+        }
+
+        /**
+         * @return the cpu time used by the thread running the task in milliseconds
+         */
+        public long getCpuTime() {
+            return mEndCpu - mStartCpu;
+        }
+
+        public long getPeakHeap() {
+            return mPeakHeap.get();
+        }
+
+        private void updatePeakHeap(long used) {
+            mPeakHeap.accumulateAndGet(used, Math::max);
+        }
+    }
+
+    /**
+     * Starts sampling the heap usage, must be followed by a call to {@link #stop()}
+     */
+    public void start() {
+        synchronized (mSampleTimes) {
+            mSampleCount = 0;
+            mSampleInterval = SAMPLE_INTERVAL_MILLIS;
+        }
+        mSampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                long used = getUsedHeap();
+                long interval = addHeapSample(now(), used);
+                for (TaskTrace task : mRunningTasks) {
+                    task.updatePeakHeap(used);
+                }
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }, "Build trace");
+        mSampler.setDaemon(true);
+        mSampler.start();
+    }
+
+    public void stop() {
+        if (mSampler != null) {
+            mSampler.interrupt();
+            mSampler = null;
+        }
+    }
+
+    /**
+     * @return the interval in milliseconds until the next sample should be taken
+     */
+    @VisibleForTesting
+    long addHeapSample(long time, long used) {
+        synchronized (mSampleTimes) {
+            if (mSampleCount == MAX_HEAP_SAMPLES) {
+                // the higher sample of each pair is kept so the peaks are not lost
+                for (int i = 0; i < MAX_HEAP_SAMPLES / 2; i++) {
+                    int from = mSampleHeap[2 * i] >= mSampleHeap[2 * i + 1] ? 2 * i : 2 * i + 1;
+                    mSampleTimes[i] = mSampleTimes[from];
+                    mSampleHeap[i] = mSampleHeap[from];
+                }
+                mSampleCount = MAX_HEAP_SAMPLES / 2;
+                mSampleInterval *= 2;
+            }
+            mSampleTimes[mSampleCount] = time;
+            mSampleHeap[mSampleCount] = used;
+            mSampleCount++;
+            return mSampleInterval;
+        }
+    }
+
+    /**
+     * @return the time and used heap of each sample, in order
+     */
+    @VisibleForTesting
+    List<long[]> getHeapSamples() {
+        synchronized (mSampleTimes) {
+            List<long[]> samples = new ArrayList<>(mSampleCount);
+            for (int i = 0; i < mSampleCount; i++) {
+                samples.add(new long[]{mSampleTimes[i], mSampleHeap[i]});
+            }
+            return samples;
+        }
+    }
+
+    /**
+     * Starts tracing a task on the current thread
+     */
+    public TaskTrace startTask(String name) {
+        TaskTrace task = new TaskTrace(name);
+        mTasks.add(task);
+        mRunningTasks.add(task);
+        return task;
+    }
+
+    public List<TaskTrace> getTasks() {
+        synchronized (mTasks) {
+            return new ArrayList<>(mTasks);
+        }
+    }
+
+    /**
+     * Writes the trace to the given file in the Chrome trace event format
+     */
+    public void write(@NonNull File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+
+        List<TaskTrace> tasks = getTasks();
+        List<long[]> heapSamples = getHeapSamples();
+
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("displayTimeUnit").value("ms");
+            writer.name("traceEvents").beginArray();
+
+            Set<Long> threads = new HashSet<>();
+            for (TaskTrace task : tasks) {
+                if (threads.add(task.mThreadId)) {
+                    writer.beginObject();
+                    writer.name("name").value("thread_name");
+                    writer.name("ph").value("M");
+                    writer.name("pid").value(0);
+                    writer.name("tid").value(task.mThreadId);
+                    writer.name("args").beginObject();
+                    writer.name("name").value(task.mThreadName);
+                    writer.endObject();
+                    writer.endObject();
+                }
+
+                writer.beginObject();
+                writeEvent(writer, task.mName, "task", task.mThreadId, task.mStart, task.mEnd);
+                writer.name("args").beginObject();
+                writer.name("success").value(task.mSuccess);
+                writer.name("wallTimeMs").value(TimeUnit.MICROSECONDS.toMillis(
+                        task.getDuration()));
+                writer.name("cpuTimeMs").value(task.getCpuTime());
+                writer.name("prepareCpuTimeMs").value(task.mPrepareEndCpu - task.mStartCpu);
+                writer.name("runCpuTimeMs").value(task.mEndCpu - task.mPrepareEndCpu);
+                writer.name("peakHeapBytes").value(task.getPeakHeap());
+                writer.name("filesConsidered").value(task.mMetrics.getFilesConsidered());
+                writer.name("filesCompiled").value(task.mMetrics.getFilesCompiled());
+                int hits = task.mMetrics.getCacheHits();
+                int lookups = hits + task.mMetrics.getCacheMisses();
+                writer.name("cacheHits").value(hits);
+                writer.name("cacheMisses").value(task.mMetrics.getCacheMisses());
+                if (lookups > 0) {
+                    writer.name("cacheHitRate").value((double) hits / lookups);
+                }
+                writer.endObject();
+                writer.endObject();
+
+                writer.beginObject();
+                writeEvent(writer, "prepare", "phase", task.mThreadId, task.mStart,
+                        task.mPrepareEnd);
+                writer.endObject();
+
+                writer.beginObject();
+                writeEvent(writer, "run", "phase", task.mThreadId, task.mPrepareEnd,
+                        task.mEnd);
+                writer.endObject();
+            }
+
+            for (long[] sample : heapSamples) {
+                writer.beginObject();
+                writer.name("name").value("heap");
+                writer.name("ph").value("C");
+                writer.name("pid").value(0);
+                writer.name("ts").value(sample[0]);
+                writer.name("args").beginObject();
+                writer.name("used").value(sample[1]);
+                writer.endObject();
+                writer.endObject();
+            }
+
+            writer.endArray();
+            writer.endObject();
+        }
+    }
+
+    private static void writeEvent(JsonWriter writer, String name, String category,
+                                   long threadId, long start, long end) throws IOException {
+        writer.name("name").value(name);
+        writer.name("cat").value(category);
+        writer.name("ph").value("X");
+        writer.name("pid").value(0);
+        writer.name("tid").value(threadId);
+        writer.name("ts").value(start);
+        writer.name("dur").value(Math.max(0, end - start));
+    }
+
+    /**
+     * @return the time since the trace was created in microseconds
+     */
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - mStartNanos);
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
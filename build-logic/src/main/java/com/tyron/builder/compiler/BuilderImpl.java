@@ -3,23 +3,35 @@ package com.tyron.builder.compiler;
 import android.os.Handler;
 import android.os.Looper;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.Module;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public abstract class BuilderImpl<T extends Module> implements Builder<T> {
 
+    private static final int MAX_PARALLEL_TASKS = Runtime.getRuntime().availableProcessors();
+
     private final Handler mMainHandler;
     private final T mProject;
     private final ILogger mLogger;
     private final List<Task<? super T>> mTasksRan;
     private TaskListener mTaskListener;
+    private BuildTrace mBuildTrace;
 
     public BuilderImpl(T project, ILogger logger) {
         mProject = project;
@@ -44,34 +56,165 @@ public abstract class BuilderImpl<T extends Module> implements Builder<T> {
         }
     }
 
+    /**
+     * Runs the tasks returned by {@link #getTasks(BuildType)}. Tasks that do not depend on
+     * each other according to their declared inputs and outputs are ran at the same time,
+     * see {@link TaskGraph}.
+     *
+     * If a task fails, no new tasks are started but the tasks that are already running are
+     * allowed to finish before the failed tasks and the tasks that have ran are cleaned.
+     *
+     * The persistent caches of the project are saved after the build, even if it fails,
+     * and the shared {@link BuildCache} is trimmed to {@link BuildCache#DEFAULT_MAX_SIZE}.
+     * A trace of the tasks that ran is written to {@code build/reports/build-trace.json},
+     * see {@link BuildTrace}.
+     */
     @Override
     public final void build(BuildType type) throws CompilationFailedException, IOException {
+        BuildTrace trace = new BuildTrace();
+        mBuildTrace = trace;
+        trace.start();
+        try {
+            runTasks(type, trace);
+        } finally {
+            trace.stop();
+            try {
+                mProject.saveCaches();
+            } catch (IOException e) {
+                getLogger().warning("Unable to save build caches: " + e.getMessage());
+            }
+            BuildCache.trim(BuildCache.DEFAULT_MAX_SIZE);
+            try {
+                trace.write(getBuildTraceFile());
+            } catch (IOException e) {
+                getLogger().warning("Unable to write build trace: " + e.getMessage());
+            }
+        }
+    }
+
+    public File getBuildTraceFile() {
+        return new File(mProject.getBuildDirectory(), "reports/build-trace.json");
+    }
+
+    /**
+     * @return the trace of the last build, or null if this builder hasn't ran yet
+     */
+    @Nullable
+    public BuildTrace getBuildTrace() {
+        return mBuildTrace;
+    }
+
+    private void runTasks(BuildType type, BuildTrace trace)
+            throws CompilationFailedException, IOException {
         mTasksRan.clear();
         List<Task<? super T>> tasks = getTasks(type);
-        for (int i = 0, tasksSize = tasks.size(); i < tasksSize; i++) {
-            Task<? super T> task = tasks.get(i);
-            final float current = i;
-            getLogger().info("Running " + task.getName());
-            try {
-                mMainHandler.post(() -> updateProgress(task.getName(), "Task started",
-                        (int) ((current / (float) tasks.size()) * 100f)));
-                task.prepare(type);
-                task.run();
-            } catch (Throwable e) {
-                if (e instanceof OutOfMemoryError) {
-                    tasks.clear();
-                    mTasksRan.clear();
-                    throw new CompilationFailedException("Builder ran out of memory", e);
+        TaskGraph<Task<? super T>> graph = new TaskGraph<>(tasks);
+
+        int threads = Math.max(1, Math.min(MAX_PARALLEL_TASKS, graph.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<TaskResult> completionService =
+                new ExecutorCompletionService<>(executor);
+
+        Set<Integer> started = new HashSet<>();
+        Set<Integer> finished = new HashSet<>();
+        List<Task<? super T>> failedTasks = new ArrayList<>();
+        Throwable failure = null;
+        int running = 0;
+        try {
+            while (finished.size() < graph.size()) {
+                if (failure == null) {
+                    for (int index : graph.getReadyTasks(finished, started)) {
+                        Task<? super T> task = graph.get(index);
+                        final float current = finished.size();
+                        started.add(index);
+                        running++;
+                        completionService.submit(() -> {
+                            getLogger().info("Running " + task.getName());
+                            BuildTrace.TaskTrace taskTrace = trace.startTask(task.getName());
+                            task.setMetrics(taskTrace.getMetrics());
+                            try {
+                                mMainHandler.post(() -> updateProgress(task.getName(),
+                                        "Task started",
+                                        (int) ((current / (float) tasks.size()) * 100f)));
+                                task.prepare(type);
+                                taskTrace.onPrepared();
+                                task.run();
+                            } catch (Throwable e) {
+                                taskTrace.onFinished(false);
+                                return new TaskResult(index, e);
+                            }
+                            taskTrace.onFinished(true);
+                            return new TaskResult(index, null);
+                        });
+                    }
+                }
+
+                if (running == 0) {
+                    break;
+                }
+
+                TaskResult result = completionService.take().get();
+                running--;
+
+                Task<? super T> task = graph.get(result.index);
+                if (result.error == null) {
+                    finished.add(result.index);
+                    mTasksRan.add(task);
+                } else {
+                    failedTasks.add(task);
+                    if (failure == null) {
+                        failure = result.error;
+                    }
                 }
-                task.clean();
-                mTasksRan.forEach(Task::clean);
-                throw e;
             }
-            mTasksRan.add(task);
+        } catch (InterruptedException | ExecutionException e) {
+            executor.shutdownNow();
+            failedTasks.forEach(Task::clean);
+            mTasksRan.forEach(Task::clean);
+            throw new CompilationFailedException("Build was interrupted", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failure != null) {
+            if (failure instanceof OutOfMemoryError) {
+                tasks.clear();
+                mTasksRan.clear();
+                throw new CompilationFailedException("Builder ran out of memory", failure);
+            }
+            failedTasks.forEach(Task::clean);
+            mTasksRan.forEach(Task::clean);
+            rethrow(failure);
         }
         mTasksRan.forEach(Task::clean);
     }
 
+    private static void rethrow(Throwable e) throws CompilationFailedException, IOException {
+        if (e instanceof CompilationFailedException) {
+            throw (CompilationFailedException) e;
+        }
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new CompilationFailedException(e.getMessage(), e);
+    }
+
+    private static class TaskResult {
+        private final int index;
+        private final Throwable error;
+
+        private TaskResult(int index, Throwable error) {
+            this.index = index;
+            this.error = error;
+        }
+    }
+
     public abstract List<Task<? super T>> getTasks(BuildType type);
 
     /**
@@ -2,6 +2,7 @@ package com.tyron.builder.compiler;
 
 import com.tyron.builder.compiler.incremental.dex.IncrementalD8Task;
 import com.tyron.builder.compiler.incremental.java.IncrementalJavaTask;
+import com.tyron.builder.compiler.manifest.ManifestMergeTask;
 import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
@@ -65,10 +66,14 @@ public class CleanTask extends Task<AndroidModule> {
 
         getModule().getCache(IncrementalJavaTask.CACHE_KEY, new Cache<>())
                 .clear();
+        getModule().getCache(IncrementalJavaTask.DEPENDENCY_CACHE_KEY, new Cache<>())
+                .clear();
         getModule().getCache(IncrementalD8Task.CACHE_KEY, new Cache<>())
                 .clear();
         getModule().getCache(MergeSymbolsTask.CACHE_KEY, new Cache<>())
                 .clear();
+        getModule().getCache(ManifestMergeTask.CACHE_KEY, new Cache<>())
+                .clear();
     }
     private void cleanClasses() {
 
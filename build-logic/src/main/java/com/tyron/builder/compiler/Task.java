@@ -1,10 +1,14 @@
 package com.tyron.builder.compiler;
 
+import androidx.annotation.Nullable;
+
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.project.api.Module;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Set;
 
 /**
  *
@@ -13,6 +17,7 @@ public abstract class Task<T extends Module> {
 
     private final T mProject;
     private final ILogger mLogger;
+    private TaskMetrics mMetrics = new TaskMetrics();
 
     public Task(T project, ILogger logger) {
         mProject = project;
@@ -33,11 +38,50 @@ public abstract class Task<T extends Module> {
         return mProject;
     }
 
+    /**
+     * @return the metrics of the current build, incremental tasks should report the
+     * number of files they looked at and recompiled and the caches they used
+     */
+    protected TaskMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    void setMetrics(TaskMetrics metrics) {
+        mMetrics = metrics;
+    }
+
     /**
      * Called by {@link ApkBuilder} to display the name of the task to the logs
      */
     public abstract String getName();
 
+    /**
+     * The files and directories this task reads from. Used by {@link BuilderImpl} to
+     * determine which tasks can run at the same time. A directory includes everything
+     * inside it.
+     *
+     * This is called before {@link #prepare(BuildType)} so it should only depend on the
+     * module and not on the results of other tasks.
+     *
+     * @return the inputs of this task, or null if the inputs are unknown in which case
+     * this task will wait for every task before it and every task after it will wait
+     * for this task
+     */
+    @Nullable
+    public Set<File> getInputs() {
+        return null;
+    }
+
+    /**
+     * The files and directories this task writes to, see {@link #getInputs()}
+     *
+     * @return the outputs of this task, or null if the outputs are unknown
+     */
+    @Nullable
+    public Set<File> getOutputs() {
+        return null;
+    }
+
     /**
      * Called before run() to give the subclass information about the project
      * @throws IOException if an exception occurred during a file operation
@@ -0,0 +1,98 @@
+package com.tyron.builder.compiler;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dependency graph of the tasks returned by {@link Builder#getTasks(BuildType)}.
+ *
+ * A task depends on every task before it in the list that writes to one of its inputs,
+ * writes to one of its outputs or reads from one of its outputs. Tasks that do not declare
+ * their inputs and outputs depend on every task before them and are depended on by every
+ * task after them, so they keep the ordering of the list.
+ */
+class TaskGraph<T extends Task<?>> {
+
+    private final List<T> mTasks;
+    private final List<Set<Integer>> mDependencies;
+
+    TaskGraph(List<T> tasks) {
+        mTasks = new ArrayList<>(tasks);
+        mDependencies = new ArrayList<>(tasks.size());
+
+        for (int i = 0; i < mTasks.size(); i++) {
+            Set<Integer> dependencies = new HashSet<>();
+            for (int j = 0; j < i; j++) {
+                if (dependsOn(mTasks.get(i), mTasks.get(j))) {
+                    dependencies.add(j);
+                }
+            }
+            mDependencies.add(dependencies);
+        }
+    }
+
+    public int size() {
+        return mTasks.size();
+    }
+
+    public T get(int index) {
+        return mTasks.get(index);
+    }
+
+    /**
+     * @return the indices of the tasks that should finish before the task at the
+     * given index could start
+     */
+    public Set<Integer> getDependencies(int index) {
+        return Collections.unmodifiableSet(mDependencies.get(index));
+    }
+
+    /**
+     * @param finished the indices of the tasks that have finished
+     * @param started the indices of the tasks that have been started, including finished tasks
+     * @return the indices of the tasks which can be started now
+     */
+    public List<Integer> getReadyTasks(Set<Integer> finished, Set<Integer> started) {
+        List<Integer> ready = new ArrayList<>();
+        for (int i = 0; i < mTasks.size(); i++) {
+            if (!started.contains(i) && finished.containsAll(mDependencies.get(i))) {
+                ready.add(i);
+            }
+        }
+        return ready;
+    }
+
+    private static boolean dependsOn(Task<?> task, Task<?> previous) {
+        Set<File> inputs = task.getInputs();
+        Set<File> outputs = task.getOutputs();
+        Set<File> previousInputs = previous.getInputs();
+        Set<File> previousOutputs = previous.getOutputs();
+        if (inputs == null || outputs == null ||
+                previousInputs == null || previousOutputs == null) {
+            return true;
+        }
+        return overlaps(previousOutputs, inputs) ||
+                overlaps(previousOutputs, outputs) ||
+                overlaps(previousInputs, outputs);
+    }
+
+    private static boolean overlaps(@NonNull Set<File> first, @NonNull Set<File> second) {
+        for (File a : first) {
+            Path aPath = a.getAbsoluteFile().toPath().normalize();
+            for (File b : second) {
+                Path bPath = b.getAbsoluteFile().toPath().normalize();
+                if (aPath.startsWith(bPath) || bPath.startsWith(aPath)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,54 @@
+package com.tyron.builder.compiler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters a task can report about the work it did, written to the build trace by
+ * {@link BuilderImpl}. The counters are thread safe so tasks may update them from
+ * their own worker threads.
+ */
+public class TaskMetrics {
+
+    private final AtomicInteger mFilesConsidered = new AtomicInteger();
+    private final AtomicInteger mFilesCompiled = new AtomicInteger();
+    private final AtomicInteger mCacheHits = new AtomicInteger();
+    private final AtomicInteger mCacheMisses = new AtomicInteger();
+
+    /**
+     * @param count the number of input files the task looked at to determine what changed
+     */
+    public void addFilesConsidered(int count) {
+        mFilesConsidered.addAndGet(count);
+    }
+
+    /**
+     * @param count the number of files the task actually processed
+     */
+    public void addFilesCompiled(int count) {
+        mFilesCompiled.addAndGet(count);
+    }
+
+    public void addCacheHit() {
+        mCacheHits.incrementAndGet();
+    }
+
+    public void addCacheMiss() {
+        mCacheMisses.incrementAndGet();
+    }
+
+    public int getFilesConsidered() {
+        return mFilesConsidered.get();
+    }
+
+    public int getFilesCompiled() {
+        return mFilesCompiled.get();
+    }
+
+    public int getCacheHits() {
+        return mCacheHits.get();
+    }
+
+    public int getCacheMisses() {
+        return mCacheMisses.get();
+    }
+}
@@ -3,32 +3,27 @@ package com.tyron.builder.compiler.aab;
 import com.tyron.builder.BuildModule;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
+import com.tyron.builder.compiler.apk.ZipPatcher;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.AndroidModule;
 import com.tyron.common.util.BinaryExecutor;
-import com.tyron.common.util.Decompress;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 public class AabTask extends Task<AndroidModule> {
 
@@ -39,8 +34,8 @@ public class AabTask extends Task<AndroidModule> {
     private static final String TAG = "AabTask";
 
     private File mBinDir;
-    private File base;
-    private File manifest;
+    private File mProtoApk;
+    private File mModuleZip;
 
     @Override
     public String getName() {
@@ -50,29 +45,11 @@ public class AabTask extends Task<AndroidModule> {
     @Override
     public void prepare(BuildType type) throws IOException {
         mBinDir = new File(getModule().getBuildDirectory(), "/bin");
-        base = new File(mBinDir.getAbsolutePath(), "/base");
-
-        if (!base.exists() && !base.mkdirs()) {
-            throw new IOException("Failed to create resource output directory");
-        }
-
-        manifest = new File(mBinDir.getAbsolutePath(), "/base/manifest");
-        if (!manifest.exists() && !manifest.mkdirs()) {
-            throw new IOException("Failed to create resource output directory");
-        }
-
-        File dex = new File(mBinDir.getAbsolutePath(), "/base/dex");
-        if (!dex.exists() && !dex.mkdirs()) {
-            throw new IOException("Failed to create resource output directory");
-        }
-
+        mProtoApk = new File(mBinDir, "proto-format.zip");
+        mModuleZip = new File(mBinDir, "Base-Module.zip");
     }
 
     public void run() throws IOException, CompilationFailedException {
-        unZip();
-        copyManifest();
-        copyJni();
-        copyDexFiles();
         baseZip();
         budletool();
         aab();
@@ -82,11 +59,7 @@ public class AabTask extends Task<AndroidModule> {
 
     @Override
     protected void clean() {
-        try {
-            FileUtils.deleteDirectory(base);
-        } catch (IOException ignore) {
-
-        }
+        FileUtils.deleteQuietly(mModuleZip);
     }
 
     private void extractApks() throws IOException {
@@ -156,109 +129,76 @@ public class AabTask extends Task<AndroidModule> {
 
     private void budletool() throws IOException {
         getLogger().debug("Preparing Bundletool");
-
-        File bundletool = new File(BuildModule.getContext().getFilesDir(), "bundletool.jar");
-        if (!bundletool.exists()) {
-            InputStream input = BuildModule.getContext()
-                    .getAssets().open("bundletool.jar");
-            OutputStream output = new FileOutputStream(
-                    new File(BuildModule.getContext().getFilesDir(), "bundletool.jar"));
-            IOUtils.copy(input, output);
-        }
+        BundleTool.getJar();
     }
 
 
-    private void aab() throws CompilationFailedException {
+    private void aab() throws IOException, CompilationFailedException {
         getLogger().debug("Generating AAB.");
-
-        List<String> args = new ArrayList<>();
-        args.add("dalvikvm");
-        args.add("-Xcompiler-option");
-        args.add("--compiler-filter=speed");
-        args.add("-Xmx256m");
-        args.add("-Djava.io.tmpdir=" + BuildModule.getContext().getCacheDir().getAbsolutePath());
-        args.add("-cp");
-        args.add(BuildModule.getContext().getFilesDir() + "/bundletool.jar");
-        args.add("com.android.tools.build.bundletool.BundleToolMain");
-        args.add("build-bundle");
-        args.add("--modules=" + mBinDir.getAbsolutePath() + "/Base-Module.zip");
-        args.add("--output=" + mBinDir.getAbsolutePath() + "/module.aab");
-
-        BinaryExecutor executor = new BinaryExecutor();
-        executor.setCommands(args);
-        if (!executor.execute().isEmpty()) {
-            throw new CompilationFailedException(executor.getLog());
-        }
+        BundleTool.buildBundle(new File(mBinDir, "module.aab"), mModuleZip);
     }
 
 
+    /**
+     * Writes the base module of the bundle by copying the entries of the proto format apk
+     * without decompressing them, the dex files and native libraries are added from where
+     * they were built.
+     */
     private void baseZip() throws IOException {
         getLogger().debug("Creating Module Archive");
-        String folderToZip = base.getAbsolutePath();
-        String zipName = mBinDir.getAbsolutePath() + "/Base-Module.zip";
-        zipFolder(Paths.get(folderToZip), Paths.get(zipName));
-    }
-
-    // Uses java.util.zip to create zip file
-    private void zipFolder(final Path sourceFolderPath, Path zipPath) throws IOException {
-        final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipPath.toFile()));
-        Files.walkFileTree(sourceFolderPath, new SimpleFileVisitor<Path>() {
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                zos.putNextEntry(new ZipEntry(sourceFolderPath.relativize(file).toString()));
-                Files.copy(file, zos);
-                zos.closeEntry();
-                return FileVisitResult.CONTINUE;
-            }
-        });
-        zos.close();
-    }
-
-
-    private void copyManifest() throws CompilationFailedException {
-        getLogger().debug("Copying Manifest.");
 
-        List<String> args = new ArrayList<>();
-        args.add("mv");
-        args.add(base.getAbsolutePath() + "/AndroidManifest.xml");
-        args.add(manifest.getAbsolutePath() + "");
-        BinaryExecutor executor = new BinaryExecutor();
-        executor.setCommands(args);
-        if (!executor.execute().isEmpty()) {
-            throw new CompilationFailedException(executor.getLog());
+        if (!mProtoApk.exists()) {
+            throw new IOException("Unable to find proto format resources at " + mProtoApk);
         }
-    }
 
-    private void copyDexFiles() throws IOException {
-        File[] dexFiles = mBinDir.listFiles(c ->
-                c.isFile() && c.getName().endsWith(".dex")
-        );
+        if (mModuleZip.exists() && !mModuleZip.delete()) {
+            throw new IOException("Unable to delete " + mModuleZip);
+        }
 
-        File dexOutput = new File(mBinDir, "base/dex");
-        if (dexFiles != null) {
-            for (File dexFile : dexFiles) {
-                FileUtils.copyFileToDirectory(dexFile, dexOutput);
+        try (ZipPatcher.Source protoApk = new ZipPatcher.Source(mProtoApk);
+             ZipPatcher module = new ZipPatcher(mModuleZip)) {
+            for (ZipPatcher.Entry entry : protoApk.getEntries().values()) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = entry.getName();
+                if ("AndroidManifest.xml".equals(name)) {
+                    name = "manifest/AndroidManifest.xml";
+                }
+                module.addEntry(name, protoApk, entry);
             }
-        }
-    }
 
-    private void copyJni() throws IOException {
-        getLogger().debug("Coping JniLibs.");
-        String fromDirectory = getModule().getNativeLibrariesDirectory().getAbsolutePath();
-        String toToDirectory = base.getAbsolutePath() + "/lib";
-        copyDirectoryFileVisitor(fromDirectory, toToDirectory);
-    }
+            addNativeLibraries(module);
 
-    public static void copyDirectoryFileVisitor(String source, String target)
-            throws IOException {
-        TreeCopyFileVisitor fileVisitor = new TreeCopyFileVisitor(source, target);
-        Files.walkFileTree(Paths.get(source), fileVisitor);
+            File[] dexFiles = mBinDir.listFiles(c ->
+                    c.isFile() && c.getName().endsWith(".dex"));
+            if (dexFiles != null) {
+                Arrays.sort(dexFiles);
+                for (File dexFile : dexFiles) {
+                    module.addFile("dex/" + dexFile.getName(), dexFile);
+                }
+            }
+
+            module.commit();
+        }
     }
 
+    private void addNativeLibraries(ZipPatcher module) throws IOException {
+        File nativeLibraries = getModule().getNativeLibrariesDirectory();
+        if (nativeLibraries == null || !nativeLibraries.isDirectory()) {
+            return;
+        }
 
-    private void unZip() {
-        getLogger().debug("Unzipping proto format.");
-        String zipFilePath = mBinDir.getAbsolutePath() + "/proto-format.zip";
-        String destDir = base.getAbsolutePath() + "";
-        Decompress.unzip(zipFilePath, destDir);
+        Path root = nativeLibraries.toPath();
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(root)) {
+            files = stream.filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+            module.addFile("lib/" + relative, file.toFile());
+        }
     }
 }
@@ -0,0 +1,110 @@
+package com.tyron.builder.compiler.aab;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.tyron.builder.BuildModule;
+import com.tyron.builder.exception.CompilationFailedException;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import dalvik.system.DexClassLoader;
+
+/**
+ * Runs bundletool commands in the current process instead of starting a new vm for each
+ * of them. The class loader of bundletool is kept for the following builds so its classes
+ * don't need to be loaded and compiled again.
+ */
+public class BundleTool {
+
+    private static final String JAR_NAME = "bundletool.jar";
+
+    private static final String FLAG_PARSER_CLASS =
+            "com.android.tools.build.bundletool.flags.FlagParser";
+    private static final String PARSED_FLAGS_CLASS =
+            "com.android.tools.build.bundletool.flags.ParsedFlags";
+    private static final String BUILD_BUNDLE_COMMAND_CLASS =
+            "com.android.tools.build.bundletool.commands.BuildBundleCommand";
+
+    private static ClassLoader sClassLoader;
+    private static long sJarLastModified;
+
+    /**
+     * @return the bundletool jar, extracted from the assets if it doesn't exist yet
+     */
+    public static File getJar() throws IOException {
+        Context context = BuildModule.getContext();
+        File jar = new File(context.getFilesDir(), JAR_NAME);
+        if (!jar.exists()) {
+            try (InputStream input = context.getAssets().open(JAR_NAME)) {
+                FileUtils.copyInputStreamToFile(input, jar);
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * @return the class loader of bundletool, reused as long as the jar has not changed
+     */
+    public static synchronized ClassLoader getClassLoader() throws IOException {
+        File jar = getJar();
+        if (sClassLoader == null || sJarLastModified != jar.lastModified()) {
+            Context context = BuildModule.getContext();
+            sClassLoader = new DexClassLoader(jar.getAbsolutePath(),
+                    context.getCodeCacheDir().getAbsolutePath(), null,
+                    BundleTool.class.getClassLoader());
+            sJarLastModified = jar.lastModified();
+        }
+        return sClassLoader;
+    }
+
+    /**
+     * Builds an app bundle from the given module archives
+     */
+    public static void buildBundle(@NonNull File output, @NonNull File... modules)
+            throws IOException, CompilationFailedException {
+        StringBuilder modulesFlag = new StringBuilder();
+        for (File module : modules) {
+            if (modulesFlag.length() > 0) {
+                modulesFlag.append(',');
+            }
+            modulesFlag.append(module.getAbsolutePath());
+        }
+
+        if (output.exists() && !output.delete()) {
+            throw new IOException("Unable to delete " + output);
+        }
+
+        ClassLoader classLoader = getClassLoader();
+        try {
+            Object flags = parseFlags(classLoader, "build-bundle",
+                    "--modules=" + modulesFlag,
+                    "--output=" + output.getAbsolutePath());
+            Class<?> commandClass = classLoader.loadClass(BUILD_BUNDLE_COMMAND_CLASS);
+            Object command = commandClass
+                    .getMethod("fromFlags", classLoader.loadClass(PARSED_FLAGS_CLASS))
+                    .invoke(null, flags);
+            commandClass.getMethod("execute").invoke(command);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new CompilationFailedException(String.valueOf(cause.getMessage()), cause);
+        } catch (ReflectiveOperationException e) {
+            throw new CompilationFailedException("Unsupported bundletool version: " + e);
+        }
+    }
+
+    private static Object parseFlags(ClassLoader classLoader, String... args)
+            throws ReflectiveOperationException {
+        Class<?> parserClass = classLoader.loadClass(FLAG_PARSER_CLASS);
+        Object parser = parserClass.getConstructor().newInstance();
+        Method parse = parserClass.getMethod("parse", String[].class);
+        return parse.invoke(parser, (Object) args);
+    }
+}
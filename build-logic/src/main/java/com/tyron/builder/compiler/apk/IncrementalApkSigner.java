@@ -0,0 +1,310 @@
+package com.tyron.builder.compiler.apk;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.apk.ApkSigningBlockUtils;
+import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.SignatureAlgorithm;
+import com.android.apksig.internal.apk.v2.V2SchemeSigner;
+import com.android.apksig.internal.util.Pair;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Signs an apk with the APK signature scheme v2 only. The v2 digest of an apk is made of the
+ * digests of its 1 MB chunks, the digests of the chunks that come before the central
+ * directory are kept between builds. When the apk has been patched by {@link ZipPatcher},
+ * only the chunks that overlap the ranges it wrote are digested again.
+ *
+ * The JAR signature (v1) rewrites the entries of the apk, apks that need it are signed by
+ * apksig instead.
+ */
+public class IncrementalApkSigner {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final Map<File, ChunkDigests> sDigests = new HashMap<>();
+
+    /**
+     * The digests of the chunks of an apk, keyed by the offset of the chunk. They are only
+     * valid while the apk still has the length and modification time they were computed for.
+     */
+    private static class ChunkDigests {
+        final Map<ContentDigestAlgorithm, Map<Long, byte[]>> digests =
+                new EnumMap<>(ContentDigestAlgorithm.class);
+        /** the sizes of the chunks, the last chunk is smaller than the others */
+        final Map<Long, Integer> sizes = new HashMap<>();
+        long length;
+        long lastModified;
+
+        boolean matches(File apk) {
+            return apk.length() == length && apk.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Called after the apk has been patched, the digests of the chunks that overlap the
+     * changed ranges are forgotten
+     *
+     * @param changedRanges the start and end offsets of the written bytes, null if the whole
+     *                      file has changed
+     */
+    public static synchronized void onPatched(File apk, @Nullable List<long[]> changedRanges) {
+        ChunkDigests cached = sDigests.get(apk.getAbsoluteFile());
+        if (cached == null) {
+            return;
+        }
+        if (changedRanges == null) {
+            sDigests.remove(apk.getAbsoluteFile());
+            return;
+        }
+        for (Iterator<Map.Entry<Long, Integer>> it = cached.sizes.entrySet().iterator();
+             it.hasNext(); ) {
+            Map.Entry<Long, Integer> chunk = it.next();
+            long start = chunk.getKey();
+            long end = start + chunk.getValue();
+            for (long[] range : changedRanges) {
+                if (start < range[1] && range[0] < end) {
+                    it.remove();
+                    for (Map<Long, byte[]> digests : cached.digests.values()) {
+                        digests.remove(start);
+                    }
+                    break;
+                }
+            }
+        }
+        cached.length = apk.length();
+        cached.lastModified = apk.lastModified();
+    }
+
+    @VisibleForTesting
+    public static synchronized int getCachedChunks(File apk) {
+        ChunkDigests cached = sDigests.get(apk.getAbsoluteFile());
+        return cached == null ? 0 : cached.sizes.size();
+    }
+
+    /**
+     * @param input an apk that doesn't have an APK signing block yet
+     * @param certificates the certificates of the key, the first one contains its public key
+     */
+    public static void sign(File input, File output, PrivateKey privateKey,
+                            List<X509Certificate> certificates, int minSdkVersion)
+            throws Exception {
+        List<SignatureAlgorithm> algorithms = V2SchemeSigner.getSuggestedSignatureAlgorithms(
+                certificates.get(0).getPublicKey(), minSdkVersion, false);
+
+        try (RandomAccessFile file = new RandomAccessFile(input, "r")) {
+            DataSource apk = DataSources.asDataSource(file);
+            ApkUtils.ZipSections sections = ApkUtils.findZipSections(apk);
+            long centralDirectoryOffset = sections.getZipCentralDirectoryOffset();
+            DataSource centralDirectory = apk.slice(centralDirectoryOffset,
+                    sections.getZipCentralDirectorySizeBytes());
+            ByteBuffer endOfCentralDirectory = sections.getZipEndOfCentralDirectory();
+
+            Map<ContentDigestAlgorithm, byte[]> contentDigests = computeContentDigests(input,
+                    algorithms, apk.slice(0, centralDirectoryOffset), centralDirectory,
+                    DataSources.asDataSource(endOfCentralDirectory.slice()));
+
+            byte[] signingBlock = ApkSigningBlockUtils.generateApkSigningBlock(
+                    Collections.singletonList(Pair.of(
+                            generateV2Block(privateKey, certificates, algorithms, contentDigests),
+                            V2SchemeSigner.APK_SIGNATURE_SCHEME_V2_BLOCK_ID)));
+
+            ByteBuffer newEndOfCentralDirectory = ByteBuffer.allocate(
+                    endOfCentralDirectory.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+            newEndOfCentralDirectory.put(endOfCentralDirectory.slice());
+            newEndOfCentralDirectory.flip();
+            ApkUtils.setZipEocdCentralDirectoryOffset(newEndOfCentralDirectory,
+                    centralDirectoryOffset + signingBlock.length);
+
+            try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                FileChannel in = file.getChannel();
+                long transferred = 0;
+                while (transferred < centralDirectoryOffset) {
+                    transferred += in.transferTo(transferred,
+                            centralDirectoryOffset - transferred, out);
+                }
+                out.position(centralDirectoryOffset);
+                writeFully(out, ByteBuffer.wrap(signingBlock));
+                writeFully(out, centralDirectory.getByteBuffer(0,
+                        (int) centralDirectory.size()));
+                writeFully(out, newEndOfCentralDirectory);
+            }
+        }
+    }
+
+    /**
+     * Digests the sections the way the APK signature scheme v2 does, each section is split
+     * into chunks of 1 MB and the digest of the apk is the digest of the digests of the
+     * chunks. The chunks of the entries are taken from the cache if they haven't changed.
+     */
+    private static Map<ContentDigestAlgorithm, byte[]> computeContentDigests(File apk,
+            List<SignatureAlgorithm> algorithms, DataSource entries,
+            DataSource centralDirectory, DataSource endOfCentralDirectory) throws Exception {
+        ChunkDigests cached;
+        synchronized (IncrementalApkSigner.class) {
+            cached = sDigests.get(apk.getAbsoluteFile());
+            if (cached == null || !cached.matches(apk)) {
+                cached = new ChunkDigests();
+                cached.length = apk.length();
+                cached.lastModified = apk.lastModified();
+                sDigests.put(apk.getAbsoluteFile(), cached);
+            }
+        }
+
+        Map<ContentDigestAlgorithm, byte[]> result = new EnumMap<>(ContentDigestAlgorithm.class);
+        for (SignatureAlgorithm algorithm : algorithms) {
+            ContentDigestAlgorithm digestAlgorithm = algorithm.getContentDigestAlgorithm();
+            if (result.containsKey(digestAlgorithm)) {
+                continue;
+            }
+            MessageDigest md = MessageDigest.getInstance(getJcaDigestAlgorithm(digestAlgorithm));
+
+            List<byte[]> chunkDigests = new ArrayList<>();
+            synchronized (IncrementalApkSigner.class) {
+                Map<Long, byte[]> digests = cached.digests.get(digestAlgorithm);
+                if (digests == null) {
+                    digests = new HashMap<>();
+                    cached.digests.put(digestAlgorithm, digests);
+                }
+                for (long offset = 0; offset < entries.size(); offset += CHUNK_SIZE) {
+                    int size = (int) Math.min(CHUNK_SIZE, entries.size() - offset);
+                    Integer cachedSize = cached.sizes.get(offset);
+                    byte[] digest = digests.get(offset);
+                    if (digest == null || cachedSize == null || cachedSize != size) {
+                        digest = digestChunk(md, entries, offset, size);
+                        if (cachedSize == null || cachedSize != size) {
+                            // the digests of the other algorithms were for another chunk
+                            for (Map<Long, byte[]> other : cached.digests.values()) {
+                                other.remove(offset);
+                            }
+                        }
+                        digests.put(offset, digest);
+                        cached.sizes.put(offset, size);
+                    }
+                    chunkDigests.add(digest);
+                }
+            }
+            // the central directory is written again on every change, it is never cached
+            for (DataSource section : new DataSource[]{centralDirectory, endOfCentralDirectory}) {
+                for (long offset = 0; offset < section.size(); offset += CHUNK_SIZE) {
+                    int size = (int) Math.min(CHUNK_SIZE, section.size() - offset);
+                    chunkDigests.add(digestChunk(md, section, offset, size));
+                }
+            }
+
+            md.update((byte) 0x5a);
+            md.update(intToBytes(chunkDigests.size()));
+            for (byte[] digest : chunkDigests) {
+                md.update(digest);
+            }
+            result.put(digestAlgorithm, md.digest());
+        }
+        return result;
+    }
+
+    private static byte[] digestChunk(MessageDigest md, DataSource section, long offset,
+                                      int size) throws IOException {
+        md.update((byte) 0xa5);
+        md.update(intToBytes(size));
+        md.update(section.getByteBuffer(offset, size));
+        return md.digest();
+    }
+
+    /**
+     * Encodes the APK signature scheme v2 block of a single signer, see
+     * {@link V2SchemeSigner#generateApkSignatureSchemeV2Block}
+     */
+    private static byte[] generateV2Block(PrivateKey privateKey,
+                                          List<X509Certificate> certificates,
+                                          List<SignatureAlgorithm> algorithms,
+                                          Map<ContentDigestAlgorithm, byte[]> contentDigests)
+            throws Exception {
+        List<Pair<Integer, byte[]>> digests = new ArrayList<>();
+        for (SignatureAlgorithm algorithm : algorithms) {
+            digests.add(Pair.of(algorithm.getId(),
+                    contentDigests.get(algorithm.getContentDigestAlgorithm())));
+        }
+        byte[] signedData = ApkSigningBlockUtils.encodeAsSequenceOfLengthPrefixedElements(
+                new byte[][]{
+                        ApkSigningBlockUtils
+                                .encodeAsSequenceOfLengthPrefixedPairsOfIntAndLengthPrefixedBytes(
+                                        digests),
+                        ApkSigningBlockUtils.encodeAsSequenceOfLengthPrefixedElements(
+                                ApkSigningBlockUtils.encodeCertificates(certificates)),
+                        // no additional attributes
+                        new byte[0],
+                });
+
+        List<Pair<Integer, byte[]>> signatures = new ArrayList<>();
+        for (SignatureAlgorithm algorithm : algorithms) {
+            Pair<String, ? extends AlgorithmParameterSpec> jcaAlgorithm =
+                    algorithm.getJcaSignatureAlgorithmAndParams();
+            Signature signature = Signature.getInstance(jcaAlgorithm.getFirst());
+            signature.initSign(privateKey);
+            if (jcaAlgorithm.getSecond() != null) {
+                signature.setParameter(jcaAlgorithm.getSecond());
+            }
+            signature.update(signedData);
+            signatures.add(Pair.of(algorithm.getId(), signature.sign()));
+        }
+
+        byte[] signer = ApkSigningBlockUtils.encodeAsSequenceOfLengthPrefixedElements(
+                new byte[][]{
+                        signedData,
+                        ApkSigningBlockUtils
+                                .encodeAsSequenceOfLengthPrefixedPairsOfIntAndLengthPrefixedBytes(
+                                        signatures),
+                        ApkSigningBlockUtils.encodePublicKey(certificates.get(0).getPublicKey()),
+                });
+        return ApkSigningBlockUtils.encodeAsSequenceOfLengthPrefixedElements(new byte[][]{
+                ApkSigningBlockUtils.encodeAsSequenceOfLengthPrefixedElements(
+                        new byte[][]{signer}),
+        });
+    }
+
+    private static String getJcaDigestAlgorithm(ContentDigestAlgorithm algorithm) {
+        switch (algorithm) {
+            case CHUNKED_SHA256:
+                return "SHA-256";
+            case CHUNKED_SHA512:
+                return "SHA-512";
+            default:
+                throw new IllegalArgumentException("Unsupported digest " + algorithm);
+        }
+    }
+
+    private static byte[] intToBytes(int value) {
+        return new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16),
+                (byte) (value >>> 24)};
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,24 +1,38 @@
 package com.tyron.builder.compiler.apk;
 
-import android.net.Uri;
-
-import com.android.sdklib.build.ApkBuilder;
-import com.android.sdklib.build.ApkCreationException;
-import com.android.sdklib.build.DuplicateFileException;
-import com.android.sdklib.build.SealedApkException;
+import com.google.common.collect.ImmutableSet;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.AndroidModule;
 
+import org.apache.commons.io.FileUtils;
+
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
 
 public class PackageTask extends Task<AndroidModule> {
 
+    private static final Set<String> IGNORED_FOLDERS =
+            ImmutableSet.of("CVS", ".svn", "SCCS", "META-INF");
+    private static final Set<String> IGNORED_FILES =
+            ImmutableSet.of("thumbs.db", "picasa.ini", "package.html", "overview.html");
+    private static final Set<String> IGNORED_EXTENSIONS =
+            ImmutableSet.of("aidl", "rs", "fs", "rsh", "d", "java", "scala", "class", "scc",
+                    "swp");
+
     /**
      * List of extra dex files not including the main dex file
      */
@@ -78,62 +92,238 @@ public class PackageTask extends Task<AndroidModule> {
 
     @Override
     public void run() throws IOException, CompilationFailedException {
+        Map<File, ZipPatcher.Source> sources = new HashMap<>();
+        try {
+            Map<String, PackagedEntry> entries = collectEntries(sources);
+            try {
+                packageEntries(entries);
+            } catch (ZipException e) {
+                getLogger().debug("Unable to read the previous APK, repackaging. " + e.getMessage());
+                FileUtils.forceDelete(mApk);
+                packageEntries(entries);
+            }
+        } finally {
+            for (ZipPatcher.Source source : sources.values()) {
+                source.close();
+            }
+        }
+    }
 
-        int dexCount = 1;
+    /**
+     * Updates the previously packaged apk in place, only the entries that changed since the
+     * last build are written again. The apk is repackaged from scratch once more than half
+     * of it is taken by removed entries.
+     */
+    private void packageEntries(Map<String, PackagedEntry> entries) throws IOException {
+        ZipPatcher patcher = new ZipPatcher(mApk);
         try {
-            ApkBuilder builder = new ApkBuilder(
-                    mApk.getAbsolutePath(),
-                    mGeneratedRes.getAbsolutePath(),
-                    mDexFile.getAbsolutePath(),
-                    null,
-                    null);
-
-            for (File extraDex : mDexFiles) {
-                dexCount++;
-                builder.addFile(extraDex, Uri.parse(extraDex.getAbsolutePath()).getLastPathSegment());
+            if (patcher.getWastedBytes() * 2 > mApk.length()) {
+                patcher.close();
+                FileUtils.forceDelete(mApk);
+                patcher = new ZipPatcher(mApk);
             }
 
-            for (File library : mLibraries) {
-                builder.addResourcesFromJar(library);
+            for (String name : new ArrayList<>(patcher.getEntries().keySet())) {
+                if (!entries.containsKey(name)) {
+                    patcher.remove(name);
+                }
+            }
 
-                File parent = library.getParentFile();
-                if (parent != null) {
-                    File jniFolder = new File(parent, "jni");
-                    if (jniFolder.exists() && jniFolder.isDirectory()) {
-                        builder.addNativeLibraries(jniFolder);
+            int changed = 0;
+            for (Map.Entry<String, PackagedEntry> entry : entries.entrySet()) {
+                String name = entry.getKey();
+                PackagedEntry packaged = entry.getValue();
+                ZipPatcher.Entry current = patcher.getEntries().get(name);
+                if (packaged.source != null) {
+                    ZipPatcher.Entry sourceEntry = packaged.sourceEntry;
+                    if (current != null && current.getCrc() == sourceEntry.getCrc()
+                            && current.getSize() == sourceEntry.getSize()) {
+                        continue;
                     }
+                    patcher.addEntry(name, packaged.source, sourceEntry);
+                } else {
+                    if (current != null && current.getSize() == packaged.file.length()
+                            && current.getCrc() == getCrc(packaged.file)) {
+                        continue;
+                    }
+                    patcher.addFile(name, packaged.file);
                 }
+                changed++;
             }
 
-            if (getModule().getNativeLibrariesDirectory().exists()) {
-                builder.addNativeLibraries(getModule().getNativeLibrariesDirectory());
+            patcher.commit();
+            IncrementalApkSigner.onPatched(mApk, patcher.getChangedRanges());
+            getLogger().debug("Packaged " + changed + " of " + entries.size() + " entries.");
+        } finally {
+            patcher.close();
+        }
+    }
+
+    /**
+     * Collects the entries of the apk in the order they are packaged, dex files are added
+     * last since they are the ones most likely to change between builds.
+     */
+    private Map<String, PackagedEntry> collectEntries(Map<File, ZipPatcher.Source> sources)
+            throws IOException, CompilationFailedException {
+        Map<String, PackagedEntry> entries = new LinkedHashMap<>();
+
+        ZipPatcher.Source resources = openSource(sources, mGeneratedRes);
+        for (ZipPatcher.Entry entry : resources.getEntries().values()) {
+            if (!entry.isDirectory()) {
+                addEntry(entries, entry.getName(), new PackagedEntry(resources, entry));
             }
+        }
+
+        for (File library : mLibraries) {
+            if (library.isFile()) {
+                ZipPatcher.Source source = openSource(sources, library);
+                for (ZipPatcher.Entry entry : source.getEntries().values()) {
+                    if (!entry.isDirectory() && isJavaResource(entry.getName())) {
+                        addEntry(entries, entry.getName(), new PackagedEntry(source, entry));
+                    }
+                }
+            }
+
+            File parent = library.getParentFile();
+            if (parent != null) {
+                File jniFolder = new File(parent, "jni");
+                if (jniFolder.exists() && jniFolder.isDirectory()) {
+                    addNativeLibraries(entries, jniFolder);
+                }
+            }
+        }
+
+        if (getModule().getNativeLibrariesDirectory().exists()) {
+            addNativeLibraries(entries, getModule().getNativeLibrariesDirectory());
+        }
+
+        int dexCount = 1;
+        addEntry(entries, "classes.dex", new PackagedEntry(mDexFile));
+        for (File extraDex : mDexFiles) {
+            dexCount++;
+            addEntry(entries, extraDex.getName(), new PackagedEntry(extraDex));
+        }
 
-            if (mBuildType == BuildType.DEBUG) {
-                builder.setDebugMode(true);
-                // For debug mode, dex files are not merged to save up compile time
-                for (File it : getModule().getLibraries()) {
-                    File parent = it.getParentFile();
-                    if (parent != null) {
-                        File[] dexFiles = parent.listFiles(c -> c.getName().endsWith(".dex"));
-                        if (dexFiles != null) {
-                            for (File dexFile : dexFiles) {
-                                dexCount++;
-                                builder.addFile(dexFile, "classes" + dexCount + ".dex");
-                            }
+        if (mBuildType == BuildType.DEBUG) {
+            // For debug mode, dex files are not merged to save up compile time
+            for (File it : getModule().getLibraries()) {
+                File parent = it.getParentFile();
+                if (parent != null) {
+                    File[] dexFiles = parent.listFiles(c -> c.getName().endsWith(".dex"));
+                    if (dexFiles != null) {
+                        for (File dexFile : dexFiles) {
+                            dexCount++;
+                            addEntry(entries, "classes" + dexCount + ".dex",
+                                    new PackagedEntry(dexFile));
                         }
                     }
                 }
             }
-            builder.sealApk();
-        } catch (ApkCreationException | SealedApkException e) {
-            throw new CompilationFailedException(e);
-        } catch (DuplicateFileException e) {
+        }
+        return entries;
+    }
+
+    private void addNativeLibraries(Map<String, PackagedEntry> entries, File directory)
+            throws CompilationFailedException {
+        File[] abiFolders = directory.listFiles(File::isDirectory);
+        if (abiFolders == null) {
+            return;
+        }
+        for (File abiFolder : abiFolders) {
+            File[] libraries = abiFolder.listFiles(File::isFile);
+            if (libraries == null) {
+                continue;
+            }
+            for (File library : libraries) {
+                String name = library.getName();
+                if (name.endsWith(".so")
+                        || (mBuildType == BuildType.DEBUG && name.equals("gdbserver"))) {
+                    addEntry(entries, "lib/" + abiFolder.getName() + "/" + name,
+                            new PackagedEntry(library));
+                }
+            }
+        }
+    }
+
+    private static void addEntry(Map<String, PackagedEntry> entries, String name,
+                                 PackagedEntry entry) throws CompilationFailedException {
+        PackagedEntry existing = entries.put(name, entry);
+        if (existing != null) {
             String message = "Duplicate files from two libraries detected. \n";
-            message += "File1: " + e.getFile1() + " \n";
-            message += "File2: " + e.getFile2() + " \n";
-            message += "Archive path: " + e.getArchivePath();
+            message += "File1: " + existing.getOrigin() + " \n";
+            message += "File2: " + entry.getOrigin() + " \n";
+            message += "Archive path: " + name;
             throw new CompilationFailedException(message);
         }
     }
+
+    private static ZipPatcher.Source openSource(Map<File, ZipPatcher.Source> sources, File file)
+            throws IOException {
+        ZipPatcher.Source source = sources.get(file);
+        if (source == null) {
+            source = new ZipPatcher.Source(file);
+            sources.put(file, source);
+        }
+        return source;
+    }
+
+    /**
+     * Whether the entry of a library jar should be packaged, the same entries that
+     * the sdklib ApkBuilder packages are accepted.
+     */
+    private static boolean isJavaResource(String path) {
+        if (path.startsWith("META-INF/")) {
+            return false;
+        }
+        String[] segments = path.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            String folder = segments[i];
+            if (folder.startsWith("_") || IGNORED_FOLDERS.contains(folder)) {
+                return false;
+            }
+        }
+
+        String name = segments[segments.length - 1];
+        if (name.startsWith(".") || name.endsWith("~")
+                || IGNORED_FILES.contains(name.toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+        int dot = name.lastIndexOf('.');
+        return dot == -1 || !IGNORED_EXTENSIONS.contains(
+                name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static long getCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static class PackagedEntry {
+        final File file;
+        final ZipPatcher.Source source;
+        final ZipPatcher.Entry sourceEntry;
+
+        PackagedEntry(File file) {
+            this.file = file;
+            this.source = null;
+            this.sourceEntry = null;
+        }
+
+        PackagedEntry(ZipPatcher.Source source, ZipPatcher.Entry sourceEntry) {
+            this.file = null;
+            this.source = source;
+            this.sourceEntry = sourceEntry;
+        }
+
+        File getOrigin() {
+            return source != null ? source.getFile() : file;
+        }
+    }
 }
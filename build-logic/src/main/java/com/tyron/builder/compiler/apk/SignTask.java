@@ -39,6 +39,7 @@ public class SignTask extends Task<AndroidModule> {
     public void run() throws IOException, CompilationFailedException {
         ApkSigner signer = new ApkSigner(mInputApk.getAbsolutePath(),
                 mOutputApk.getAbsolutePath(), ApkSigner.Mode.TEST);
+        signer.setMinSdkVersion(getModule().getMinSdk());
 
         try {
             signer.sign();
@@ -0,0 +1,595 @@
+package com.tyron.builder.compiler.apk;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Adds, replaces and removes the entries of a zip file in place, without rewriting the
+ * entries that are kept.
+ *
+ * Removed entries leave holes that are filled with empty virtual entries, so tools that
+ * read the file sequentially still see a valid zip. New entries are written after the last
+ * entry that is kept, followed by a new central directory. Replacing the entries at the end
+ * of the file, such as dex files, therefore doesn't leave any holes.
+ *
+ * The end of central directory record is invalidated before anything else is written, so a
+ * commit that doesn't finish leaves a file that is rejected as a zip instead of one whose
+ * old central directory points to overwritten entries.
+ *
+ * Zip64 files are not supported.
+ */
+public class ZipPatcher implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_EXTRA_SIZE = 0xffff;
+    private static final int EXTRA_FIELD_HEADER_SIZE = 4;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /**
+     * 1981-01-01 00:00, used for new entries so the output doesn't depend on the build time
+     */
+    private static final int DOS_DATE = (1 << 9) | (1 << 5) | 1;
+    private static final int DOS_TIME = 0;
+
+    public static class Entry {
+        private final String mName;
+        private final int mFlags;
+        private final int mMethod;
+        private final int mTime;
+        private final int mDate;
+        private final long mCrc;
+        private final long mCompressedSize;
+        private final long mSize;
+        private final long mOffset;
+
+        private Entry(String name, int flags, int method, int time, int date, long crc,
+                      long compressedSize, long size, long offset) {
+            mName = name;
+            mFlags = flags;
+            mMethod = method;
+            mTime = time;
+            mDate = date;
+            mCrc = crc;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mOffset = offset;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCrc() {
+            return mCrc;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        public boolean isDirectory() {
+            return mName.endsWith("/");
+        }
+    }
+
+    /**
+     * A read only zip file whose entries can be copied to a {@link ZipPatcher} without
+     * decompressing them
+     */
+    public static class Source implements Closeable {
+
+        private final File mFile;
+        private final FileChannel mChannel;
+        private final Map<String, Entry> mEntries;
+
+        public Source(File file) throws IOException {
+            mFile = file;
+            mChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                mEntries = readCentralDirectory(mChannel, new long[2]);
+            } catch (IOException e) {
+                mChannel.close();
+                throw e;
+            }
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public Map<String, Entry> getEntries() {
+            return Collections.unmodifiableMap(mEntries);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mChannel.close();
+        }
+    }
+
+    private interface PendingEntry {
+        Entry write(FileChannel channel, long offset) throws IOException;
+    }
+
+    private final FileChannel mChannel;
+    private final Map<String, Entry> mEntries;
+    private long mCentralDirectoryOffset;
+    /** -1 if the file doesn't have a valid end of central directory record */
+    private long mEndOfCentralDirectoryOffset;
+    private final List<Entry> mRemoved = new ArrayList<>();
+    private final Map<String, PendingEntry> mAdded = new LinkedHashMap<>();
+    private final List<long[]> mChangedRanges = new ArrayList<>();
+
+    /**
+     * Opens the zip file to patch, the file is created if it does not exist
+     *
+     * @throws ZipException if the file exists but is not a valid zip file
+     */
+    public ZipPatcher(File file) throws IOException {
+        mChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (mChannel.size() == 0) {
+                mEntries = new LinkedHashMap<>();
+                mCentralDirectoryOffset = 0;
+                mEndOfCentralDirectoryOffset = -1;
+            } else {
+                long[] offsets = new long[2];
+                mEntries = readCentralDirectory(mChannel, offsets);
+                mCentralDirectoryOffset = offsets[0];
+                mEndOfCentralDirectoryOffset = offsets[1];
+            }
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the entries currently in the file, not including pending changes
+     */
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(mEntries);
+    }
+
+    /**
+     * @return the number of bytes in the file which are not used by any entry
+     */
+    public long getWastedBytes() throws IOException {
+        long used = 0;
+        for (Entry entry : mEntries.values()) {
+            used += getRecordSize(mChannel, entry);
+        }
+        return mCentralDirectoryOffset - used;
+    }
+
+    /**
+     * @return the start and end offsets of the bytes written by the last commit, the end of
+     * the last range is the end of the file
+     */
+    public List<long[]> getChangedRanges() {
+        return Collections.unmodifiableList(mChangedRanges);
+    }
+
+    public void remove(String name) {
+        mAdded.remove(name);
+        Entry entry = mEntries.remove(name);
+        if (entry != null) {
+            mRemoved.add(entry);
+        }
+    }
+
+    /**
+     * Adds the file as a deflated entry, replacing the existing entry with the same name
+     */
+    public void addFile(String name, File file) {
+        remove(name);
+        mAdded.put(name, (channel, offset) -> writeFile(channel, offset, name, file));
+    }
+
+    /**
+     * Copies the entry of the source zip as is, replacing the existing entry with the same name
+     */
+    public void addEntry(String name, Source source, Entry entry) {
+        remove(name);
+        mAdded.put(name, (channel, offset) -> copyEntry(channel, offset, name, source, entry));
+    }
+
+    /**
+     * Writes the pending changes and the new central directory to the file. If this fails
+     * the file is no longer a valid zip file.
+     */
+    public void commit() throws IOException {
+        mChangedRanges.clear();
+        invalidate();
+
+        Set<Entry> removedEntries = new HashSet<>(mRemoved);
+        List<Entry> existing = new ArrayList<>(mEntries.values());
+        existing.addAll(mRemoved);
+        existing.sort(Comparator.comparingLong(e -> e.mOffset));
+
+        // removed entries at the end of the file are simply overwritten
+        long appendOffset = mCentralDirectoryOffset;
+        int last = existing.size() - 1;
+        while (last >= 0 && removedEntries.contains(existing.get(last))) {
+            appendOffset = existing.get(last).mOffset;
+            last--;
+        }
+
+        // fill the holes left by the other removed entries
+        long holeStart = -1;
+        for (int i = 0; i <= last; i++) {
+            Entry entry = existing.get(i);
+            boolean removed = removedEntries.contains(entry);
+            if (removed && holeStart == -1) {
+                holeStart = entry.mOffset;
+            } else if (!removed && holeStart != -1) {
+                writeVirtualEntries(holeStart, entry.mOffset);
+                holeStart = -1;
+            }
+        }
+        if (holeStart != -1) {
+            writeVirtualEntries(holeStart, appendOffset);
+        }
+
+        mChangedRanges.add(new long[]{appendOffset, Long.MAX_VALUE});
+        long offset = appendOffset;
+        for (PendingEntry pending : mAdded.values()) {
+            Entry entry = pending.write(mChannel, offset);
+            mEntries.put(entry.mName, entry);
+            offset = mChannel.position();
+        }
+
+        writeCentralDirectory(offset);
+        mChannel.truncate(mChannel.position());
+        mChannel.force(false);
+        mCentralDirectoryOffset = offset;
+        mEndOfCentralDirectoryOffset = mChannel.position() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        mRemoved.clear();
+        mAdded.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Overwrites the signature of the end of central directory record and makes sure this
+     * reaches the disk before the entries are changed
+     */
+    private void invalidate() throws IOException {
+        if (mEndOfCentralDirectoryOffset == -1) {
+            return;
+        }
+        writeFully(mChannel, newBuffer(4), mEndOfCentralDirectoryOffset);
+        mChannel.force(false);
+        mEndOfCentralDirectoryOffset = -1;
+    }
+
+    /**
+     * Fills the hole with local headers of empty entries. A hole is at least as large as
+     * the local header of the removed entry, which includes a name of at least one byte.
+     */
+    private void writeVirtualEntries(long start, long end) throws IOException {
+        mChangedRanges.add(new long[]{start, end});
+        long position = start;
+        while (position < end) {
+            long remaining = end - position;
+            long size = Math.min(remaining, LOCAL_HEADER_SIZE + MAX_EXTRA_SIZE);
+            if (remaining - size > 0 && remaining - size < LOCAL_HEADER_SIZE) {
+                // leave enough space for the next virtual entry
+                size = remaining - LOCAL_HEADER_SIZE;
+            }
+
+            int nameSize = 0;
+            int extraSize = (int) (size - LOCAL_HEADER_SIZE);
+            if (extraSize > 0 && extraSize < EXTRA_FIELD_HEADER_SIZE) {
+                // too small for an extra field, readers reject extra data without a header
+                nameSize = extraSize;
+                extraSize = 0;
+            }
+            ByteBuffer buffer = newBuffer((int) size);
+            buffer.putInt(LOCAL_HEADER_SIGNATURE);
+            buffer.putShort((short) 10);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) METHOD_STORED);
+            buffer.putShort((short) DOS_TIME);
+            buffer.putShort((short) DOS_DATE);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putInt(0);
+            buffer.putShort((short) nameSize);
+            buffer.putShort((short) extraSize);
+            for (int i = 0; i < nameSize; i++) {
+                buffer.put((byte) '_');
+            }
+            if (extraSize > 0) {
+                // a single extra field with an unused id, containing zeros
+                buffer.putShort((short) 0);
+                buffer.putShort((short) (extraSize - EXTRA_FIELD_HEADER_SIZE));
+            }
+            buffer.position(0);
+            writeFully(mChannel, buffer, position);
+            position += size;
+        }
+    }
+
+    private static Entry writeFile(FileChannel channel, long offset, String name, File file)
+            throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        channel.position(offset + LOCAL_HEADER_SIZE + nameBytes.length);
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel)), deflater);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+                size += read;
+            }
+            // don't close the stream, it would close the channel
+            ((DeflaterOutputStream) out).finish();
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+        long end = channel.position();
+
+        Entry entry = new Entry(name, FLAG_UTF8, METHOD_DEFLATED, DOS_TIME, DOS_DATE,
+                crc.getValue(), end - offset - LOCAL_HEADER_SIZE - nameBytes.length, size,
+                offset);
+        writeLocalHeader(channel, entry, nameBytes);
+        channel.position(end);
+        return entry;
+    }
+
+    private static Entry copyEntry(FileChannel channel, long offset, String name, Source source,
+                                   Entry sourceEntry) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        Entry entry = new Entry(name, (sourceEntry.mFlags & ~FLAG_DATA_DESCRIPTOR) | FLAG_UTF8,
+                sourceEntry.mMethod, sourceEntry.mTime, sourceEntry.mDate, sourceEntry.mCrc,
+                sourceEntry.mCompressedSize, sourceEntry.mSize, offset);
+        writeLocalHeader(channel, entry, nameBytes);
+
+        long dataOffset = getDataOffset(source.mChannel, sourceEntry);
+        channel.position(offset + LOCAL_HEADER_SIZE + nameBytes.length);
+        long transferred = 0;
+        while (transferred < sourceEntry.mCompressedSize) {
+            long count = source.mChannel.transferTo(dataOffset + transferred,
+                    sourceEntry.mCompressedSize - transferred, channel);
+            if (count <= 0) {
+                throw new ZipException("Unexpected end of " + source.mFile + " while reading "
+                        + sourceEntry.mName);
+            }
+            transferred += count;
+        }
+        return entry;
+    }
+
+    private static void writeLocalHeader(FileChannel channel, Entry entry, byte[] nameBytes)
+            throws IOException {
+        ByteBuffer buffer = newBuffer(LOCAL_HEADER_SIZE + nameBytes.length);
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) (entry.mMethod == METHOD_STORED ? 10 : 20));
+        buffer.putShort((short) entry.mFlags);
+        buffer.putShort((short) entry.mMethod);
+        buffer.putShort((short) entry.mTime);
+        buffer.putShort((short) entry.mDate);
+        buffer.putInt((int) entry.mCrc);
+        buffer.putInt((int) checkSize(entry.mCompressedSize));
+        buffer.putInt((int) checkSize(entry.mSize));
+        buffer.putShort((short) nameBytes.length);
+        buffer.putShort((short) 0);
+        buffer.put(nameBytes);
+        buffer.flip();
+        writeFully(channel, buffer, entry.mOffset);
+    }
+
+    private void writeCentralDirectory(long offset) throws IOException {
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        entries.sort(Comparator.comparingLong(e -> e.mOffset));
+        if (entries.size() > 0xffff) {
+            throw new ZipException("Too many entries, zip64 is not supported");
+        }
+
+        mChannel.position(checkSize(offset));
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(mChannel));
+        long size = 0;
+        for (Entry entry : entries) {
+            byte[] nameBytes = entry.mName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = newBuffer(CENTRAL_HEADER_SIZE + nameBytes.length);
+            buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+            buffer.putShort((short) 20);
+            buffer.putShort((short) (entry.mMethod == METHOD_STORED ? 10 : 20));
+            buffer.putShort((short) entry.mFlags);
+            buffer.putShort((short) entry.mMethod);
+            buffer.putShort((short) entry.mTime);
+            buffer.putShort((short) entry.mDate);
+            buffer.putInt((int) entry.mCrc);
+            buffer.putInt((int) entry.mCompressedSize);
+            buffer.putInt((int) entry.mSize);
+            buffer.putShort((short) nameBytes.length);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putShort((short) 0);
+            buffer.putInt(0);
+            buffer.putInt((int) entry.mOffset);
+            buffer.put(nameBytes);
+            out.write(buffer.array());
+            size += buffer.capacity();
+        }
+
+        ByteBuffer buffer = newBuffer(END_OF_CENTRAL_DIRECTORY_SIZE);
+        buffer.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) entries.size());
+        buffer.putShort((short) entries.size());
+        buffer.putInt((int) checkSize(size));
+        buffer.putInt((int) offset);
+        buffer.putShort((short) 0);
+        out.write(buffer.array());
+        // don't close the stream, it would close the channel
+        out.flush();
+    }
+
+    /**
+     * @param offsets receives the offset of the central directory and the offset of the
+     *                end of central directory record
+     */
+    private static Map<String, Entry> readCentralDirectory(FileChannel channel, long[] offsets)
+            throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException("File is too small to be a zip file");
+        }
+
+        // the end of central directory record is followed by a comment of up to 64kb
+        int searchSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + 0xffff);
+        ByteBuffer tail = newBuffer(searchSize);
+        readFully(channel, tail, fileSize - searchSize);
+        int eocd = -1;
+        for (int i = searchSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new ZipException("End of central directory not found");
+        }
+
+        int count = tail.getShort(eocd + 10) & 0xffff;
+        long size = tail.getInt(eocd + 12) & 0xffffffffL;
+        long offset = tail.getInt(eocd + 16) & 0xffffffffL;
+        if (count == 0xffff || offset == 0xffffffffL) {
+            throw new ZipException("Zip64 is not supported");
+        }
+        if (offset + size > fileSize) {
+            throw new ZipException("Invalid central directory");
+        }
+        offsets[0] = offset;
+        offsets[1] = fileSize - searchSize + eocd;
+
+        ByteBuffer buffer = newBuffer((int) size);
+        readFully(channel, buffer, offset);
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < CENTRAL_HEADER_SIZE
+                    || buffer.getInt() != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry");
+            }
+            buffer.position(buffer.position() + 4);
+            int flags = buffer.getShort() & 0xffff;
+            int method = buffer.getShort() & 0xffff;
+            int time = buffer.getShort() & 0xffff;
+            int date = buffer.getShort() & 0xffff;
+            long crc = buffer.getInt() & 0xffffffffL;
+            long compressedSize = buffer.getInt() & 0xffffffffL;
+            long uncompressedSize = buffer.getInt() & 0xffffffffL;
+            int nameLength = buffer.getShort() & 0xffff;
+            int extraLength = buffer.getShort() & 0xffff;
+            int commentLength = buffer.getShort() & 0xffff;
+            buffer.position(buffer.position() + 8);
+            long localHeaderOffset = buffer.getInt() & 0xffffffffL;
+
+            byte[] name = new byte[nameLength];
+            buffer.get(name);
+            buffer.position(buffer.position() + extraLength + commentLength);
+
+            Entry entry = new Entry(new String(name, StandardCharsets.UTF_8), flags, method,
+                    time, date, crc, compressedSize, uncompressedSize, localHeaderOffset);
+            entries.put(entry.mName, entry);
+        }
+        return entries;
+    }
+
+    private static long getDataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer header = newBuffer(LOCAL_HEADER_SIZE);
+        readFully(channel, header, entry.mOffset);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.mName);
+        }
+        int nameLength = header.getShort(26) & 0xffff;
+        int extraLength = header.getShort(28) & 0xffff;
+        return entry.mOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private static long getRecordSize(FileChannel channel, Entry entry) throws IOException {
+        long size = getDataOffset(channel, entry) - entry.mOffset + entry.mCompressedSize;
+        if ((entry.mFlags & FLAG_DATA_DESCRIPTOR) != 0) {
+            size += 16;
+        }
+        return size;
+    }
+
+    private static long checkSize(long size) throws ZipException {
+        if (size >= 0xffffffffL) {
+            throw new ZipException("Zip64 is not supported");
+        }
+        return size;
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
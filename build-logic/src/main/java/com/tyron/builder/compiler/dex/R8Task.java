@@ -4,24 +4,50 @@ import com.android.tools.r8.CompilationMode;
 import com.android.tools.r8.OutputMode;
 import com.android.tools.r8.R8;
 import com.android.tools.r8.R8Command;
+import com.android.tools.r8.Version;
 import com.android.tools.r8.origin.Origin;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.tyron.builder.compiler.BuildCache;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
+import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.AndroidModule;
 
+import org.apache.commons.io.FileUtils;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class R8Task extends Task<AndroidModule> {
 
     private static final String TAG = R8Task.class.getSimpleName();
+    private static final String CACHE_CATEGORY = "r8-output";
+
+    private static class FileHash {
+        private final long lastModified;
+        private final long length;
+        private final byte[] hash;
+
+        private FileHash(long lastModified, long length, byte[] hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private static final Map<File, FileHash> sFileHashes = new ConcurrentHashMap<>();
 
     public R8Task(AndroidModule project, ILogger logger) {
         super(project, logger);
@@ -39,18 +65,32 @@ public class R8Task extends Task<AndroidModule> {
 
     @Override
     public void run() throws IOException, CompilationFailedException {
+        File output = new File(getModule().getBuildDirectory(), "bin");
+        File kotlinClasses = new File(getModule().getBuildDirectory(), "bin/kotlin/classes");
+        File javaClasses = new File(getModule().getBuildDirectory(), "bin/java/classes");
+        Collection<Path> jarFiles = getJarFiles();
+        List<Path> proguardRules = getProguardRules();
+        List<String> defaultRules = getDefaultProguardRule();
+
+        String key = getCacheKey(jarFiles, Arrays.asList(kotlinClasses, javaClasses),
+                proguardRules, defaultRules);
+        deleteOutputDexFiles(output);
+        if (BuildCache.restoreFiles(CACHE_CATEGORY, key, output)) {
+            getMetrics().addCacheHit();
+            getLogger().debug("R8 inputs are unchanged, using the cached output");
+            return;
+        }
+        getMetrics().addCacheMiss();
+
         getLogger().debug("Running R8");
         try {
-            File output = new File(getModule().getBuildDirectory(), "bin");
             R8Command.Builder command = R8Command.builder(new DexDiagnosticHandler(getLogger()))
                     .addLibraryFiles(getLibraryFiles())
-                    .addProgramFiles(getJarFiles())
-                    .addProgramFiles(D8Task.getClassFiles(new File(getModule().getBuildDirectory(),
-                            "bin/kotlin/classes")))
-                    .addProgramFiles(D8Task.getClassFiles(new File(getModule().getBuildDirectory(),
-                            "bin/java/classes")))
-                    .addProguardConfiguration(getDefaultProguardRule(), Origin.unknown())
-                    .addProguardConfigurationFiles(getProguardRules())
+                    .addProgramFiles(jarFiles)
+                    .addProgramFiles(D8Task.getClassFiles(kotlinClasses))
+                    .addProgramFiles(D8Task.getClassFiles(javaClasses))
+                    .addProguardConfiguration(defaultRules, Origin.unknown())
+                    .addProguardConfigurationFiles(proguardRules)
                     .setMinApiLevel(getModule().getMinSdk())
                     .setMode(CompilationMode.RELEASE)
                     .setOutput(output.toPath(), OutputMode.DexIndexed);
@@ -58,6 +98,86 @@ public class R8Task extends Task<AndroidModule> {
         } catch (com.android.tools.r8.CompilationFailedException e) {
             throw new CompilationFailedException(e);
         }
+
+        File[] dexFiles = getOutputDexFiles(output);
+        if (dexFiles != null) {
+            BuildCache.storeFiles(CACHE_CATEGORY, key, Arrays.asList(dexFiles));
+        }
+    }
+
+    /**
+     * Hashes everything that affects the output of R8, the hashes of the individual files
+     * are kept in memory so unchanged library jars are not read again on the next build.
+     * The files are hashed in the order of their paths, so the key doesn't depend on the
+     * order the file system lists them in.
+     *
+     * <p>The key is for the whole output of R8, it is not an incremental R8: any change to
+     * the inputs, including a single class file, runs R8 on the whole program again. The
+     * cache only helps when the exact same inputs have been built before, such as when a
+     * change is reverted or another build type is built in between.
+     */
+    private String getCacheKey(Collection<Path> jarFiles, List<File> classDirectories,
+                               List<Path> proguardRules, List<String> defaultRules)
+            throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(Version.getVersionString(), StandardCharsets.UTF_8);
+        hasher.putInt(getModule().getMinSdk());
+        for (Path library : getLibraryFiles()) {
+            hasher.putString(BuildCache.getToolVersion(library.toFile()),
+                    StandardCharsets.UTF_8);
+        }
+        for (Path jar : sorted(jarFiles)) {
+            hasher.putBytes(hashFile(jar.toFile()));
+        }
+        for (File directory : classDirectories) {
+            Path root = directory.toPath();
+            for (Path classFile : sorted(D8Task.getClassFiles(directory))) {
+                // the paths are relative so the key is the same for another build directory
+                hasher.putString(root.relativize(classFile).toString()
+                        .replace(File.separatorChar, '/'), StandardCharsets.UTF_8);
+                hasher.putBytes(hashFile(classFile.toFile()));
+            }
+        }
+        for (Path rules : sorted(proguardRules)) {
+            hasher.putBytes(hashFile(rules.toFile()));
+        }
+        for (String rule : defaultRules) {
+            hasher.putString(rule, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    private static List<Path> sorted(Collection<Path> paths) {
+        List<Path> sorted = new ArrayList<>(paths);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static byte[] hashFile(File file) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        FileHash cached = sFileHashes.get(file);
+        if (cached != null && cached.lastModified == lastModified && cached.length == length) {
+            return cached.hash;
+        }
+        byte[] hash = com.google.common.io.Files.asByteSource(file)
+                .hash(Hashing.murmur3_128()).asBytes();
+        sFileHashes.put(file, new FileHash(lastModified, length, hash));
+        return hash;
+    }
+
+    private static File[] getOutputDexFiles(File output) {
+        return output.listFiles(c -> c.isFile() && c.getName().startsWith("classes")
+                && c.getName().endsWith(".dex"));
+    }
+
+    private static void deleteOutputDexFiles(File output) throws IOException {
+        File[] dexFiles = getOutputDexFiles(output);
+        if (dexFiles != null) {
+            for (File dexFile : dexFiles) {
+                FileUtils.delete(dexFile);
+            }
+        }
     }
 
     private List<String> getDefaultProguardRule() {
@@ -90,6 +210,10 @@ public class R8Task extends Task<AndroidModule> {
         for (File it : getModule().getLibraries()) {
             paths.add(it.toPath());
         }
+        File rJar = MergeSymbolsTask.getRJar(getModule());
+        if (rJar != null) {
+            paths.add(rJar.toPath());
+        }
         return paths;
     }
 
@@ -18,9 +18,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 public class GenerateFirebaseConfigTask extends Task<AndroidModule> {
 
@@ -35,6 +37,17 @@ public class GenerateFirebaseConfigTask extends Task<AndroidModule> {
         return TAG;
     }
 
+    @Override
+    public Set<File> getInputs() {
+        return Collections.singleton(new File(getModule().getRootFile(), "google-services.json"));
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        return Collections.singleton(new File(getModule().getAndroidResourcesDirectory(),
+                "values/secrets.xml"));
+    }
+
     private File mConfigFile;
 
     @Override
@@ -5,10 +5,14 @@ import com.android.tools.r8.D8;
 import com.android.tools.r8.D8Command;
 import com.android.tools.r8.DiagnosticsHandler;
 import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.Version;
+import com.tyron.builder.compiler.BuildCache;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
 import com.tyron.builder.compiler.dex.D8Task;
 import com.tyron.builder.compiler.dex.DexDiagnosticHandler;
+import com.tyron.builder.compiler.log.InjectLoggerTask;
+import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.AndroidModule;
@@ -19,23 +23,39 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class IncrementalD8Task extends Task<AndroidModule> {
 
     private static final String TAG = IncrementalD8Task.class.getSimpleName();
     public static final CacheHolder.CacheKey<String, List<File>> CACHE_KEY =
-            new CacheHolder.CacheKey<>("dexCache");
+            new CacheHolder.CacheKey<>("dexCache", true);
+    private static final String DEX_CACHE = "d8-libraries";
+
+    /**
+     * The number of shards the per class dex files are merged into in debug builds. Classes
+     * are always merged into the same shard, so changing a class only requires the shard
+     * containing it to be merged again.
+     */
+    private static final int SHARD_COUNT = 16;
 
     private DiagnosticsHandler diagnosticsHandler;
     private List<Path> mClassFiles;
     private List<Path> mFilesToCompile;
+    private List<File> mRemovedDexFiles;
+    private List<File> mClassDirectories;
 
     private Cache<String, List<File>> mDexCache;
     private Path mOutputPath;
@@ -64,22 +84,37 @@ public class IncrementalD8Task extends Task<AndroidModule> {
         }
         mOutputPath = output.toPath();
 
-        mFilesToCompile = new ArrayList<>();
-        mClassFiles = new ArrayList<>(D8Task.getClassFiles(new File(getModule().getBuildDirectory(), "bin/java/classes")));
-        mClassFiles.addAll(D8Task.getClassFiles(new File(getModule().getBuildDirectory(), "bin/kotlin/classes")));
+        mClassDirectories = Arrays.asList(
+                new File(getModule().getBuildDirectory(), "bin/java/classes"),
+                new File(getModule().getBuildDirectory(), "bin/kotlin/classes"),
+                InjectLoggerTask.getClassesDirectory(getModule()));
+        mClassFiles = new ArrayList<>();
+        for (File directory : mClassDirectories) {
+            mClassFiles.addAll(D8Task.getClassFiles(directory));
+        }
+
+        // only delete the dex files of the classes that no longer exist
+        Set<Path> classFiles = new HashSet<>(mClassFiles);
+        mRemovedDexFiles = new ArrayList<>();
         for (Cache.Key<String> key : new HashSet<>(mDexCache.getKeys())) {
-            if (!mFilesToCompile.contains(key.file)) {
-                File file = mDexCache.get(key.file, "dex").iterator().next();
-                deleteAllFiles(file, ".dex");
+            if (!classFiles.contains(key.file)) {
+                for (File dexFile : mDexCache.get(key.file, "dex")) {
+                    FileUtils.deleteQuietly(dexFile);
+                    mRemovedDexFiles.add(dexFile);
+                }
                 mDexCache.remove(key.file, "dex");
             }
         }
 
+        mFilesToCompile = new ArrayList<>();
         for (Path file : mClassFiles) {
-            if (mDexCache.needs(file, "dex")) {
+            if (mDexCache.needs(file, "dex")
+                    || !mDexCache.get(file, "dex").stream().allMatch(File::exists)) {
                 mFilesToCompile.add(file);
             }
         }
+        getMetrics().addFilesConsidered(mClassFiles.size());
+        getMetrics().addFilesCompiled(mFilesToCompile.size());
     }
 
     @Override
@@ -96,67 +131,183 @@ public class IncrementalD8Task extends Task<AndroidModule> {
         super.clean();
     }
 
-    private void doRelease() throws CompilationFailedException {
+    private void doRelease() throws CompilationFailedException, IOException {
         try {
             ensureDexedLibraries();
-            D8Command command = D8Command.builder(diagnosticsHandler)
-                    .addClasspathFiles(getModule().getLibraries().stream().map(File::toPath).collect(Collectors.toList()))
-                    .addProgramFiles(mFilesToCompile)
-                    .addLibraryFiles(getLibraryFiles())
-                    .setMinApiLevel(getModule().getMinSdk())
-                    .setMode(CompilationMode.RELEASE)
-                    .setIntermediate(true)
-                    .setOutput(mOutputPath, OutputMode.DexFilePerClassFile)
-                    .build();
-            D8.run(command);
-            for (Path file : mFilesToCompile) {
-                mDexCache.load(file, "dex", Collections.singletonList(getDexFile(file.toFile())));
-            }
-
-            mergeRelease();
+            Path rClasses = ensureDexedRJar();
+            compileClasses(CompilationMode.RELEASE);
+            mergeRelease(rClasses);
         } catch (com.android.tools.r8.CompilationFailedException e) {
             throw new CompilationFailedException(e);
         }
     }
 
-    private void doDebug() throws CompilationFailedException {
+    private void doDebug() throws CompilationFailedException, IOException {
         try {
             ensureDexedLibraries();
+            Path rClasses = ensureDexedRJar();
+            compileClasses(CompilationMode.DEBUG);
+            mergeDebug(rClasses);
+        } catch (com.android.tools.r8.CompilationFailedException e) {
+            throw new CompilationFailedException(e);
+        }
+    }
 
-            D8Command command = D8Command.builder(diagnosticsHandler)
-                    .addClasspathFiles(getModule().getLibraries().stream().map(File::toPath).collect(Collectors.toList()))
-                    .addProgramFiles(mFilesToCompile)
-                    .addLibraryFiles(getLibraryFiles())
-                    .setMinApiLevel(getModule().getMinSdk())
-                    .setMode(CompilationMode.DEBUG)
-                    .setIntermediate(true)
-                    .setOutput(mOutputPath, OutputMode.DexFilePerClassFile)
-                    .build();
-            D8.run(command);
-
-            for (Path file : mFilesToCompile) {
-                mDexCache.load(file, "dex", Collections.singletonList(getDexFile(file.toFile())));
+    /**
+     * Dexes the class files that have changed since the last build, each class file is
+     * dexed to its own dex file
+     */
+    private void compileClasses(CompilationMode mode)
+            throws com.android.tools.r8.CompilationFailedException {
+        if (mFilesToCompile.isEmpty()) {
+            return;
+        }
+        D8Command command = D8Command.builder(diagnosticsHandler)
+                .addClasspathFiles(getClasspath())
+                .addProgramFiles(mFilesToCompile)
+                .addLibraryFiles(getLibraryFiles())
+                .setMinApiLevel(getModule().getMinSdk())
+                .setMode(mode)
+                .setIntermediate(true)
+                .setOutput(mOutputPath, OutputMode.DexFilePerClassFile)
+                .build();
+        D8.run(command);
+
+        for (Path file : mFilesToCompile) {
+            mDexCache.load(file, "dex", Collections.singletonList(getDexFile(file)));
+        }
+    }
+
+    /**
+     * Merges the per class dex files into {@link #SHARD_COUNT} shards, only the shards that
+     * contain a class that has been added, changed or removed are merged again. The R classes
+     * are merged into their own shard. The dex files of every shard are then copied to the
+     * bin directory.
+     */
+    private void mergeDebug(Path rClasses) throws com.android.tools.r8.CompilationFailedException,
+            IOException {
+        File shardsDirectory = new File(getModule().getBuildDirectory(), "intermediate/dex-shards");
+
+        Set<Integer> changedShards = new HashSet<>();
+        for (Path file : mFilesToCompile) {
+            changedShards.add(getShard(getDexFile(file)));
+        }
+        for (File file : mRemovedDexFiles) {
+            changedShards.add(getShard(file));
+        }
+
+        Map<Integer, List<Path>> shards = new HashMap<>();
+        for (Path dexFile : getAllDexFiles(mOutputPath.toFile())) {
+            shards.computeIfAbsent(getShard(dexFile.toFile()), k -> new ArrayList<>())
+                    .add(dexFile);
+        }
+
+        List<File> outputs = new ArrayList<>();
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            File shardDirectory = new File(shardsDirectory, String.valueOf(shard));
+            if (changedShards.contains(shard) || !shardDirectory.exists()) {
+                mergeShard(shards.getOrDefault(shard, Collections.emptyList()), shardDirectory);
             }
+            outputs.add(shardDirectory);
+        }
 
-            D8Command.Builder builder = D8Command.builder(diagnosticsHandler)
-                    .addProgramFiles(getAllDexFiles(mOutputPath.toFile()))
-                    .addLibraryFiles(getLibraryFiles())
-                    .addClasspathFiles(getModule().getLibraries().stream().map(File::toPath).collect(Collectors.toList()))
-                    .setMinApiLevel(getModule().getMinSdk());
+        File rShardDirectory = new File(shardsDirectory, "R");
+        if (rClasses == null) {
+            FileUtils.deleteDirectory(rShardDirectory);
+        } else {
+            File merged = new File(rShardDirectory, "classes.dex");
+            if (!merged.exists() || merged.lastModified() < rClasses.toFile().lastModified()) {
+                mergeShard(Collections.singletonList(rClasses), rShardDirectory);
+            }
+            outputs.add(rShardDirectory);
+        }
 
-            File output = new File(getModule().getBuildDirectory(), "bin");
-            builder.setMode(CompilationMode.DEBUG);
-            builder.setOutput(output.toPath(), OutputMode.DexIndexed);
-            D8.run(builder.build());
+        File output = new File(getModule().getBuildDirectory(), "bin");
+        deleteOutputDexFiles(output);
+        int dexCount = 0;
+        for (File shardDirectory : outputs) {
+            File[] dexFiles = shardDirectory.listFiles(c -> c.getName().endsWith(".dex"));
+            if (dexFiles == null) {
+                continue;
+            }
+            Arrays.sort(dexFiles, Comparator.comparingInt(IncrementalD8Task::getDexIndex));
+            for (File dexFile : dexFiles) {
+                dexCount++;
+                String name = dexCount == 1 ? "classes.dex" : "classes" + dexCount + ".dex";
+                Files.copy(dexFile.toPath(), new File(output, name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        getLogger().debug("Merged " + changedShards.size() + " of " + SHARD_COUNT + " dex shards");
+    }
 
-        } catch (com.android.tools.r8.CompilationFailedException e) {
-            throw new CompilationFailedException(e);
+    private void mergeShard(List<Path> dexFiles, File shardDirectory)
+            throws com.android.tools.r8.CompilationFailedException, IOException {
+        FileUtils.deleteDirectory(shardDirectory);
+        if (!shardDirectory.mkdirs()) {
+            throw new IOException("Unable to create directory " + shardDirectory);
+        }
+        if (dexFiles.isEmpty()) {
+            return;
+        }
+        D8Command command = D8Command.builder(diagnosticsHandler)
+                .addProgramFiles(dexFiles)
+                .addLibraryFiles(getLibraryFiles())
+                .addClasspathFiles(getModule().getLibraries().stream().map(File::toPath)
+                        .collect(Collectors.toList()))
+                .setMinApiLevel(getModule().getMinSdk())
+                .setMode(CompilationMode.DEBUG)
+                .setOutput(shardDirectory.toPath(), OutputMode.DexIndexed)
+                .build();
+        D8.run(command);
+    }
+
+    /**
+     * @return the shard the given per class dex file belongs to, inner classes are in the
+     * same shard as their outer class
+     */
+    private int getShard(File dexFile) {
+        String path = mOutputPath.relativize(dexFile.toPath()).toString();
+        int index = path.indexOf('$');
+        if (index != -1) {
+            path = path.substring(0, index);
+        } else if (path.endsWith(".dex")) {
+            path = path.substring(0, path.length() - ".dex".length());
+        }
+        return Math.floorMod(path.hashCode(), SHARD_COUNT);
+    }
+
+    /**
+     * @return the index of a dex file produced by D8, 1 for classes.dex, 2 for classes2.dex
+     */
+    private static int getDexIndex(File dexFile) {
+        String index = dexFile.getName().replace("classes", "").replace(".dex", "");
+        try {
+            return index.isEmpty() ? 1 : Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Deletes the dex files of the previous build so the dex files which are no longer
+     * produced are not packaged
+     */
+    private void deleteOutputDexFiles(File output) throws IOException {
+        File[] dexFiles = output.listFiles(c -> c.getName().startsWith("classes")
+                && c.getName().endsWith(".dex"));
+        if (dexFiles != null) {
+            for (File dexFile : dexFiles) {
+                FileUtils.delete(dexFile);
+            }
         }
     }
 
-    private void mergeRelease() throws com.android.tools.r8.CompilationFailedException {
+    private void mergeRelease(Path rClasses) throws com.android.tools.r8.CompilationFailedException,
+            IOException {
         File output = new File(getModule().getBuildDirectory(), "bin");
-        D8Command command = D8Command.builder(diagnosticsHandler)
+        deleteOutputDexFiles(output);
+        D8Command.Builder builder = D8Command.builder(diagnosticsHandler)
                 .addClasspathFiles(getModule().getLibraries().stream().map(File::toPath)
                         .collect(Collectors.toList()))
                 .addLibraryFiles(getLibraryFiles())
@@ -164,9 +315,11 @@ public class IncrementalD8Task extends Task<AndroidModule> {
                 .addProgramFiles(getLibraryDexes())
                 .setMinApiLevel(getModule().getMinSdk())
                 .setMode(CompilationMode.RELEASE)
-                .setOutput(output.toPath(), OutputMode.DexIndexed)
-                .build();
-        D8.run(command);
+                .setOutput(output.toPath(), OutputMode.DexIndexed);
+        if (rClasses != null) {
+            builder.addProgramFiles(rClasses);
+        }
+        D8.run(builder.build());
     }
 
     private List<Path> getLibraryDexes() {
@@ -185,24 +338,30 @@ public class IncrementalD8Task extends Task<AndroidModule> {
     }
 
 
-    private File getDexFile(File file) {
-        File output = new File(getModule().getBuildDirectory(), "bin/classes/");
-        String packageName = file.getAbsolutePath()
-                .replace(output.getAbsolutePath(), "")
-                .substring(1)
-                .replace(".class", ".dex");
-
-        File intermediate = new File(getModule().getBuildDirectory(), "intermediate/classes");
-        File file1 = new File(intermediate, packageName);
-        return file1;
+    /**
+     * @return the dex file produced by D8 for the given class file
+     */
+    private File getDexFile(Path classFile) {
+        String path = classFile.toString();
+        for (File directory : mClassDirectories) {
+            if (classFile.startsWith(directory.toPath())) {
+                path = directory.toPath().relativize(classFile).toString();
+                break;
+            }
+        }
+        return mOutputPath.resolve(path.substring(0, path.length() - ".class".length())
+                + ".dex").toFile();
     }
 
     /**
-     * Ensures that all libraries of the project has been dex-ed
+     * Ensures that all libraries of the project has been dex-ed. Dexed libraries are stored
+     * in the {@link BuildCache} keyed by the contents of the jar, the min sdk and the D8 mode
+     * so libraries shared between projects are only dexed once.
      *
      * @throws com.android.tools.r8.CompilationFailedException if the compilation has failed
      */
-    protected void ensureDexedLibraries() throws com.android.tools.r8.CompilationFailedException {
+    protected void ensureDexedLibraries() throws com.android.tools.r8.CompilationFailedException,
+            CompilationFailedException {
         List<File> libraries = getModule().getLibraries();
 
         for (File lib : libraries) {
@@ -221,22 +380,89 @@ public class IncrementalD8Task extends Task<AndroidModule> {
                     continue;
                 }
                 if (lib.exists()) {
-                    getLogger().debug("Dexing jar " + parentFile.getName());
-                    D8Command command = D8Command.builder(diagnosticsHandler)
-                            .addLibraryFiles(getLibraryFiles())
-                            .addClasspathFiles(libraries.stream().map(File::toPath)
-                                    .collect(Collectors.toList()))
-                            .setMinApiLevel(getModule().getMinSdk())
-                            .addProgramFiles(lib.toPath())
-                            .setMode(CompilationMode.RELEASE)
-                            .setOutput(lib.getParentFile().toPath(), OutputMode.DexIndexed)
-                            .build();
-                    D8.run(command);
+                    try {
+                        String key = BuildCache.hashFile(lib,
+                                String.valueOf(getModule().getMinSdk()),
+                                CompilationMode.RELEASE.name(),
+                                Version.getVersionString());
+                        if (BuildCache.restoreFiles(DEX_CACHE, key, parentFile)) {
+                            getLogger().debug("Using cached dex of " + parentFile.getName());
+                            getMetrics().addCacheHit();
+                            continue;
+                        }
+                        getMetrics().addCacheMiss();
+
+                        getLogger().debug("Dexing jar " + parentFile.getName());
+                        D8Command command = D8Command.builder(diagnosticsHandler)
+                                .addLibraryFiles(getLibraryFiles())
+                                .addClasspathFiles(libraries.stream().map(File::toPath)
+                                        .collect(Collectors.toList()))
+                                .setMinApiLevel(getModule().getMinSdk())
+                                .addProgramFiles(lib.toPath())
+                                .setMode(CompilationMode.RELEASE)
+                                .setOutput(lib.getParentFile().toPath(), OutputMode.DexIndexed)
+                                .build();
+                        D8.run(command);
+
+                        File[] dexFiles = parentFile.listFiles(c -> c.getName().endsWith(".dex"));
+                        if (dexFiles != null && dexFiles.length > 0) {
+                            BuildCache.storeFiles(DEX_CACHE, key, Arrays.asList(dexFiles));
+                        }
+                    } catch (IOException e) {
+                        throw new CompilationFailedException(e);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Dexes the R.jar generated by {@link MergeSymbolsTask} if it has changed since
+     * it was last dexed
+     *
+     * @return the dex file containing the R classes of the libraries, or null if the R classes
+     * are compiled from sources
+     */
+    private Path ensureDexedRJar() throws CompilationFailedException,
+            com.android.tools.r8.CompilationFailedException {
+        File rJar = MergeSymbolsTask.getRJar(getModule());
+        if (rJar == null) {
+            return null;
+        }
+
+        File outputDir = new File(rJar.getParentFile(), "dex");
+        File dex = new File(outputDir, "classes.dex");
+        if (dex.exists() && dex.lastModified() >= rJar.lastModified()) {
+            return dex.toPath();
+        }
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new CompilationFailedException("Unable to create directory " + outputDir);
+        }
+
+        getLogger().debug("Dexing R.jar");
+        D8Command command = D8Command.builder(diagnosticsHandler)
+                .addLibraryFiles(getLibraryFiles())
+                .addProgramFiles(rJar.toPath())
+                .setMinApiLevel(getModule().getMinSdk())
+                .setMode(CompilationMode.RELEASE)
+                .setIntermediate(true)
+                .setOutput(outputDir.toPath(), OutputMode.DexIndexed)
+                .build();
+        D8.run(command);
+        return dex.toPath();
+    }
+
+    private List<Path> getClasspath() {
+        List<Path> classpath = getModule().getLibraries().stream()
+                .map(File::toPath)
+                .collect(Collectors.toList());
+        File rJar = MergeSymbolsTask.getRJar(getModule());
+        if (rJar != null) {
+            classpath.add(rJar.toPath());
+        }
+        return classpath;
+    }
+
     private List<Path> getLibraryFiles() {
         List<Path> path = new ArrayList<>();
         path.add(getModule().getLambdaStubsJarFile().toPath());
@@ -244,28 +470,6 @@ public class IncrementalD8Task extends Task<AndroidModule> {
         return path;
     }
 
-    private void deleteAllFiles(File classFile, String ext) throws IOException {
-
-        File dexFile = getDexFile(classFile);
-        if (!dexFile.exists()) {
-            return;
-        }
-        File parent = dexFile.getParentFile();
-        String name = dexFile.getName().replace(ext, "");
-        if (parent != null) {
-            File[] children = parent.listFiles((c) -> c.getName().endsWith(ext) &&
-                    c.getName().contains("$"));
-            if (children != null) {
-                for (File child : children) {
-                    if (child.getName().startsWith(name)) {
-                        FileUtils.delete(child);
-                    }
-                }
-            }
-        }
-        FileUtils.delete(dexFile);
-    }
-
     private List<Path> getAllDexFiles(File dir) {
         List<Path> files = new ArrayList<>();
         File[] children = dir.listFiles(c -> c.getName().endsWith(".dex") || c.isDirectory());
@@ -0,0 +1,89 @@
+package com.tyron.builder.compiler.incremental.java;
+
+import com.google.common.hash.Hashing;
+
+import org.openjdk.javax.lang.model.element.Element;
+import org.openjdk.javax.lang.model.element.ExecutableElement;
+import org.openjdk.javax.lang.model.element.Modifier;
+import org.openjdk.javax.lang.model.element.TypeElement;
+import org.openjdk.javax.lang.model.element.VariableElement;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes a fingerprint of the parts of a class that other classes can depend on,
+ * which are its supertypes and non-private members including nested classes. Constant
+ * values are included because they are inlined by javac into the classes that use them.
+ */
+class AbiFingerprint {
+
+    static String of(TypeElement type) {
+        StringBuilder builder = new StringBuilder();
+        append(type, builder);
+        return Hashing.murmur3_128()
+                .hashString(builder, StandardCharsets.UTF_8)
+                .toString();
+    }
+
+    private static void append(TypeElement type, StringBuilder builder) {
+        builder.append(type.getKind()).append(' ')
+                .append(type.getModifiers()).append(' ')
+                .append(type.getQualifiedName())
+                .append(type.getTypeParameters())
+                .append(" extends ").append(type.getSuperclass())
+                .append(" implements ").append(type.getInterfaces())
+                .append('\n');
+
+        // sorted so that reordering members does not change the fingerprint
+        List<String> members = new ArrayList<>();
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getModifiers().contains(Modifier.PRIVATE)) {
+                continue;
+            }
+
+            StringBuilder memberBuilder = new StringBuilder();
+            switch (member.getKind()) {
+                case CLASS:
+                case INTERFACE:
+                case ENUM:
+                case ANNOTATION_TYPE:
+                    append((TypeElement) member, memberBuilder);
+                    break;
+                case FIELD:
+                case ENUM_CONSTANT:
+                    VariableElement field = (VariableElement) member;
+                    memberBuilder.append(field.getKind()).append(' ')
+                            .append(field.getModifiers()).append(' ')
+                            .append(field.asType()).append(' ')
+                            .append(field.getSimpleName());
+                    if (field.getConstantValue() != null) {
+                        memberBuilder.append(" = ").append(field.getConstantValue());
+                    }
+                    break;
+                case METHOD:
+                case CONSTRUCTOR:
+                    ExecutableElement method = (ExecutableElement) member;
+                    memberBuilder.append(method.getKind()).append(' ')
+                            .append(method.getModifiers()).append(' ')
+                            .append(method.getSimpleName())
+                            .append(method.asType())
+                            .append(" throws ").append(method.getThrownTypes());
+                    if (method.getDefaultValue() != null) {
+                        memberBuilder.append(" default ").append(method.getDefaultValue());
+                    }
+                    break;
+                default:
+                    continue;
+            }
+            members.add(memberBuilder.toString());
+        }
+
+        Collections.sort(members);
+        for (String member : members) {
+            builder.append(member).append('\n');
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.tyron.builder.compiler.incremental.java;
+
+import org.openjdk.javax.lang.model.element.TypeElement;
+import org.openjdk.source.util.TaskEvent;
+import org.openjdk.source.util.TaskListener;
+import org.openjdk.tools.javac.code.Kinds;
+import org.openjdk.tools.javac.code.Symbol;
+import org.openjdk.tools.javac.code.Type;
+import org.openjdk.tools.javac.tree.JCTree;
+import org.openjdk.tools.javac.tree.TreeScanner;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records the classes declared and referenced by each source file once javac has
+ * finished analyzing it, and the classes generated from each source file. The source
+ * files are identified by their uri since javac wraps the file objects it is given.
+ */
+class DependencyListener implements TaskListener {
+
+    private final Map<URI, SourceDependencies> mDependencies = new HashMap<>();
+    private final Map<URI, Set<String>> mGeneratedClasses = new HashMap<>();
+
+    @Override
+    public void finished(TaskEvent e) {
+        if (e.getKind() == TaskEvent.Kind.GENERATE) {
+            addGeneratedClass(e);
+            return;
+        }
+        if (e.getKind() != TaskEvent.Kind.ANALYZE) {
+            return;
+        }
+
+        TypeElement type = e.getTypeElement();
+        if (type == null || e.getCompilationUnit() == null) {
+            return;
+        }
+
+        URI uri = e.getSourceFile().toUri();
+        SourceDependencies dependencies = mDependencies.get(uri);
+        if (dependencies == null) {
+            dependencies = new SourceDependencies();
+            mDependencies.put(uri, dependencies);
+        }
+        dependencies.addDeclaredClass(type.getQualifiedName().toString(),
+                AbiFingerprint.of(type));
+
+        ReferenceScanner scanner = new ReferenceScanner(dependencies);
+        JCTree.JCCompilationUnit unit = (JCTree.JCCompilationUnit) e.getCompilationUnit();
+        for (JCTree.JCImport anImport : unit.getImports()) {
+            scanner.scan(anImport);
+        }
+        for (JCTree tree : unit.getTypeDecls()) {
+            if (tree instanceof JCTree.JCClassDecl && ((JCTree.JCClassDecl) tree).sym == type) {
+                scanner.scan(tree);
+            }
+        }
+    }
+
+    /**
+     * @return the dependencies of each source file that has been analyzed
+     */
+    public Map<URI, SourceDependencies> getDependencies() {
+        return mDependencies;
+    }
+
+    /**
+     * @return the binary names of the classes written for each source file, including
+     * nested, local and anonymous classes
+     */
+    public Map<URI, Set<String>> getGeneratedClasses() {
+        return mGeneratedClasses;
+    }
+
+    private void addGeneratedClass(TaskEvent e) {
+        if (e.getSourceFile() == null || !(e.getTypeElement() instanceof Symbol.ClassSymbol)) {
+            return;
+        }
+        URI uri = e.getSourceFile().toUri();
+        Set<String> classes = mGeneratedClasses.get(uri);
+        if (classes == null) {
+            classes = new LinkedHashSet<>();
+            mGeneratedClasses.put(uri, classes);
+        }
+        classes.add(((Symbol.ClassSymbol) e.getTypeElement()).flatname.toString());
+    }
+
+    private static class ReferenceScanner extends TreeScanner {
+
+        private final SourceDependencies mDependencies;
+        private final Set<Symbol> mVisitedSupertypes = new HashSet<>();
+
+        public ReferenceScanner(SourceDependencies dependencies) {
+            mDependencies = dependencies;
+        }
+
+        /**
+         * A class depends on every class in its hierarchy, not only on its direct
+         * supertypes. A change in the ABI of an indirect supertype does not change the
+         * fingerprint of the classes in between, so it has to be referenced directly.
+         */
+        @Override
+        public void visitClassDef(JCTree.JCClassDecl tree) {
+            if (tree.sym != null) {
+                addSupertypes(tree.sym);
+            }
+            super.visitClassDef(tree);
+        }
+
+        @Override
+        public void visitIdent(JCTree.JCIdent tree) {
+            addReference(tree.sym);
+            super.visitIdent(tree);
+        }
+
+        @Override
+        public void visitSelect(JCTree.JCFieldAccess tree) {
+            addReference(tree.sym);
+            super.visitSelect(tree);
+        }
+
+        @Override
+        public void visitReference(JCTree.JCMemberReference tree) {
+            addReference(tree.sym);
+            super.visitReference(tree);
+        }
+
+        @Override
+        public void visitNewClass(JCTree.JCNewClass tree) {
+            addReference(tree.constructor);
+            super.visitNewClass(tree);
+        }
+
+        private void addSupertypes(Symbol.ClassSymbol symbol) {
+            addSupertype(symbol.getSuperclass());
+            for (Type type : symbol.getInterfaces()) {
+                addSupertype(type);
+            }
+        }
+
+        private void addSupertype(Type type) {
+            if (type == null || !(type.tsym instanceof Symbol.ClassSymbol)
+                    || !mVisitedSupertypes.add(type.tsym)) {
+                return;
+            }
+            addReference(type.tsym);
+            addSupertypes((Symbol.ClassSymbol) type.tsym);
+        }
+
+        private void addReference(Symbol symbol) {
+            Symbol current = symbol;
+            while (current != null && current.kind != Kinds.Kind.PCK) {
+                if (current instanceof Symbol.ClassSymbol && current.owner != null &&
+                        current.owner.kind == Kinds.Kind.PCK) {
+                    mDependencies.addReference(
+                            ((Symbol.ClassSymbol) current).getQualifiedName().toString());
+                    return;
+                }
+                current = current.owner;
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.openjdk.tools.javac.api.JavacTaskImpl;
 import org.openjdk.tools.javac.api.JavacTool;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
+import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.model.DiagnosticWrapper;
@@ -21,6 +22,7 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
@@ -29,9 +31,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
 
 import org.openjdk.javax.tools.DiagnosticListener;
 import org.openjdk.javax.tools.JavaFileObject;
@@ -42,13 +47,28 @@ import org.openjdk.javax.tools.StandardLocation;
 public class IncrementalJavaTask extends Task<JavaModule> {
 
     public static final CacheHolder.CacheKey<String, List<File>> CACHE_KEY =
-            new CacheHolder.CacheKey<>("javaCache");
+            new CacheHolder.CacheKey<>("javaCache", true);
+    public static final CacheHolder.CacheKey<String, SourceDependencies> DEPENDENCY_CACHE_KEY =
+            new CacheHolder.CacheKey<>("javaDependencyCache", true);
     private static final String TAG = IncrementalJavaTask.class.getSimpleName();
 
     private File mOutputDir;
     private List<File> mJavaFiles;
     private List<File> mFilesToCompile;
     private Cache<String, List<File>> mClassCache;
+    /**
+     * The class files generated by each source file in the previous compilation
+     */
+    private Map<File, List<File>> mPreviousClassFiles;
+    private Cache<String, SourceDependencies> mDependencyCache;
+    /**
+     * The dependencies of each source file from the last time it was compiled
+     */
+    private Map<File, SourceDependencies> mDependencies;
+    /**
+     * Classes declared by source files that have been deleted since the last compilation
+     */
+    private Set<String> mRemovedClasses;
 
     public IncrementalJavaTask(JavaModule project, ILogger logger) {
         super(project, logger);
@@ -59,6 +79,20 @@ public class IncrementalJavaTask extends Task<JavaModule> {
         return TAG;
     }
 
+    @Override
+    public Set<File> getInputs() {
+        Set<File> inputs = new HashSet<>(getModule().getLibraries());
+        inputs.add(getModule().getJavaDirectory());
+        inputs.add(new File(getModule().getBuildDirectory(), "gen"));
+        return inputs;
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        return Collections.singleton(new File(getModule().getBuildDirectory(),
+                "bin/java/classes"));
+    }
+
     @Override
     public void prepare(BuildType type) throws IOException {
         mOutputDir = new File(getModule().getBuildDirectory(), "bin/java/classes");
@@ -71,10 +105,18 @@ public class IncrementalJavaTask extends Task<JavaModule> {
 
         mJavaFiles = new ArrayList<>(getModule().getJavaFiles().values());
 
+        mPreviousClassFiles = new HashMap<>();
         for (Cache.Key<String> key : new HashSet<>(mClassCache.getKeys())) {
-            if (!mJavaFiles.contains(key.file.toFile())) {
-                File file = mClassCache.get(key.file, "class").iterator().next();
-                deleteAllFiles(file, ".class");
+            if (!"class".equals(key.key)) {
+                continue;
+            }
+            List<File> classFiles = mClassCache.get(key.file, key.key);
+            if (mJavaFiles.contains(key.file.toFile())) {
+                mPreviousClassFiles.put(key.file.toFile(), classFiles);
+            } else {
+                for (File classFile : classFiles) {
+                    FileUtils.deleteQuietly(classFile);
+                }
                 mClassCache.remove(key.file, "class", "dex");
             }
         }
@@ -85,14 +127,32 @@ public class IncrementalJavaTask extends Task<JavaModule> {
                 mFilesToCompile.add(file);
             }
         }
-
+        getMetrics().addFilesConsidered(mJavaFiles.size());
+
+        mDependencyCache = getModule().getCache(DEPENDENCY_CACHE_KEY, new Cache<>());
+        mDependencies = new HashMap<>();
+        mRemovedClasses = new HashSet<>();
+        for (Cache.Key<String> key : new HashSet<>(mDependencyCache.getKeys())) {
+            SourceDependencies dependencies = mDependencyCache.get(key.file, key.key);
+            File file = key.file.toFile();
+            if (mJavaFiles.contains(file)) {
+                mDependencies.put(file, dependencies);
+            } else {
+                mRemovedClasses.addAll(dependencies.getDeclaredClasses());
+                mDependencyCache.remove(key.file, key.key);
+            }
+        }
     }
 
     private boolean mHasErrors = false;
 
+    /**
+     * Compiles the modified files, then recompiles the files that depend on a class whose
+     * ABI has changed until no more ABI changes are found
+     */
     @Override
     public void run() throws IOException, CompilationFailedException {
-        if (mFilesToCompile.isEmpty()) {
+        if (mFilesToCompile.isEmpty() && mRemovedClasses.isEmpty()) {
             return;
         }
 
@@ -116,6 +176,10 @@ public class IncrementalJavaTask extends Task<JavaModule> {
                         Charset.defaultCharset());
         List<File> classpath = new ArrayList<>(getModule().getLibraries());
         classpath.add(mOutputDir);
+        File rJar = MergeSymbolsTask.getRJar(getModule());
+        if (rJar != null) {
+            classpath.add(rJar);
+        }
 
         try {
             standardJavaFileManager.setLocation(StandardLocation.CLASS_OUTPUT,
@@ -129,74 +193,87 @@ public class IncrementalJavaTask extends Task<JavaModule> {
             throw new CompilationFailedException(e);
         }
 
-        List<JavaFileObject> javaFileObjects = new ArrayList<>();
-        for (File file : mFilesToCompile) {
-            javaFileObjects.add(new SimpleJavaFileObject(file.toURI(), JavaFileObject.Kind.SOURCE) {
+        Set<File> compiled = new LinkedHashSet<>();
+        List<File> filesToCompile = new ArrayList<>(mFilesToCompile);
+        Set<String> changedClasses = new HashSet<>(mRemovedClasses);
+        while (true) {
+            for (File dependent : findDependents(changedClasses)) {
+                if (!compiled.contains(dependent) && !filesToCompile.contains(dependent)) {
+                    filesToCompile.add(dependent);
+                }
+            }
+            if (filesToCompile.isEmpty()) {
+                break;
+            }
+
+            if (!compiled.isEmpty()) {
+                getLogger().debug("Recompiling " + filesToCompile.size() +
+                        " file(s) that depend on changed classes");
+            }
+            changedClasses = compile(tool, standardJavaFileManager, diagnosticCollector,
+                    filesToCompile);
+            compiled.addAll(filesToCompile);
+            getMetrics().addFilesCompiled(filesToCompile.size());
+            filesToCompile = new ArrayList<>();
+        }
+
+        for (File file : compiled) {
+            if (!mFilesToCompile.contains(file)) {
+                mFilesToCompile.add(file);
+            }
+        }
+    }
+
+    /**
+     * @return the source files that reference any of the given classes
+     */
+    private List<File> findDependents(Set<String> classes) {
+        List<File> dependents = new ArrayList<>();
+        if (classes.isEmpty()) {
+            return dependents;
+        }
+        for (Map.Entry<File, SourceDependencies> entry : mDependencies.entrySet()) {
+            if (!mJavaFiles.contains(entry.getKey())) {
+                continue;
+            }
+            for (String reference : entry.getValue().getReferences()) {
+                if (classes.contains(reference)) {
+                    dependents.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Compiles the given files and updates their dependencies
+     *
+     * @return the classes declared by the files whose ABI has changed
+     */
+    private Set<String> compile(JavacTool tool,
+                                StandardJavaFileManager standardJavaFileManager,
+                                DiagnosticListener<JavaFileObject> diagnosticCollector,
+                                List<File> filesToCompile) throws CompilationFailedException {
+        Map<JavaFileObject, File> javaFileObjects = new LinkedHashMap<>();
+        for (File file : filesToCompile) {
+            javaFileObjects.put(new SimpleJavaFileObject(file.toURI(), JavaFileObject.Kind.SOURCE) {
                 @Override
                 public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
                     return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
                 }
-            });
+            }, file);
         }
 
         JavacTask task = tool.getTask(null, standardJavaFileManager, diagnosticCollector,
-                Collections.emptyList(), null, javaFileObjects);
+                Collections.emptyList(), null, javaFileObjects.keySet());
+        DependencyListener dependencyListener = new DependencyListener();
+        task.addTaskListener(dependencyListener);
 
-        HashMap<String, List<File>> compiledFiles = new HashMap<>();
         try {
-
             task.parse();
             task.analyze();
-            Iterable<? extends JavaFileObject> generate = task.generate();
-            for (JavaFileObject fileObject : generate) {
-                String path = fileObject.getName();
-                File classFile = new File(path);
-                if (classFile. exists()) {
-                    String classPath = classFile.getAbsolutePath().replace("build/bin/classes/",
-                            "src/main/java/").replace(".class", ".java");
-                    if (classFile.getName().indexOf('$') != -1) {
-                        classPath = classPath.substring(0, classPath.indexOf('$')) + ".java";
-                    }
-                    File file = new File(classPath);
-                    if (!file.exists()) {
-                        file = new File(classPath.replace("src/main/java", "build/gen"));
-                    }
-
-                    if (!compiledFiles.containsKey(file.getAbsolutePath())) {
-                        ArrayList<File> list = new ArrayList<>();
-                        list.add(classFile);
-                        compiledFiles.put(file.getAbsolutePath(), list);
-                    } else {
-                        Objects.requireNonNull(compiledFiles.get(file.getAbsolutePath())).add(classFile);
-                    }
-                    mClassCache.load(file.toPath(), "class", Collections.singletonList(classFile));
-                }
-            }
-
-            compiledFiles.forEach((key, values) -> {
-                File sourceFile = new File(key);
-                String name = sourceFile.getName().replace(".java", "");
-                File first = values.iterator().next();
-                File parent = first.getParentFile();
-                if (parent != null) {
-                    File[] children = parent.listFiles(c -> {
-                        if (!c.getName().contains("$")) {
-                            return false;
-                        }
-                        String baseClassName = c.getName().substring(0, c.getName().indexOf('$'));
-                        return baseClassName.equals(name);
-                    });
-                    if (children != null) {
-                        for (File file : children) {
-                            if (!values.contains(file)) {
-                                if (file.delete()) {
-                                    getLogger().debug("Deleted file " + file.getAbsolutePath());
-                                }
-                            }
-                        }
-                    }
-                }
-            });
+            task.generate();
         } catch (Exception e) {
             throw new CompilationFailedException(e);
         }
@@ -204,6 +281,33 @@ public class IncrementalJavaTask extends Task<JavaModule> {
         if (mHasErrors) {
             throw new CompilationFailedException("Compilation failed, check logs for more details");
         }
+
+        Map<URI, Set<String>> generatedClasses = dependencyListener.getGeneratedClasses();
+        for (Map.Entry<JavaFileObject, File> entry : javaFileObjects.entrySet()) {
+            Set<String> classNames = generatedClasses.get(entry.getKey().toUri());
+            List<File> classFiles = new ArrayList<>();
+            if (classNames != null) {
+                for (String className : classNames) {
+                    classFiles.add(findClassFile(className));
+                }
+            }
+            deleteStaleClassFiles(entry.getValue(), classFiles);
+            mClassCache.load(entry.getValue().toPath(), "class", classFiles);
+        }
+
+        Set<String> changedClasses = new HashSet<>();
+        Map<URI, SourceDependencies> allDependencies = dependencyListener.getDependencies();
+        for (Map.Entry<JavaFileObject, File> entry : javaFileObjects.entrySet()) {
+            SourceDependencies dependencies = allDependencies.get(entry.getKey().toUri());
+            if (dependencies == null) {
+                continue;
+            }
+            File file = entry.getValue();
+            changedClasses.addAll(dependencies.getChangedClasses(mDependencies.put(file,
+                    dependencies)));
+            mDependencyCache.load(file.toPath(), "dependencies", dependencies);
+        }
+        return changedClasses;
     }
 
     @VisibleForTesting
@@ -211,27 +315,27 @@ public class IncrementalJavaTask extends Task<JavaModule> {
         return mFilesToCompile;
     }
 
-    private File findClassFile(String packageName) {
-        String path = packageName.replace(".", "/").concat(".class");
+    /**
+     * @param className the binary name of the class, e.g. {@code com.example.Outer$Inner}
+     */
+    private File findClassFile(String className) {
+        String path = className.replace(".", "/").concat(".class");
         return new File(mOutputDir, path);
     }
 
-    private void deleteAllFiles(File classFile, String ext) throws IOException {
-        File parent = classFile.getParentFile();
-        String name = classFile.getName().replace(ext, "");
-        if (parent != null) {
-            File[] children =
-                    parent.listFiles((c) -> c.getName().endsWith(ext) && c.getName().contains("$"));
-            if (children != null) {
-                for (File child : children) {
-                    if (child.getName().startsWith(name)) {
-                        FileUtils.delete(child);
-                    }
-                }
-            }
+    /**
+     * Deletes the class files that were generated by the previous compilation of the source
+     * file but not by this one, e.g. for a nested or anonymous class that has been removed
+     */
+    private void deleteStaleClassFiles(File source, List<File> classFiles) {
+        List<File> previous = mPreviousClassFiles.get(source);
+        if (previous == null) {
+            return;
         }
-        if (classFile.exists()) {
-            FileUtils.delete(classFile);
+        for (File classFile : previous) {
+            if (!classFiles.contains(classFile) && classFile.delete()) {
+                getLogger().debug("Deleted file " + classFile.getAbsolutePath());
+            }
         }
     }
 }
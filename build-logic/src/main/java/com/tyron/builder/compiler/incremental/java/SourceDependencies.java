@@ -0,0 +1,68 @@
+package com.tyron.builder.compiler.incremental.java;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Holds the classes declared by a java source file along with their ABI fingerprint,
+ * and the top level classes that the source file references
+ */
+public class SourceDependencies implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, String> mDeclaredClasses = new HashMap<>();
+    private final Set<String> mReferences = new HashSet<>();
+
+    void addDeclaredClass(String className, String fingerprint) {
+        mDeclaredClasses.put(className, fingerprint);
+    }
+
+    void addReference(String className) {
+        mReferences.add(className);
+    }
+
+    /**
+     * @return the fully qualified names of the top level classes declared in this file
+     */
+    public Set<String> getDeclaredClasses() {
+        return mDeclaredClasses.keySet();
+    }
+
+    /**
+     * @return the fully qualified names of the top level classes referenced by this file
+     */
+    public Set<String> getReferences() {
+        return mReferences;
+    }
+
+    /**
+     * @param previous the dependencies of the same file from the previous compilation,
+     *                 may be null if the file is new
+     * @return the classes that have been added, removed or whose ABI has changed
+     */
+    public Set<String> getChangedClasses(SourceDependencies previous) {
+        Set<String> changed = new HashSet<>();
+        if (previous == null) {
+            changed.addAll(mDeclaredClasses.keySet());
+            return changed;
+        }
+
+        for (Map.Entry<String, String> entry : mDeclaredClasses.entrySet()) {
+            String old = previous.mDeclaredClasses.get(entry.getKey());
+            if (!Objects.equals(old, entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String className : previous.mDeclaredClasses.keySet()) {
+            if (!mDeclaredClasses.containsKey(className)) {
+                changed.add(className);
+            }
+        }
+        return changed;
+    }
+}
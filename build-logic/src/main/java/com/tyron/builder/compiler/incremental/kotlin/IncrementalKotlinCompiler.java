@@ -7,6 +7,7 @@ import androidx.annotation.NonNull;
 import com.google.common.base.Throwables;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
+import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.model.DiagnosticWrapper;
@@ -28,8 +29,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import kotlin.jvm.functions.Function0;
@@ -48,11 +51,38 @@ public class IncrementalKotlinCompiler extends Task<AndroidModule> {
         super(project, logger);
     }
 
+    /**
+     * Keeps the application environment of the compiler after a compilation, so the next
+     * build in this process reuses its services and the index of the classpath jars. The
+     * environment then lives as long as the process, this must be called before the first
+     * compilation.
+     */
+    public static void keepEnvironmentAlive() {
+        System.setProperty("kotlin.environment.keepalive", "true");
+    }
+
     @Override
     public String getName() {
         return TAG;
     }
 
+    @Override
+    public Set<File> getInputs() {
+        Set<File> inputs = new HashSet<>(getModule().getLibraries());
+        inputs.add(getModule().getJavaDirectory());
+        inputs.add(getModule().getKotlinDirectory());
+        inputs.add(new File(getModule().getBuildDirectory(), "gen"));
+        return inputs;
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        Set<File> outputs = new HashSet<>();
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/kotlin/classes"));
+        outputs.add(new File(getModule().getBuildDirectory(), "intermediate/kotlin"));
+        return outputs;
+    }
+
     @Override
     public void prepare(BuildType type) throws IOException {
         mFilesToCompile = new ArrayList<>();
@@ -76,17 +106,23 @@ public class IncrementalKotlinCompiler extends Task<AndroidModule> {
             getLogger().info("No kotlin source files, Skipping compilation.");
             return;
         }
+        getMetrics().addFilesConsidered(mFilesToCompile.size());
+        getMetrics().addFilesCompiled(mFilesToCompile.size());
         List<File> classpath = new ArrayList<>();
         classpath.add(getModule().getBootstrapJarFile());
         classpath.add(getModule().getLambdaStubsJarFile());
         classpath.addAll(getModule().getLibraries());
+        File rJar = MergeSymbolsTask.getRJar(getModule());
+        if (rJar != null) {
+            classpath.add(rJar);
+        }
         List<String> arguments = new ArrayList<>();
         Collections.addAll(arguments, "-cp",
                 classpath.stream()
                         .map(File::getAbsolutePath)
                         .collect(Collectors.joining(File.pathSeparator)));
 
-        List<File> javaSourceRoots = new ArrayList<>(getModule().getJavaFiles().values());
+        List<File> sourceRoots = getSourceRoots();
 
         try {
             K2JVMCompiler compiler = new K2JVMCompiler();
@@ -101,7 +137,7 @@ public class IncrementalKotlinCompiler extends Task<AndroidModule> {
             args.setNoReflect(true);
             args.setNoStdlib(true);
             args.setSuppressWarnings(false);
-            args.setJavaSourceRoots(javaSourceRoots.stream()
+            args.setJavaSourceRoots(sourceRoots.stream()
                     .map(File::getAbsolutePath)
                     .toArray(String[]::new));
            // args.setKotlinHome(mKotlinHome.getAbsolutePath());
@@ -111,9 +147,7 @@ public class IncrementalKotlinCompiler extends Task<AndroidModule> {
                     .toArray(String[]::new));
             File cacheDir = new File(getModule().getBuildDirectory(), "intermediate/kotlin");
 
-            IncrementalJvmCompilerRunnerKt.makeIncrementally(cacheDir,
-                    Arrays.asList(getModule().getJavaDirectory(),
-                            new File(getModule().getBuildDirectory(), "gen")),
+            IncrementalJvmCompilerRunnerKt.makeIncrementally(cacheDir, sourceRoots,
                     args, mCollector, new ICReporterBase() {
                         @Override
                         public void report(@NonNull Function0<String> function0) {
@@ -140,6 +174,19 @@ public class IncrementalKotlinCompiler extends Task<AndroidModule> {
         }
     }
 
+    /**
+     * @return the directories containing the sources of the module, java files are resolved
+     * by the compiler from these directories instead of being passed one by one
+     */
+    private List<File> getSourceRoots() {
+        List<File> roots = new ArrayList<>();
+        roots.add(getModule().getJavaDirectory());
+        roots.add(getModule().getKotlinDirectory());
+        roots.add(new File(getModule().getBuildDirectory(), "gen"));
+        roots.removeIf(root -> !root.isDirectory());
+        return roots;
+    }
+
     private List<File> getSourceFiles(File dir) {
         List<File> files = new ArrayList<>();
 
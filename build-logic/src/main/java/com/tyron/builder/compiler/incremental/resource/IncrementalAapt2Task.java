@@ -3,6 +3,7 @@ package com.tyron.builder.compiler.incremental.resource;
 import androidx.annotation.VisibleForTesting;
 
 import com.tyron.builder.BuildModule;
+import com.tyron.builder.compiler.BuildCache;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
 import com.tyron.builder.exception.CompilationFailedException;
@@ -21,13 +22,34 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class IncrementalAapt2Task extends Task<AndroidModule> {
 
     private static final String TAG = "IncrementalAAPT2";
+    private static final String LIBRARY_CACHE = "aapt2-libraries";
+
+    private static int sMaxParallelCompiles = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Sets the maximum number of aapt2 processes used to compile libraries at the same
+     * time, defaults to the number of available processors
+     */
+    public static void setMaxParallelCompiles(int count) {
+        sMaxParallelCompiles = Math.max(1, count);
+    }
 
     private final boolean mGenerateProtoFormat;
 
@@ -41,6 +63,32 @@ public class IncrementalAapt2Task extends Task<AndroidModule> {
         return TAG;
     }
 
+    @Override
+    public Set<File> getInputs() {
+        Set<File> inputs = new HashSet<>();
+        inputs.add(getModule().getAndroidResourcesDirectory());
+        inputs.add(getModule().getAssetsDirectory());
+        inputs.add(new File(getModule().getBuildDirectory(), "bin/AndroidManifest.xml"));
+        for (File library : getModule().getLibraries()) {
+            File parent = library.getParentFile();
+            if (parent != null) {
+                inputs.add(parent);
+            }
+        }
+        return inputs;
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        Set<File> outputs = new HashSet<>();
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/res"));
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/generated.apk.res"));
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/proto-format.zip"));
+        outputs.add(new File(getModule().getBuildDirectory(), "intermediate/resources"));
+        outputs.add(new File(getModule().getBuildDirectory(), "gen"));
+        return outputs;
+    }
+
     @Override
     public void prepare(BuildType type) throws IOException {
 
@@ -80,6 +128,7 @@ public class IncrementalAapt2Task extends Task<AndroidModule> {
                 for (File fileToCompile : filesToCompile) {
                     args.add(fileToCompile.getAbsolutePath());
                 }
+                getMetrics().addFilesCompiled(filesToCompile.size());
             }
         }
         args.add("-o");
@@ -99,6 +148,12 @@ public class IncrementalAapt2Task extends Task<AndroidModule> {
         copyMapToDir(files);
     }
 
+    /**
+     * Compiles the resources of the given libraries, running up to
+     * {@link #setMaxParallelCompiles(int)} aapt2 processes at the same time. If a library
+     * fails to compile, the libraries that have not started yet are skipped and the error
+     * is thrown once the running ones have finished.
+     */
     private void compileLibraries(List<File> libraries)
             throws IOException, CompilationFailedException {
         getLogger().debug("Compiling libraries.");
@@ -110,6 +165,7 @@ public class IncrementalAapt2Task extends Task<AndroidModule> {
             }
         }
 
+        Map<File, File> resDirs = new LinkedHashMap<>();
         for (File file : libraries) {
             File parent = file.getParentFile();
             if (parent == null) {
@@ -122,21 +178,95 @@ public class IncrementalAapt2Task extends Task<AndroidModule> {
 
             for (File inside : files) {
                 if (inside.isDirectory() && inside.getName().equals("res")) {
-                    List<String> args = new ArrayList<>();
-                    args.add(getBinary().getAbsolutePath());
-                    args.add("compile");
-                    args.add("--dir");
-                    args.add(inside.getAbsolutePath());
-                    args.add("-o");
-                    args.add(createNewFile(output, parent.getName() + ".zip").getAbsolutePath());
-
-                    BinaryExecutor exec = new BinaryExecutor();
-                    exec.setCommands(args);
-                    if (!exec.execute().trim().isEmpty()) {
-                        throw new CompilationFailedException(exec.getLog());
+                    resDirs.put(inside, new File(output, parent.getName() + ".zip"));
+                }
+            }
+        }
+        if (resDirs.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.max(1, Math.min(sMaxParallelCompiles, resDirs.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Map.Entry<File, File> entry : resDirs.entrySet()) {
+            futures.add(completionService.submit(() -> {
+                compileLibrary(entry.getKey(), entry.getValue());
+                return null;
+            }));
+        }
+
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch (CancellationException ignored) {
+                    // cancelled after another library has failed to compile
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                        // don't start the remaining compilations, the running ones
+                        // are allowed to finish
+                        for (Future<Void> future : futures) {
+                            future.cancel(false);
+                        }
                     }
                 }
             }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new CompilationFailedException("Resource compilation was interrupted", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failure instanceof CompilationFailedException) {
+            throw (CompilationFailedException) failure;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw new CompilationFailedException(failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Compiles the res directory of a library to the output zip. Compiled libraries are
+     * stored in the {@link BuildCache} under the hash of their res directory, so a library
+     * is only compiled once even if it is used by different projects.
+     */
+    private void compileLibrary(File resDir, File outputZip)
+            throws IOException, CompilationFailedException {
+        String key = BuildCache.hashDirectory(resDir,
+                BuildCache.getToolVersion(getBinary())) + ".zip";
+        if (BuildCache.restore(LIBRARY_CACHE, key, outputZip)) {
+            getLogger().debug("Using cached resources of " + resDir.getParentFile().getName());
+            getMetrics().addCacheHit();
+            return;
+        }
+        getMetrics().addCacheMiss();
+
+        List<String> args = new ArrayList<>();
+        args.add(getBinary().getAbsolutePath());
+        args.add("compile");
+        args.add("--dir");
+        args.add(resDir.getAbsolutePath());
+        args.add("-o");
+        args.add(outputZip.getAbsolutePath());
+
+        BinaryExecutor exec = new BinaryExecutor();
+        exec.setCommands(args);
+        if (!exec.execute().trim().isEmpty()) {
+            // delete the partial output so it is compiled again on the next build
+            FileUtils.deleteQuietly(outputZip);
+            throw new CompilationFailedException(exec.getLog());
+        }
+
+        if (outputZip.length() > 0) {
+            BuildCache.store(LIBRARY_CACHE, key, outputZip);
         }
     }
 
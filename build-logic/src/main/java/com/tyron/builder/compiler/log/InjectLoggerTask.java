@@ -3,14 +3,21 @@ package com.tyron.builder.compiler.log;
 import android.util.Log;
 import android.util.Pair;
 
+import com.google.common.hash.Hashing;
+import com.tyron.builder.compiler.BuildCache;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.project.api.AndroidModule;
-import com.tyron.common.util.StringSearch;
 
 import org.apache.commons.io.FileUtils;
+import org.openjdk.javax.tools.Diagnostic;
+import org.openjdk.javax.tools.DiagnosticListener;
+import org.openjdk.javax.tools.JavaFileObject;
+import org.openjdk.javax.tools.SimpleJavaFileObject;
+import org.openjdk.javax.tools.StandardJavaFileManager;
+import org.openjdk.javax.tools.StandardLocation;
 import org.openjdk.javax.xml.parsers.DocumentBuilder;
 import org.openjdk.javax.xml.parsers.DocumentBuilderFactory;
 import org.openjdk.javax.xml.parsers.ParserConfigurationException;
@@ -19,6 +26,7 @@ import org.openjdk.javax.xml.transform.TransformerException;
 import org.openjdk.javax.xml.transform.TransformerFactory;
 import org.openjdk.javax.xml.transform.dom.DOMSource;
 import org.openjdk.javax.xml.transform.stream.StreamResult;
+import org.openjdk.tools.javac.api.JavacTool;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.xml.sax.SAXException;
@@ -29,20 +37,47 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Adds the classes of the logger to debug builds. The logger classes are compiled once and
+ * stored in the {@link BuildCache}, they are never added to the sources of the module.
+ *
+ * If the manifest doesn't declare an application class, a precompiled application class that
+ * initializes the logger is declared instead. Otherwise the logger is initialized by
+ * {@link LoggerTransformTask} which modifies the compiled application class.
+ */
 public class InjectLoggerTask extends Task<AndroidModule> {
 
     private static final String TAG = "InjectLogger";
-    private static final String APPLICATION_CLASS = "\nimport android.app.Application;\n" +
+    private static final String CACHE_CATEGORY = "logger-classes";
+
+    static final String PACKAGE = "com.tyron.builder.injected";
+    static final String LOGGER_CLASS = PACKAGE + ".Logger";
+    static final String APPLICATION_CLASS = PACKAGE + ".LoggerApplication";
+
+    private static final String APPLICATION_SOURCE = "package " + PACKAGE + ";\n" +
+            "\n" +
+            "import android.app.Application;\n" +
+            "\n" +
             "public class LoggerApplication extends Application {\n" +
-            "   public void onCreate() {\n" +
-            "       super.onCreate();\n" +
-            "   }\n" +
-            "}";
-    private static final String LOGGER_CLASS = "import android.content.Context;\n" +
+            "    public void onCreate() {\n" +
+            "        super.onCreate();\n" +
+            "        Logger.initialize(this);\n" +
+            "    }\n" +
+            "}\n";
+    private static final String LOGGER_SOURCE = "package " + PACKAGE + ";\n" +
+            "\n" +
+            "import android.content.Context;\n" +
             "import android.content.Intent;\n" +
             "\n" +
             "import java.io.BufferedReader;\n" +
@@ -131,9 +166,6 @@ public class InjectLoggerTask extends Task<AndroidModule> {
             "        mContext.sendBroadcast(intent);\n" +
             "    }\n" +
             "}\n";
-    private File mLoggerFile;
-    private File mApplicationFile;
-    private String mOriginalApplication;
 
     public InjectLoggerTask(AndroidModule project, ILogger logger) {
         super(project, logger);
@@ -144,38 +176,43 @@ public class InjectLoggerTask extends Task<AndroidModule> {
         return TAG;
     }
 
+    /**
+     * The application class may be declared in the merged manifest
+     */
+    @Override
+    public Set<File> getInputs() {
+        return Collections.singleton(
+                new File(getModule().getBuildDirectory(), "bin/AndroidManifest.xml"));
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        Set<File> outputs = new HashSet<>(getInputs());
+        outputs.add(getClassesDirectory(getModule()));
+        return outputs;
+    }
+
+    /**
+     * @return the directory containing the compiled logger classes
+     */
+    public static File getClassesDirectory(AndroidModule module) {
+        return new File(module.getBuildDirectory(), "bin/injected/classes");
+    }
+
     @Override
     public void prepare(BuildType type) throws IOException {
-        getModule().getJavaFiles();
-        getModule().getKotlinFiles();
+
     }
 
     @Override
     public void run() throws IOException, CompilationFailedException {
         try {
-            addLoggerClass();
-
-            boolean isNewApplicationClass = true;
-
-            String applicationClass = getApplicationClass();
+            String applicationClass = getApplicationClass(getModule());
             if (applicationClass == null) {
-                applicationClass = getModule().getPackageName() + ".LoggerApplication";
-                createApplicationClass(applicationClass);
-            } else {
-                isNewApplicationClass = false;
-            }
-
-            mApplicationFile = getModule()
-                    .getJavaFile(applicationClass);
-            if (mApplicationFile == null) {
-                mApplicationFile = getModule()
-                        .getKotlinFile(applicationClass);
-            }
-            if (!isNewApplicationClass) {
-                mOriginalApplication = FileUtils.readFileToString(mApplicationFile, Charset.defaultCharset());
+                setApplicationClass(APPLICATION_CLASS);
+                applicationClass = APPLICATION_CLASS;
             }
-
-            injectLogger(mApplicationFile);
+            addLoggerClasses();
 
             getLogger().debug("application class: " + applicationClass);
         } catch (RuntimeException | XmlPullParserException | ParserConfigurationException | SAXException | TransformerException e) {
@@ -183,39 +220,22 @@ public class InjectLoggerTask extends Task<AndroidModule> {
         }
     }
 
-    @Override
-    protected void clean() {
-        if (mApplicationFile != null) {
-            if (mOriginalApplication != null) {
-                try {
-                    FileUtils.writeStringToFile(mApplicationFile, mOriginalApplication, Charset.defaultCharset());
-                } catch (IOException ignore) {
-                }
-            } else {
-                try {
-                    getModule().removeJavaFile(StringSearch.packageName(mApplicationFile));
-                    FileUtils.delete(mApplicationFile);
-                } catch (IOException e) {
-                    getLogger().error("Failed to delete application class: " + e.getMessage());
-                }
-            }
-        }
-
-        if (mLoggerFile != null) {
-            try {
-                getModule().removeJavaFile(StringSearch.packageName(mLoggerFile));
-                FileUtils.delete(mLoggerFile);
-            } catch (IOException e) {
-                getLogger().error("Failed to delete logger class: " + e.getMessage());
-            }
+    /**
+     * @return the fully qualified name of the application class declared in the merged
+     * manifest, or null if the manifest doesn't declare one
+     */
+    static String getApplicationClass(AndroidModule module) throws XmlPullParserException,
+            IOException {
+        File manifest = new File(module.getBuildDirectory().getAbsolutePath().replaceAll("%20", " "), "bin/AndroidManifest.xml");
+        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        try (InputStream in = new FileInputStream(manifest)) {
+            parser.setInput(in, null);
+            return getApplicationClass(module, parser);
         }
     }
 
-    private String getApplicationClass() throws XmlPullParserException, IOException, ParserConfigurationException, SAXException, TransformerException {
-        File manifest = new File(getModule().getBuildDirectory().getAbsolutePath().replaceAll("%20", " "), "bin/AndroidManifest.xml");
-        XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
-        parser.setInput(new FileInputStream(manifest), null);
-
+    private static String getApplicationClass(AndroidModule module, XmlPullParser parser)
+            throws XmlPullParserException, IOException {
         final int depth = parser.getDepth();
         int type;
         while (((type = parser.next()) != XmlPullParser.END_TAG ||
@@ -234,7 +254,7 @@ public class InjectLoggerTask extends Task<AndroidModule> {
                     if (pair.first.equals("android:name")) {
                         String name = pair.second;
                         if (name.startsWith(".")) {
-                            return getModule().getPackageName() + name;
+                            return module.getPackageName() + name;
                         } else {
                             return name;
                         }
@@ -246,8 +266,8 @@ public class InjectLoggerTask extends Task<AndroidModule> {
         return null;
     }
 
-    private void createApplicationClass(String name) throws IOException, ParserConfigurationException, TransformerException, SAXException {
-        getLogger().debug("Creating application class " + name);
+    private void setApplicationClass(String name) throws IOException, ParserConfigurationException, TransformerException, SAXException {
+        getLogger().debug("Setting application class " + name);
 
         File manifest = new File(getModule().getBuildDirectory().getAbsolutePath().replaceAll("%20", " "), "bin/AndroidManifest.xml");
 
@@ -262,53 +282,81 @@ public class InjectLoggerTask extends Task<AndroidModule> {
         Transformer transformer = transformerFactory.newTransformer();
         DOMSource source = new DOMSource(document);
         transformer.transform(source, new StreamResult(manifest.getAbsolutePath()));
+    }
 
-        File directory = getModule().getJavaDirectory();
-        File output = new File(directory, name.replace('.', '/') + ".java");
-        if (!output.exists() && !output.createNewFile()) {
-            throw  new IOException("Unable to create LoggerApplication");
+    /**
+     * Restores the compiled logger classes from the build cache, compiling them first
+     * if they are not in the cache yet
+     */
+    private void addLoggerClasses() throws IOException, CompilationFailedException {
+        File output = new File(getClassesDirectory(getModule()), PACKAGE.replace('.', '/'));
+        String key = Hashing.murmur3_128().newHasher()
+                .putString(LOGGER_SOURCE, StandardCharsets.UTF_8)
+                .putString(APPLICATION_SOURCE, StandardCharsets.UTF_8)
+                .putString(BuildCache.getToolVersion(getModule().getBootstrapJarFile()),
+                        StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+        if (BuildCache.restoreFiles(CACHE_CATEGORY, key, output)) {
+            return;
         }
 
-        String classString = "package " + getModule().getPackageName() + ";\n" +
-                APPLICATION_CLASS;
-        FileUtils.writeStringToFile(output, classString, Charset.defaultCharset());
-        getModule()
-                .addJavaFile(output);
-    }
+        getLogger().debug("Compiling logger classes");
+        FileUtils.deleteDirectory(output);
+        compileLoggerClasses(getClassesDirectory(getModule()));
 
-    private void injectLogger(File applicationClass) throws IOException, CompilationFailedException {
-        String applicationContents = FileUtils.readFileToString(applicationClass, Charset.defaultCharset());
-        if (applicationContents.contains("Logger.initialize(this);")) {
-            getLogger().debug("Application class already initializes Logger");
-            return;
+        File[] classFiles = output.listFiles(c -> c.getName().endsWith(".class"));
+        if (classFiles == null || classFiles.length == 0) {
+            throw new CompilationFailedException("Unable to compile the logger classes");
         }
+        BuildCache.storeFiles(CACHE_CATEGORY, key, Arrays.asList(classFiles));
+    }
 
-        String onCreateString = "super.onCreate()";
-        int index = applicationContents.indexOf(onCreateString);
-        if (index == -1) {
-            throw new CompilationFailedException("No super method for Application.onCreate() found");
+    private void compileLoggerClasses(File output) throws IOException, CompilationFailedException {
+        if (!output.exists() && !output.mkdirs()) {
+            throw new IOException("Unable to create directory " + output);
         }
 
-        String before = applicationContents.substring(0, index + onCreateString.length() + 1);
-        String after = applicationContents.substring(index + onCreateString.length());
-        String injected = before + "\n" + "Logger.initialize(this);\n" +
-                after;
-        FileUtils.writeStringToFile(applicationClass, injected, Charset.defaultCharset());
+        List<String> errors = new ArrayList<>();
+        DiagnosticListener<JavaFileObject> diagnosticListener = diagnostic -> {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(Locale.getDefault()));
+            }
+        };
+
+        JavacTool tool = JavacTool.create();
+        StandardJavaFileManager fileManager = tool.getStandardFileManager(diagnosticListener,
+                Locale.getDefault(), StandardCharsets.UTF_8);
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(output));
+        fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH,
+                Arrays.asList(getModule().getBootstrapJarFile(),
+                        getModule().getLambdaStubsJarFile()));
+
+        List<JavaFileObject> sources = Arrays.asList(
+                new StringSource(LOGGER_CLASS, LOGGER_SOURCE),
+                new StringSource(APPLICATION_CLASS, APPLICATION_SOURCE));
+        Boolean success = tool.getTask(null, fileManager, diagnosticListener,
+                Arrays.asList("-source", "1.8", "-target", "1.8"), null, sources).call();
+        fileManager.close();
+        if (success == null || !success) {
+            throw new CompilationFailedException("Unable to compile the logger classes: "
+                    + String.join("\n", errors));
+        }
     }
 
-    private void addLoggerClass() throws IOException {
-        getLogger().debug("Creating Logger.java");
+    private static class StringSource extends SimpleJavaFileObject {
 
-        File loggerClass = new File(getModule().getJavaDirectory(), getModule().getPackageName()
-        .replace('.', '/') + "/Logger.java");
-        if (!loggerClass.exists() && !loggerClass.createNewFile()) {
-            throw new IOException("Unable to create Logger.java");
+        private final String mContents;
+
+        StringSource(String className, String contents) {
+            super(URI.create("string:///" + className.replace('.', '/') + ".java"),
+                    Kind.SOURCE);
+            mContents = contents;
         }
 
-        String loggerString = "package " + getModule().getPackageName() + ";\n" +
-                LOGGER_CLASS;
-        FileUtils.writeStringToFile(loggerClass, loggerString, Charset.defaultCharset());
-        mLoggerFile = loggerClass;
-        getModule().addJavaFile(loggerClass);
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mContents;
+        }
     }
-}
\ No newline at end of file
+}
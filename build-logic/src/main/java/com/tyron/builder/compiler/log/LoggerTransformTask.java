@@ -0,0 +1,233 @@
+package com.tyron.builder.compiler.log;
+
+import com.tyron.builder.compiler.BuildType;
+import com.tyron.builder.compiler.Task;
+import com.tyron.builder.exception.CompilationFailedException;
+import com.tyron.builder.log.ILogger;
+import com.tyron.builder.project.api.AndroidModule;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.org.objectweb.asm.ClassReader;
+import org.jetbrains.org.objectweb.asm.ClassVisitor;
+import org.jetbrains.org.objectweb.asm.ClassWriter;
+import org.jetbrains.org.objectweb.asm.MethodVisitor;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Initializes the logger added by {@link InjectLoggerTask} from the {@code onCreate} method
+ * of the compiled application class of the module. Only the class file is modified, so the
+ * sources of the module and their incremental compilation caches are left untouched.
+ *
+ * The class file is only written if it doesn't initialize the logger already, so an
+ * application class that hasn't been recompiled is not dexed again.
+ */
+public class LoggerTransformTask extends Task<AndroidModule> {
+
+    private static final String TAG = "LoggerTransform";
+
+    private static final String LOGGER_OWNER = InjectLoggerTask.LOGGER_CLASS.replace('.', '/');
+    private static final String INITIALIZE_NAME = "initialize";
+    private static final String INITIALIZE_DESCRIPTOR = "(Landroid/content/Context;)V";
+    private static final String ON_CREATE_NAME = "onCreate";
+    private static final String ON_CREATE_DESCRIPTOR = "()V";
+
+    private List<File> mClassDirectories;
+
+    public LoggerTransformTask(AndroidModule project, ILogger logger) {
+        super(project, logger);
+    }
+
+    @Override
+    public String getName() {
+        return TAG;
+    }
+
+    @Override
+    public Set<File> getInputs() {
+        Set<File> inputs = new HashSet<>(getOutputs());
+        inputs.add(new File(getModule().getBuildDirectory(), "bin/AndroidManifest.xml"));
+        return inputs;
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        Set<File> outputs = new HashSet<>();
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/java/classes"));
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/kotlin/classes"));
+        return outputs;
+    }
+
+    @Override
+    public void prepare(BuildType type) throws IOException {
+        mClassDirectories = Arrays.asList(
+                new File(getModule().getBuildDirectory(), "bin/java/classes"),
+                new File(getModule().getBuildDirectory(), "bin/kotlin/classes"));
+    }
+
+    @Override
+    public void run() throws IOException, CompilationFailedException {
+        String applicationClass;
+        try {
+            applicationClass = InjectLoggerTask.getApplicationClass(getModule());
+        } catch (XmlPullParserException e) {
+            throw new CompilationFailedException(e);
+        }
+        if (applicationClass == null
+                || applicationClass.equals(InjectLoggerTask.APPLICATION_CLASS)) {
+            // the precompiled application class already initializes the logger
+            return;
+        }
+
+        File classFile = null;
+        for (File directory : mClassDirectories) {
+            File file = new File(directory, applicationClass.replace('.', '/') + ".class");
+            if (file.exists()) {
+                classFile = file;
+                break;
+            }
+        }
+        if (classFile == null) {
+            throw new CompilationFailedException("Unable to find the compiled application class "
+                    + applicationClass);
+        }
+
+        byte[] transformed = transform(FileUtils.readFileToByteArray(classFile));
+        if (transformed != null) {
+            getLogger().debug("Injecting logger to " + applicationClass);
+            FileUtils.writeByteArrayToFile(classFile, transformed);
+        }
+    }
+
+    /**
+     * Adds a call to the logger after the call to the super {@code onCreate} method, the
+     * method is created if the class doesn't override it
+     *
+     * @return the transformed class, or null if the class already initializes the logger
+     */
+    static byte[] transform(byte[] classBytes) throws CompilationFailedException {
+        ClassReader reader = new ClassReader(classBytes);
+
+        OnCreateScanner scanner = new OnCreateScanner();
+        reader.accept(scanner, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        if (scanner.mInitializesLogger) {
+            return null;
+        }
+        if (scanner.mHasOnCreate && !scanner.mCallsSuper) {
+            throw new CompilationFailedException("No super method for Application.onCreate() found");
+        }
+
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new OnCreateInjector(writer, scanner.mHasOnCreate), 0);
+        return writer.toByteArray();
+    }
+
+    private static boolean isOnCreate(String name, String descriptor) {
+        return ON_CREATE_NAME.equals(name) && ON_CREATE_DESCRIPTOR.equals(descriptor);
+    }
+
+    private static void visitInitialize(MethodVisitor visitor) {
+        visitor.visitVarInsn(Opcodes.ALOAD, 0);
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, LOGGER_OWNER, INITIALIZE_NAME,
+                INITIALIZE_DESCRIPTOR, false);
+    }
+
+    private static class OnCreateScanner extends ClassVisitor {
+
+        private boolean mHasOnCreate;
+        private boolean mCallsSuper;
+        private boolean mInitializesLogger;
+
+        OnCreateScanner() {
+            super(Opcodes.API_VERSION);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                         String signature, String[] exceptions) {
+            if (!isOnCreate(name, descriptor)) {
+                return null;
+            }
+            mHasOnCreate = true;
+            return new MethodVisitor(Opcodes.API_VERSION) {
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name,
+                                            String descriptor, boolean isInterface) {
+                    if (opcode == Opcodes.INVOKESPECIAL && isOnCreate(name, descriptor)) {
+                        mCallsSuper = true;
+                    } else if (opcode == Opcodes.INVOKESTATIC && LOGGER_OWNER.equals(owner)
+                            && INITIALIZE_NAME.equals(name)) {
+                        mInitializesLogger = true;
+                    }
+                }
+            };
+        }
+    }
+
+    private static class OnCreateInjector extends ClassVisitor {
+
+        private final boolean mHasOnCreate;
+        private String mSuperName;
+
+        OnCreateInjector(ClassVisitor visitor, boolean hasOnCreate) {
+            super(Opcodes.API_VERSION, visitor);
+            mHasOnCreate = hasOnCreate;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                          String superName, String[] interfaces) {
+            super.visit(version, access, name, signature, superName, interfaces);
+            mSuperName = superName;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                         String signature, String[] exceptions) {
+            MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature,
+                    exceptions);
+            if (!isOnCreate(name, descriptor)) {
+                return visitor;
+            }
+            return new MethodVisitor(Opcodes.API_VERSION, visitor) {
+
+                private boolean mInjected;
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name,
+                                            String descriptor, boolean isInterface) {
+                    super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+                    if (!mInjected && opcode == Opcodes.INVOKESPECIAL
+                            && isOnCreate(name, descriptor)) {
+                        mInjected = true;
+                        visitInitialize(mv);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void visitEnd() {
+            if (!mHasOnCreate) {
+                MethodVisitor visitor = super.visitMethod(Opcodes.ACC_PUBLIC, ON_CREATE_NAME,
+                        ON_CREATE_DESCRIPTOR, null, null);
+                visitor.visitCode();
+                visitor.visitVarInsn(Opcodes.ALOAD, 0);
+                visitor.visitMethodInsn(Opcodes.INVOKESPECIAL, mSuperName, ON_CREATE_NAME,
+                        ON_CREATE_DESCRIPTOR, false);
+                visitInitialize(visitor);
+                visitor.visitInsn(Opcodes.RETURN);
+                visitor.visitMaxs(0, 0);
+                visitor.visitEnd();
+            }
+            super.visitEnd();
+        }
+    }
+}
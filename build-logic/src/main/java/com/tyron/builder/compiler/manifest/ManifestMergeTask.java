@@ -1,5 +1,10 @@
 package com.tyron.builder.compiler.manifest;
 
+import androidx.annotation.VisibleForTesting;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import com.tyron.builder.compiler.BuildType;
 import com.tyron.builder.compiler.Task;
 import com.tyron.builder.compiler.manifest.ManifestMerger2.SystemProperty;
@@ -10,6 +15,8 @@ import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
 import com.tyron.builder.model.ModuleSettings;
 import com.tyron.builder.project.api.AndroidModule;
+import com.tyron.builder.project.cache.CacheHolder;
+import com.tyron.common.util.Cache;
 
 import org.apache.commons.io.FileUtils;
 import org.w3c.dom.Document;
@@ -17,15 +24,33 @@ import org.w3c.dom.Document;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ManifestMergeTask extends Task<AndroidModule> {
 
+    public static final CacheHolder.CacheKey<String, String> CACHE_KEY =
+            new CacheHolder.CacheKey<>("manifestMergeCache", true);
+    private static final String FINGERPRINT = "fingerprint";
+
     private File mOutputFile;
+    /**
+     * The merged manifest as written by this task. The output may be modified by later tasks,
+     * e.g. {@link com.tyron.builder.compiler.log.InjectLoggerTask} declares an application
+     * class in debug builds, so the cache is checked against this copy instead.
+     */
+    private File mMergedFile;
     private File mMainManifest;
     private File[] mLibraryManifestFiles;
     private String mPackageName;
+    private Cache<String, String> mCache;
+    private String mFingerprint;
+    private boolean mUpToDate;
 
     public ManifestMergeTask(AndroidModule project, ILogger logger) {
         super(project, logger);
@@ -36,6 +61,31 @@ public class ManifestMergeTask extends Task<AndroidModule> {
         return "ManifestMerger";
     }
 
+    @Override
+    public Set<File> getInputs() {
+        Set<File> inputs = new HashSet<>();
+        inputs.add(getModule().getManifestFile());
+        for (File library : getModule().getLibraries()) {
+            File parent = library.getParentFile();
+            if (parent != null) {
+                inputs.add(parent);
+            }
+        }
+        return inputs;
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        Set<File> outputs = new HashSet<>();
+        outputs.add(new File(getModule().getBuildDirectory(), "bin/AndroidManifest.xml"));
+        outputs.add(getMergedFile());
+        return outputs;
+    }
+
+    private File getMergedFile() {
+        return new File(getModule().getBuildDirectory(), "intermediate/manifest/AndroidManifest.xml");
+    }
+
     @Override
     public void prepare(BuildType type) throws IOException {
         mPackageName = getApplicationId();
@@ -53,6 +103,8 @@ public class ManifestMergeTask extends Task<AndroidModule> {
             }
         }
 
+        mMergedFile = getMergedFile();
+
         mMainManifest = getModule().getManifestFile();
         if (!mMainManifest.exists()) {
             throw new IOException("Unable to find the main manifest file");
@@ -78,11 +130,26 @@ public class ManifestMergeTask extends Task<AndroidModule> {
         }
 
         mLibraryManifestFiles = manifests.toArray(new File[0]);
+
+        mCache = getModule().getCache(CACHE_KEY, new Cache<>());
+        mFingerprint = getFingerprint();
     }
 
 
     @Override
     public void run() throws IOException, CompilationFailedException {
+        Path merged = mMergedFile.toPath();
+        mUpToDate = mMergedFile.length() > 0 && mCache.has(merged, FINGERPRINT)
+                && mFingerprint.equals(mCache.get(merged, FINGERPRINT));
+        if (mUpToDate) {
+            getLogger().debug("Manifests are up to date, skipping merge.");
+            getMetrics().addCacheHit();
+            copyToOutput();
+            return;
+        }
+        getMetrics().addCacheMiss();
+        mCache.remove(merged, FINGERPRINT);
+
         ModuleSettings settings = getModule().getSettings();
 
         ManifestMerger2.Invoker<?> invoker = ManifestMerger2.newMerger(mMainManifest,
@@ -119,15 +186,60 @@ public class ManifestMergeTask extends Task<AndroidModule> {
                         XmlFormatStyle.get(document),
                         null,
                         false);
-                FileUtils.writeStringToFile(mOutputFile,
+                FileUtils.writeStringToFile(mMergedFile,
                         contents,
                         Charset.defaultCharset());
+                mCache.load(merged, FINGERPRINT, mFingerprint);
+                copyToOutput();
             }
         } catch (ManifestMerger2.MergeFailureException e) {
             throw new CompilationFailedException(e);
         }
     }
 
+    /**
+     * Copies the merged manifest to the output if the output has been modified since, so
+     * the changes made by other tasks don't leak into the next build
+     */
+    private void copyToOutput() throws IOException {
+        if (mOutputFile.length() != mMergedFile.length()
+                || !FileUtils.contentEquals(mOutputFile, mMergedFile)) {
+            FileUtils.copyFile(mMergedFile, mOutputFile);
+        }
+    }
+
+    /**
+     * @return whether the last run used the previously merged manifest
+     */
+    @VisibleForTesting
+    public boolean isUpToDate() {
+        return mUpToDate;
+    }
+
+    /**
+     * @return a hash of everything the merged manifest depends on, the contents of the main
+     * and library manifests, the overrides from the module settings and the package name
+     */
+    private String getFingerprint() throws IOException {
+        ModuleSettings settings = getModule().getSettings();
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(mPackageName, StandardCharsets.UTF_8);
+        hasher.putInt(settings.getInt(ModuleSettings.MIN_SDK_VERSION, 21));
+        hasher.putInt(settings.getInt(ModuleSettings.TARGET_SDK_VERSION, 30));
+        hasher.putInt(settings.getInt(ModuleSettings.VERSION_CODE, 1));
+        hasher.putString(String.valueOf(settings.getString(ModuleSettings.VERSION_NAME, "1.0")),
+                StandardCharsets.UTF_8);
+
+        List<File> manifests = new ArrayList<>();
+        manifests.add(mMainManifest);
+        Collections.addAll(manifests, mLibraryManifestFiles);
+        for (File manifest : manifests) {
+            hasher.putString(manifest.getAbsolutePath(), StandardCharsets.UTF_8);
+            hasher.putBytes(Files.asByteSource(manifest).hash(Hashing.murmur3_128()).asBytes());
+        }
+        return hasher.hash().toString();
+    }
+
     private String getApplicationId() throws IOException {
         String packageName = getModule().getPackageName();
         if (packageName == null) {
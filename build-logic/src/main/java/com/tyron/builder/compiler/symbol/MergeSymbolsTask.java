@@ -2,6 +2,8 @@ package com.tyron.builder.compiler.symbol;
 
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.tyron.builder.compiler.BuildType;
@@ -9,27 +11,35 @@ import com.tyron.builder.compiler.Task;
 import com.tyron.builder.compiler.resource.AAPT2Compiler;
 import com.tyron.builder.exception.CompilationFailedException;
 import com.tyron.builder.log.ILogger;
+import com.tyron.builder.model.ModuleSettings;
 import com.tyron.builder.project.api.AndroidModule;
+import com.tyron.builder.project.api.Module;
 import com.tyron.builder.project.cache.CacheHolder;
 import com.tyron.common.util.Cache;
 
 import org.apache.commons.io.FileUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
 
 /**
  * Class that loads R.txt files generated by AAPT/AAPT2  and converts them
- * to R.java class files
+ * to R.java class files, or to an R.jar if {@link ModuleSettings#GENERATE_R_JAR} is enabled
  */
 public class MergeSymbolsTask extends Task<AndroidModule> {
 
     public static final CacheHolder.CacheKey<Void, Void> CACHE_KEY =
-            new CacheHolder.CacheKey<>("mergeSymbolsCache");
+            new CacheHolder.CacheKey<>("mergeSymbolsCache", true);
 
     private File mSymbolOutputDir;
     private File mFullResourceFile;
@@ -43,6 +53,49 @@ public class MergeSymbolsTask extends Task<AndroidModule> {
         return "SymbolProcessor";
     }
 
+    @Override
+    public Set<File> getInputs() {
+        Set<File> inputs = new HashSet<>();
+        inputs.add(new File(getModule().getBuildDirectory(), "bin/res/R.txt"));
+        for (File library : getModule().getLibraries()) {
+            File parent = library.getParentFile();
+            if (parent != null) {
+                inputs.add(parent);
+            }
+        }
+        return inputs;
+    }
+
+    @Override
+    public Set<File> getOutputs() {
+        Set<File> outputs = new HashSet<>();
+        outputs.add(new File(getModule().getBuildDirectory(), "gen"));
+        outputs.add(getRJarFile(getModule()));
+        return outputs;
+    }
+
+    public static boolean isRJarEnabled(Module module) {
+        return module.getSettings().getBoolean(ModuleSettings.GENERATE_R_JAR, false);
+    }
+
+    private static File getRJarFile(Module module) {
+        return new File(module.getBuildDirectory(), "intermediate/symbols/R.jar");
+    }
+
+    /**
+     * @return the jar containing the R classes of the libraries, or null if R classes are
+     * generated as sources or the jar has not been generated yet. The jar should be added to
+     * the classpath of the compilers and dexed along with the classes of the project.
+     */
+    @Nullable
+    public static File getRJar(Module module) {
+        if (!isRJarEnabled(module)) {
+            return null;
+        }
+        File jar = getRJarFile(module);
+        return jar.exists() ? jar : null;
+    }
+
     @Override
     public void prepare(BuildType type) throws IOException {
         mSymbolOutputDir = new File(getModule().getBuildDirectory(), "gen");
@@ -82,6 +135,9 @@ public class MergeSymbolsTask extends Task<AndroidModule> {
         }
 
         for (Cache.Key<Void> key : new HashSet<>(cache.getKeys())) {
+            if (key.file.toFile().equals(mFullResourceFile)) {
+                continue;
+            }
             if (!RFiles.contains(key.file.toFile())) {
                 Log.d("MergeSymbolsTask", "Found deleted resource file, removing " + key.file.toFile().getName() + " on the cache.");
                 cache.remove(key.file, (Void) null);
@@ -89,6 +145,17 @@ public class MergeSymbolsTask extends Task<AndroidModule> {
             }
         }
 
+        File rJar = getRJarFile(getModule());
+        if (isRJarEnabled(getModule())) {
+            writeRJar(rJar, RFiles, cache);
+            return;
+        }
+        if (rJar.exists()) {
+            // R.jar was used on the previous build, the R.java files have to be generated again
+            FileUtils.delete(rJar);
+            cache.clear();
+        }
+
         for (File rFile : RFiles) {
 
             if (!cache.needs(rFile.toPath(), null)) {
@@ -132,4 +199,75 @@ public class MergeSymbolsTask extends Task<AndroidModule> {
             cache.load(file.toPath(), null, null);
         }
     }
+
+    /**
+     * Writes the R classes of every library to the given jar. The jar is written again if any
+     * of the R.txt files, including the one of the project, has changed since the last build.
+     */
+    private void writeRJar(File rJar, List<File> rFiles, Cache<Void, Void> cache)
+            throws IOException {
+        boolean changed = !rJar.exists() || cache.needs(mFullResourceFile.toPath(), null);
+        for (File rFile : rFiles) {
+            if (cache.needs(rFile.toPath(), null)) {
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+
+        SymbolLoader fullSymbolValues = new SymbolLoader(mFullResourceFile, getLogger());
+        fullSymbolValues.load();
+
+        Multimap<String, SymbolLoader> libMap = ArrayListMultimap.create();
+        for (File rFile : rFiles) {
+            String packageName = AAPT2Compiler.getPackageName(
+                    new File(rFile.getParentFile(), "AndroidManifest.xml"));
+            if (packageName == null) {
+                continue;
+            }
+            SymbolLoader libSymbols = new SymbolLoader(rFile, getLogger());
+            libSymbols.load();
+            libMap.put(packageName, libSymbols);
+        }
+
+        File parent = rJar.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        File temp = new File(parent, rJar.getName() + ".tmp");
+        try (JarOutputStream out = new JarOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            for (String packageName : libMap.keySet()) {
+                SymbolWriter writer = new SymbolWriter(mSymbolOutputDir.getAbsolutePath(),
+                        packageName, fullSymbolValues, getModule());
+                for (SymbolLoader loader : libMap.get(packageName)) {
+                    writer.addSymbolsToWrite(loader);
+                }
+
+                try {
+                    writer.writeClasses(out);
+                } catch (IOException e) {
+                    getLogger().warning("Unable to write R classes of " + packageName +
+                            " to R.jar, generating R.java instead: " + e.getMessage());
+                    writer.write();
+                    continue;
+                }
+
+                // remove the R.java generated by a previous build
+                File source = new File(mSymbolOutputDir,
+                        packageName.replace('.', '/') + "/R.java");
+                if (source.exists()) {
+                    FileUtils.delete(source);
+                    getModule().removeJavaFile(packageName + ".R");
+                }
+            }
+        }
+        Files.move(temp.toPath(), rJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        cache.load(mFullResourceFile.toPath(), null, null);
+        for (File file : rFiles) {
+            cache.load(file.toPath(), null, null);
+        }
+    }
 }
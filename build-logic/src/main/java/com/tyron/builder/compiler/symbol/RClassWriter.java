@@ -0,0 +1,272 @@
+package com.tyron.builder.compiler.symbol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer for R classes. It only supports what R classes need: a public
+ * final class with public static {@code int} and {@code int[]} fields that are initialized
+ * in the static initializer.
+ *
+ * <p>The fields are not compile time constants, like the non constant R classes of the
+ * Android Gradle plugin. Constants would be inlined into the classes referencing them, and
+ * those classes would keep stale ids when the ids shift after a resource is added, since
+ * their sources have not changed and are not compiled again. As a consequence the fields
+ * can't be used as case labels of a switch.
+ */
+class RClassWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 52;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELD_REF = 9;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private final String mClassName;
+    private final ByteArrayOutputStream mPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mPool = new DataOutputStream(mPoolBytes);
+    private final Map<String, Integer> mPoolIndices = new HashMap<>();
+    private int mPoolSize = 1;
+
+    private final List<String[]> mInnerClasses = new ArrayList<>();
+    private final List<Field> mFields = new ArrayList<>();
+
+    private static class Field {
+        final String name;
+        final int value;
+        final int[] values;
+
+        Field(String name, int value, int[] values) {
+            this.name = name;
+            this.value = value;
+            this.values = values;
+        }
+    }
+
+    /**
+     * @param className the internal name of the class, e.g. {@code com/example/R$id}
+     */
+    RClassWriter(String className) {
+        mClassName = className;
+    }
+
+    /**
+     * Adds an entry to the InnerClasses attribute of this class
+     *
+     * @param innerClass the internal name of the inner class
+     * @param outerClass the internal name of the class declaring the inner class
+     * @param simpleName the simple name of the inner class
+     */
+    void addInnerClass(String innerClass, String outerClass, String simpleName) {
+        mInnerClasses.add(new String[]{innerClass, outerClass, simpleName});
+    }
+
+    void addIntField(String name, int value) {
+        mFields.add(new Field(name, value, null));
+    }
+
+    void addIntArrayField(String name, int[] values) {
+        mFields.add(new Field(name, 0, values));
+    }
+
+    byte[] toByteArray() throws IOException {
+        int thisClass = classConstant(mClassName);
+        int superClass = classConstant("java/lang/Object");
+
+        ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(fieldBytes);
+        ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(codeBytes);
+        for (Field field : mFields) {
+            fields.writeShort(ACC_PUBLIC | ACC_STATIC);
+            fields.writeShort(utf8Constant(field.name));
+            fields.writeShort(utf8Constant(field.values == null ? "I" : "[I"));
+            fields.writeShort(0);
+            if (field.values == null) {
+                writeIntInitializer(code, field);
+            } else {
+                writeArrayInitializer(code, field);
+            }
+        }
+
+        ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+        DataOutputStream methods = new DataOutputStream(methodBytes);
+        int methodCount = 0;
+        if (code.size() > 0) {
+            // return
+            code.writeByte(0xb1);
+            if (code.size() > MAX_CODE_LENGTH) {
+                throw new IOException("Static initializer of " + mClassName + " is too large");
+            }
+            methodCount++;
+            methods.writeShort(ACC_STATIC);
+            methods.writeShort(utf8Constant("<clinit>"));
+            methods.writeShort(utf8Constant("()V"));
+            methods.writeShort(1);
+            methods.writeShort(utf8Constant("Code"));
+            methods.writeInt(12 + code.size());
+            // max stack: array, array, index and value
+            methods.writeShort(4);
+            methods.writeShort(0);
+            methods.writeInt(code.size());
+            codeBytes.writeTo(methods);
+            methods.writeShort(0);
+            methods.writeShort(0);
+        }
+
+        ByteArrayOutputStream attributeBytes = new ByteArrayOutputStream();
+        DataOutputStream attributes = new DataOutputStream(attributeBytes);
+        int attributeCount = 0;
+        if (!mInnerClasses.isEmpty()) {
+            attributeCount++;
+            attributes.writeShort(utf8Constant("InnerClasses"));
+            attributes.writeInt(2 + mInnerClasses.size() * 8);
+            attributes.writeShort(mInnerClasses.size());
+            for (String[] innerClass : mInnerClasses) {
+                attributes.writeShort(classConstant(innerClass[0]));
+                attributes.writeShort(classConstant(innerClass[1]));
+                attributes.writeShort(utf8Constant(innerClass[2]));
+                attributes.writeShort(ACC_PUBLIC | ACC_STATIC | ACC_FINAL);
+            }
+        }
+
+        if (mPoolSize > 0xffff) {
+            throw new IOException("Too many constants in " + mClassName);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(MAJOR_VERSION);
+        out.writeShort(mPoolSize);
+        mPoolBytes.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0);
+        out.writeShort(mFields.size());
+        fieldBytes.writeTo(out);
+        out.writeShort(methodCount);
+        methodBytes.writeTo(out);
+        out.writeShort(attributeCount);
+        attributeBytes.writeTo(out);
+        return bytes.toByteArray();
+    }
+
+    private void writeIntInitializer(DataOutputStream code, Field field) throws IOException {
+        pushInt(code, field.value);
+        // putstatic
+        code.writeByte(0xb3);
+        code.writeShort(fieldRefConstant(field.name, "I"));
+    }
+
+    private void writeArrayInitializer(DataOutputStream code, Field field) throws IOException {
+        pushInt(code, field.values.length);
+        // newarray int
+        code.writeByte(0xbc);
+        code.writeByte(10);
+        for (int i = 0; i < field.values.length; i++) {
+            // dup
+            code.writeByte(0x59);
+            pushInt(code, i);
+            pushInt(code, field.values[i]);
+            // iastore
+            code.writeByte(0x4f);
+        }
+        // putstatic
+        code.writeByte(0xb3);
+        code.writeShort(fieldRefConstant(field.name, "[I"));
+    }
+
+    private void pushInt(DataOutputStream code, int value) throws IOException {
+        if (value >= -1 && value <= 5) {
+            // iconst_<n>
+            code.writeByte(0x03 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            // bipush
+            code.writeByte(0x10);
+            code.writeByte(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            // sipush
+            code.writeByte(0x11);
+            code.writeShort(value);
+        } else {
+            // ldc_w
+            code.writeByte(0x13);
+            code.writeShort(intConstant(value));
+        }
+    }
+
+    private int utf8Constant(String value) throws IOException {
+        Integer index = mPoolIndices.get("u" + value);
+        if (index == null) {
+            mPool.writeByte(CONSTANT_UTF8);
+            mPool.writeUTF(value);
+            index = addConstant("u" + value);
+        }
+        return index;
+    }
+
+    private int intConstant(int value) throws IOException {
+        Integer index = mPoolIndices.get("i" + value);
+        if (index == null) {
+            mPool.writeByte(CONSTANT_INTEGER);
+            mPool.writeInt(value);
+            index = addConstant("i" + value);
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) throws IOException {
+        Integer index = mPoolIndices.get("c" + internalName);
+        if (index == null) {
+            int name = utf8Constant(internalName);
+            mPool.writeByte(CONSTANT_CLASS);
+            mPool.writeShort(name);
+            index = addConstant("c" + internalName);
+        }
+        return index;
+    }
+
+    private int fieldRefConstant(String name, String descriptor) throws IOException {
+        String key = "f" + name + ":" + descriptor;
+        Integer index = mPoolIndices.get(key);
+        if (index == null) {
+            int owner = classConstant(mClassName);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            mPool.writeByte(CONSTANT_NAME_AND_TYPE);
+            mPool.writeShort(nameIndex);
+            mPool.writeShort(descriptorIndex);
+            int nameAndType = addConstant("n" + name + ":" + descriptor);
+            mPool.writeByte(CONSTANT_FIELD_REF);
+            mPool.writeShort(owner);
+            mPool.writeShort(nameAndType);
+            index = addConstant(key);
+        }
+        return index;
+    }
+
+    private int addConstant(String key) {
+        int index = mPoolSize;
+        mPoolIndices.put(key, index);
+        mPoolSize++;
+        return index;
+    }
+}
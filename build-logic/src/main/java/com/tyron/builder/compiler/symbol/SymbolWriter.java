@@ -15,9 +15,11 @@ import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 
 /**
  * A class to write R.java classes based on data read from text symbol files generated by
@@ -52,6 +54,102 @@ public class SymbolWriter {
         return symbols;
     }
 
+    /**
+     * @return the symbols to write grouped by their sorted resource types, the symbols of each
+     * type are sorted by name and use the values of the full symbol table
+     */
+    private Map<String, List<SymbolLoader.SymbolEntry>> getSymbolsToWrite() {
+        Table<String, String, SymbolLoader.SymbolEntry> symbols = getAllSymbols();
+        Table<String, String, SymbolLoader.SymbolEntry> values = mValues.getSymbols();
+
+        List<String> rowList = Lists.newArrayList(symbols.rowKeySet());
+        Collections.sort(rowList);
+
+        Map<String, List<SymbolLoader.SymbolEntry>> symbolsToWrite = new LinkedHashMap<>();
+        for (String row : rowList) {
+            List<String> symbolList = Lists.newArrayList(symbols.row(row).keySet());
+            Collections.sort(symbolList);
+
+            List<SymbolLoader.SymbolEntry> entries = new ArrayList<>();
+            for (String symbolName : symbolList) {
+                // get the matching SymbolEntry from the values Table.
+                SymbolLoader.SymbolEntry value = values.get(row, symbolName);
+                if (value != null) {
+                    entries.add(value);
+                }
+            }
+            symbolsToWrite.put(row, entries);
+        }
+        return symbolsToWrite;
+    }
+
+    /**
+     * Writes the R class and its inner classes as class files to the given jar instead of
+     * writing an R.java file, so they don't have to be parsed and compiled.
+     *
+     * @throws IOException if the jar could not be written or an R class would exceed the
+     * limits of the class file format
+     */
+    public void writeClasses(JarOutputStream out) throws IOException {
+        String className = mPackageName.replace('.', '/') + "/R";
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+
+        RClassWriter rClass = new RClassWriter(className);
+        for (Map.Entry<String, List<SymbolLoader.SymbolEntry>> row :
+                getSymbolsToWrite().entrySet()) {
+            String innerClassName = className + "$" + row.getKey();
+            rClass.addInnerClass(innerClassName, className, row.getKey());
+
+            RClassWriter innerClass = new RClassWriter(innerClassName);
+            innerClass.addInnerClass(innerClassName, className, row.getKey());
+            for (SymbolLoader.SymbolEntry entry : row.getValue()) {
+                if ("int[]".equals(entry.getType())) {
+                    innerClass.addIntArrayField(entry.getName(), parseIntArray(entry.getValue()));
+                } else {
+                    innerClass.addIntField(entry.getName(), parseInt(entry.getValue()));
+                }
+            }
+            classes.put(innerClassName + ".class", innerClass.toByteArray());
+        }
+        classes.put(className + ".class", rClass.toByteArray());
+
+        // only add the entries once every class has been generated, so a failure
+        // doesn't leave the jar with a partial package
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            out.putNextEntry(new JarEntry(entry.getKey()));
+            out.write(entry.getValue());
+            out.closeEntry();
+        }
+    }
+
+    private static int parseInt(String value) throws IOException {
+        try {
+            return Long.decode(value.trim()).intValue();
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid resource value " + value, e);
+        }
+    }
+
+    private static int[] parseIntArray(String value) throws IOException {
+        String trimmed = value.trim();
+        if (trimmed.startsWith("{")) {
+            trimmed = trimmed.substring(1);
+        }
+        if (trimmed.endsWith("}")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+
+        List<Integer> values = new ArrayList<>();
+        for (String element : Splitter.on(',').trimResults().omitEmptyStrings().split(trimmed)) {
+            values.add(parseInt(element));
+        }
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
     public void write() throws IOException {
         Splitter splitter = Splitter.on('.');
         Iterable<String> folders = splitter.split(mPackageName);
@@ -81,35 +179,20 @@ public class SymbolWriter {
             writer.write(mPackageName);
             writer.write(";\n\npublic final class R {\n");
 
-            Table<String, String, SymbolLoader.SymbolEntry> symbols = getAllSymbols();
-            Table<String, String, SymbolLoader.SymbolEntry> values = mValues.getSymbols();
-
-            Set<String> rowSet = symbols.rowKeySet();
-            List<String> rowList = Lists.newArrayList(rowSet);
-            Collections.sort(rowList);
-
-            for (String row : rowList) {
+            for (Map.Entry<String, List<SymbolLoader.SymbolEntry>> row :
+                    getSymbolsToWrite().entrySet()) {
                 writer.write("\tpublic static final class ");
-                writer.write(row);
+                writer.write(row.getKey());
                 writer.write(" {\n");
 
-                Map<String, SymbolLoader.SymbolEntry> rowMap = symbols.row(row);
-                Set<String> symbolSet = rowMap.keySet();
-                ArrayList<String> symbolList = Lists.newArrayList(symbolSet);
-                Collections.sort(symbolList);
-
-                for (String symbolName : symbolList) {
-                    // get the matching SymbolEntry from the values Table.
-                    SymbolLoader.SymbolEntry value = values.get(row, symbolName);
-                    if (value != null) {
-                        writer.write("\t\tpublic static final ");
-                        writer.write(value.getType());
-                        writer.write(" ");
-                        writer.write(value.getName());
-                        writer.write(" = ");
-                        writer.write(value.getValue());
-                        writer.write(";\n");
-                    }
+                for (SymbolLoader.SymbolEntry value : row.getValue()) {
+                    writer.write("\t\tpublic static final ");
+                    writer.write(value.getType());
+                    writer.write(" ");
+                    writer.write(value.getName());
+                    writer.write(" = ");
+                    writer.write(value.getValue());
+                    writer.write(";\n");
                 }
 
                 writer.write("\t}\n");
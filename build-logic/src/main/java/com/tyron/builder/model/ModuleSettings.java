@@ -35,6 +35,12 @@ public class ModuleSettings implements SharedPreferences {
     public static final String VERSION_CODE = "versionCode";
     public static final String JAVA_TARGET_VERSION = "javaTargetVersion";
     public static final String JAVA_SOURCE_VERSION = "javaSourceVersion";
+    /**
+     * Whether the R classes of libraries should be written directly to a jar
+     * instead of being generated as R.java files. Their fields are not constants,
+     * so they can't be used as case labels of a switch.
+     */
+    public static final String GENERATE_R_JAR = "generateRJar";
 
     private final File mConfigFile;
     private final Map<String, Object> mConfigMap;
@@ -30,6 +30,12 @@ public interface JavaModule extends Module {
      */
     List<String> getAllClasses();
 
+    /**
+     * @return a number that changes whenever a class is added to or removed from
+     * {@link #getAllClasses()}, so callers can tell whether their copy is outdated
+     */
+    int getModificationCount();
+
     /**
      * @return The resources directory of the project. Note that
      * this is different from android's res directory
@@ -28,6 +28,10 @@ public interface Module extends UserDataHolderEx, CacheHolder {
      */
     void clear();
 
+    /**
+     * Index the files of this module. Files that haven't changed since the last call are not
+     * indexed again, call {@link #clear()} first to index every file.
+     */
     void index();
 
     /**
@@ -2,22 +2,47 @@ package com.tyron.builder.project.cache;
 
 import com.tyron.common.util.Cache;
 
+import java.io.IOException;
+
 public interface CacheHolder {
 
     class CacheKey<K, V> {
 
         private final String name;
+        private final boolean persistent;
 
         public CacheKey(String name) {
+            this(name, false);
+        }
+
+        /**
+         * @param persistent whether the cache of this key should be stored on the disk,
+         *                   the keys and values of the cache must be serializable
+         */
+        public CacheKey(String name, boolean persistent) {
             this.name = name;
+            this.persistent = persistent;
         }
 
         public String getName() {
             return name;
         }
+
+        public boolean isPersistent() {
+            return persistent;
+        }
     }
 
+    /**
+     * Returns the cache associated with the key. If the key is persistent and there is no
+     * cache in memory yet, the cache is loaded from the disk and the default value is ignored.
+     */
     public <K, V> Cache<K, V> getCache(CacheKey<K, V> key, Cache<K, V> defaultValue);
 
     public <K, V> void put(CacheKey<K, V> key, Cache<K, V> value);
+
+    /**
+     * Writes the persistent caches held by this object to the disk
+     */
+    public void saveCaches() throws IOException;
 }
@@ -10,26 +10,27 @@ import com.tyron.builder.model.ModuleSettings;
 import com.tyron.builder.project.api.AndroidModule;
 import com.tyron.common.util.StringSearch;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
-
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
 
 public class AndroidModuleImpl extends JavaModuleImpl implements AndroidModule {
 
     private ManifestData mManifestData;
     private final Map<String, File> mKotlinFiles;
+    private final SourceFileIndex mKotlinIndex;
+    private final SourceFileIndex mGeneratedIndex;
 
     public AndroidModuleImpl(File root) {
         super(root);
 
         mKotlinFiles = new HashMap<>();
+        mKotlinIndex = new SourceFileIndex(".kt", AndroidModuleImpl::getKotlinClassName);
+        mGeneratedIndex = new SourceFileIndex(".java", JavaModuleImpl::getClassName);
     }
 
     @Override
@@ -43,30 +44,24 @@ public class AndroidModuleImpl extends JavaModuleImpl implements AndroidModule {
     public void index() {
         super.index();
 
-        Consumer<File> kotlinConsumer = this::addKotlinFile;
+        boolean changed = mKotlinIndex.update(
+                Arrays.asList(getJavaDirectory(), getKotlinDirectory()), mKotlinFiles);
 
-        if (getJavaDirectory().exists()) {
-            FileUtils.iterateFiles(getJavaDirectory(),
-                    FileFilterUtils.suffixFileFilter(".kt"),
-                    TrueFileFilter.INSTANCE
-            ).forEachRemaining(kotlinConsumer);
+        // R.java files
+        changed |= mGeneratedIndex.update(
+                Collections.singletonList(new File(getBuildDirectory(), "gen")), getJavaFiles());
+        if (changed) {
+            onClassesChanged();
         }
+    }
 
-        if (getKotlinDirectory().exists()) {
-            FileUtils.iterateFiles(getKotlinDirectory(),
-                    FileFilterUtils.suffixFileFilter(".kt"),
-                    TrueFileFilter.INSTANCE
-            ).forEachRemaining(kotlinConsumer);
-        }
+    @Override
+    public void clear() {
+        super.clear();
 
-        // R.java files
-        File gen = new File(getBuildDirectory(), "gen");
-        if (gen.exists()) {
-            FileUtils.iterateFiles(gen,
-                    FileFilterUtils.suffixFileFilter(".java"),
-                    TrueFileFilter.INSTANCE
-            ).forEachRemaining(this::addJavaFile);
-        }
+        mKotlinFiles.clear();
+        mKotlinIndex.clear();
+        mGeneratedIndex.clear();
     }
 
     @Override
@@ -151,11 +146,15 @@ public class AndroidModuleImpl extends JavaModuleImpl implements AndroidModule {
 
     @Override
     public void addKotlinFile(File file) {
+        mKotlinFiles.put(getKotlinClassName(file), file);
+        onClassesChanged();
+    }
+
+    private static String getKotlinClassName(File file) {
         String packageName = StringSearch.packageName(file);
         if (packageName == null) {
             packageName = "";
         }
-        String fqn = packageName + "." + file.getName().replace(".kt", "");
-        mKotlinFiles.put(fqn, file);
+        return packageName + "." + file.getName().replace(".kt", "");
     }
 }
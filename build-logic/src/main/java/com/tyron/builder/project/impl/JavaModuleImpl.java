@@ -8,13 +8,10 @@ import com.tyron.builder.BuildModule;
 import com.tyron.builder.project.api.JavaModule;
 import com.tyron.common.util.StringSearch;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
-
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,12 +28,19 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
     private final Map<String, File> mClassFiles;
     private final Map<String, File> mJavaFiles;
     private final Set<File> mLibraries;
+    // Last modified time of the libraries when they were indexed
+    private final Map<File, Long> mIndexedLibraries;
+    private final SourceFileIndex mJavaIndex;
+    private File mIndexedAndroidJar;
+    private int mModificationCount;
 
     public JavaModuleImpl(File root) {
         super(root);
         mJavaFiles = new HashMap<>();
         mClassFiles = new HashMap<>();
         mLibraries = new HashSet<>();
+        mIndexedLibraries = new HashMap<>();
+        mJavaIndex = new SourceFileIndex(".java", JavaModuleImpl::getClassName);
     }
 
     @NonNull
@@ -53,7 +57,9 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
 
     @Override
     public void removeJavaFile(@NonNull String packageName) {
-        mJavaFiles.remove(packageName);
+        if (mJavaFiles.remove(packageName) != null) {
+            mModificationCount++;
+        }
     }
 
     @Override
@@ -61,14 +67,16 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
         if (!javaFile.getName().endsWith(".java")) {
             return;
         }
+        mJavaFiles.put(getClassName(javaFile), javaFile);
+        mModificationCount++;
+    }
+
+    static String getClassName(File javaFile) {
         String packageName = StringSearch.packageName(javaFile);
-        String className;
         if (packageName == null) {
-            className = javaFile.getName().replace(".java", "");
-        } else {
-            className = packageName + "." + javaFile.getName().replace(".java", "");
+            return javaFile.getName().replace(".java", "");
         }
-        mJavaFiles.put(className, javaFile);
+        return packageName + "." + javaFile.getName().replace(".java", "");
     }
 
     @Override
@@ -79,6 +87,19 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
         return classes;
     }
 
+    @Override
+    public int getModificationCount() {
+        return mModificationCount;
+    }
+
+    /**
+     * Should be called by subclasses when they change the classes they add to
+     * {@link #getAllClasses()}
+     */
+    protected void onClassesChanged() {
+        mModificationCount++;
+    }
+
     @Override
     public List<File> getLibraries() {
         return ImmutableList.copyOf(mLibraries);
@@ -94,6 +115,7 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
             JarFile jarFile = new JarFile(jar);
             putJar(jar);
             mLibraries.add(jar);
+            mIndexedLibraries.put(jar, jar.lastModified());
         } catch (IOException e) {
             // ignored, don't put the jar
         }
@@ -124,6 +146,7 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
                 mClassFiles.put(packageName, file);
             }
         }
+        mModificationCount++;
     }
 
     @NonNull
@@ -180,36 +203,65 @@ public class JavaModuleImpl extends ModuleImpl implements JavaModule {
         super.open();
     }
 
+    /**
+     * Only the source files and libraries that have changed since the last call are
+     * indexed again, see {@link SourceFileIndex}
+     */
     @Override
     public void index() {
-        if (getJavaDirectory().exists()) {
-            FileUtils.iterateFiles(getJavaDirectory(),
-                    FileFilterUtils.suffixFileFilter(".java"),
-                    TrueFileFilter.INSTANCE
-            ).forEachRemaining(this::addJavaFile);
+        if (mJavaIndex.update(Collections.singletonList(getJavaDirectory()), mJavaFiles)) {
+            mModificationCount++;
         }
 
+        Set<File> libraries = new HashSet<>();
         File[] libraryDirectories = new File(getBuildDirectory(), "libs")
                 .listFiles(File::isDirectory);
         if (libraryDirectories != null) {
             for (File directory : libraryDirectories) {
                 File check = new File(directory, "classes.jar");
                 if (check.exists()) {
-                    addLibrary(check);
+                    libraries.add(check);
                 }
             }
         }
 
-        try {
-            putJar(BuildModule.getAndroidJar());
-        } catch (IOException e) {
-            // ignored
+        for (File library : new ArrayList<>(mLibraries)) {
+            if (!libraries.contains(library)) {
+                removeLibrary(library);
+            }
         }
+        for (File library : libraries) {
+            Long lastModified = mIndexedLibraries.get(library);
+            if (lastModified == null || lastModified != library.lastModified()) {
+                removeLibrary(library);
+                addLibrary(library);
+            }
+        }
+
+        File androidJar = BuildModule.getAndroidJar();
+        if (androidJar != null && !androidJar.equals(mIndexedAndroidJar)) {
+            try {
+                putJar(androidJar);
+                mIndexedAndroidJar = androidJar;
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private void removeLibrary(File library) {
+        mLibraries.remove(library);
+        mIndexedLibraries.remove(library);
+        mClassFiles.values().removeIf(library::equals);
+        mModificationCount++;
     }
 
     @Override
     public void clear() {
         mJavaFiles.clear();
         mLibraries.clear();
+        mIndexedLibraries.clear();
+        mJavaIndex.clear();
+        mModificationCount++;
     }
-}
\ No newline at end of file
+}
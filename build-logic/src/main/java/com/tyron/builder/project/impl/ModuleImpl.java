@@ -6,6 +6,7 @@ import com.tyron.builder.model.ModuleSettings;
 import com.tyron.builder.project.api.FileManager;
 import com.tyron.builder.project.api.Module;
 import com.tyron.common.util.Cache;
+import com.tyron.common.util.PersistentCache;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.kotlin.com.intellij.openapi.util.Key;
@@ -148,18 +149,32 @@ public class ModuleImpl implements Module {
     private final Map<CacheKey<?, ?>, Cache<?, ?>> mCacheMap = new HashMap<>();
 
     @Override
-    public <K, V> Cache<K, V> getCache(CacheKey<K, V> key, Cache<K, V> defaultValue) {
+    public synchronized <K, V> Cache<K, V> getCache(CacheKey<K, V> key, Cache<K, V> defaultValue) {
         Object o = mCacheMap.get(key);
         if (o == null) {
-            put(key, defaultValue);
-            return defaultValue;
+            Cache<K, V> cache = defaultValue;
+            if (key.isPersistent()) {
+                cache = new PersistentCache<>(new File(getBuildDirectory(),
+                        "intermediate/caches/" + key.getName() + ".bin"));
+            }
+            put(key, cache);
+            return cache;
         }
         //noinspection unchecked
         return (Cache<K, V>) o;
     }
 
     @Override
-    public <K, V> void put(CacheKey<K, V> key, Cache<K, V> value) {
+    public synchronized <K, V> void put(CacheKey<K, V> key, Cache<K, V> value) {
         mCacheMap.put(key, value);
     }
+
+    @Override
+    public synchronized void saveCaches() throws IOException {
+        for (Cache<?, ?> cache : mCacheMap.values()) {
+            if (cache instanceof PersistentCache) {
+                ((PersistentCache<?, ?>) cache).save();
+            }
+        }
+    }
 }
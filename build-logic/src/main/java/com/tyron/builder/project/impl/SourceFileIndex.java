@@ -0,0 +1,112 @@
+package com.tyron.builder.project.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps track of the source files with a given extension inside a set of directories.
+ *
+ * Each update walks the directories and compares the last modified time and length of every
+ * file to the previous snapshot, only the files that were added or changed since then are
+ * read to get their class name.
+ */
+class SourceFileIndex {
+
+    private static class Snapshot {
+        private final long lastModified;
+        private final long length;
+        private final String className;
+
+        private Snapshot(long lastModified, long length, String className) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.className = className;
+        }
+    }
+
+    private final String mExtension;
+    private final Function<File, String> mClassNameFunction;
+    private Map<File, Snapshot> mSnapshots = new HashMap<>();
+
+    /**
+     * @param extension the extension of the source files, e.g. {@code .java}
+     * @param classNameFunction returns the fully qualified name of the class declared
+     *                          in the given file
+     */
+    SourceFileIndex(String extension, Function<File, String> classNameFunction) {
+        mExtension = extension;
+        mClassNameFunction = classNameFunction;
+    }
+
+    /**
+     * Updates the given map of fully qualified class names to the files declaring them,
+     * removing the files that no longer exist and adding the ones that were created or
+     * modified since the last update. Files that were put in the map without being indexed
+     * are removed once they no longer exist.
+     *
+     * @return whether any file was added, modified or removed
+     */
+    boolean update(List<File> directories, Map<String, File> classes) {
+        boolean changed = false;
+        Map<File, Snapshot> snapshots = new HashMap<>();
+        for (File directory : directories) {
+            if (!directory.exists()) {
+                continue;
+            }
+            Iterator<File> files = FileUtils.iterateFiles(directory,
+                    FileFilterUtils.suffixFileFilter(mExtension), TrueFileFilter.INSTANCE);
+            while (files.hasNext()) {
+                File file = files.next();
+                long lastModified = file.lastModified();
+                long length = file.length();
+
+                Snapshot snapshot = mSnapshots.get(file);
+                if (snapshot == null || snapshot.lastModified != lastModified
+                        || snapshot.length != length) {
+                    String className = mClassNameFunction.apply(file);
+                    if (snapshot != null && !snapshot.className.equals(className)) {
+                        classes.remove(snapshot.className, file);
+                    }
+                    snapshot = new Snapshot(lastModified, length, className);
+                    changed = true;
+                }
+                snapshots.put(file, snapshot);
+                classes.put(snapshot.className, file);
+            }
+        }
+
+        for (Map.Entry<File, Snapshot> entry : mSnapshots.entrySet()) {
+            if (!snapshots.containsKey(entry.getKey())) {
+                classes.remove(entry.getValue().className, entry.getKey());
+                changed = true;
+            }
+        }
+        // files put in the map directly, e.g. created from the editor, may have been
+        // deleted before they were ever part of a snapshot
+        Iterator<File> registered = classes.values().iterator();
+        while (registered.hasNext()) {
+            File file = registered.next();
+            if (!snapshots.containsKey(file) && !file.exists()) {
+                registered.remove();
+                changed = true;
+            }
+        }
+        mSnapshots = snapshots;
+        return changed;
+    }
+
+    /**
+     * Forgets the previous snapshot so the next update reads every file again
+     */
+    void clear() {
+        mSnapshots.clear();
+    }
+}
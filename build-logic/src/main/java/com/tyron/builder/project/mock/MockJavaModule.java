@@ -34,6 +34,7 @@ public class MockJavaModule extends ModuleImpl implements JavaModule {
     private final File mRootDir;
     private File mLambdaStubsJarFile;
     private File mBootstrapJarFile;
+    private int mModificationCount;
     public MockJavaModule(File rootDir, FileManager fileManager) {
         super(rootDir);
         mRootDir = rootDir;
@@ -54,6 +55,7 @@ public class MockJavaModule extends ModuleImpl implements JavaModule {
     @Override
     public void removeJavaFile(@NonNull String packageName) {
         mJavaFiles.remove(packageName);
+        mModificationCount++;
     }
 
     @Override
@@ -66,6 +68,7 @@ public class MockJavaModule extends ModuleImpl implements JavaModule {
             className = packageName + "." + javaFile.getName().replace(".java", "");
         }
         mJavaFiles.put(className, javaFile);
+        mModificationCount++;
     }
 
     @Override
@@ -83,6 +86,11 @@ public class MockJavaModule extends ModuleImpl implements JavaModule {
         return Collections.emptyList();
     }
 
+    @Override
+    public int getModificationCount() {
+        return mModificationCount;
+    }
+
     @NonNull
     @Override
     public File getResourcesDir() {
@@ -152,6 +160,7 @@ public class MockJavaModule extends ModuleImpl implements JavaModule {
     @Override
     public void clear() {
         mJavaFiles.clear();
+        mModificationCount++;
     }
 
     @Override
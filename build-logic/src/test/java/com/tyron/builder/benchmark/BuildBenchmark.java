@@ -0,0 +1,166 @@
+package com.tyron.builder.benchmark;
+
+import com.tyron.builder.compiler.AndroidAppBuilderTestBase;
+import com.tyron.builder.compiler.BuildCache;
+import com.tyron.builder.compiler.BuildType;
+import com.tyron.builder.compiler.CleanTask;
+import com.tyron.builder.compiler.Task;
+import com.tyron.builder.compiler.incremental.dex.IncrementalD8Task;
+import com.tyron.builder.compiler.incremental.java.IncrementalJavaTask;
+import com.tyron.builder.compiler.incremental.resource.IncrementalAapt2Task;
+import com.tyron.builder.compiler.manifest.ManifestMergeTask;
+import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
+import com.tyron.builder.log.ILogger;
+import com.tyron.builder.project.api.AndroidModule;
+import com.tyron.builder.project.mock.MockAndroidModule;
+import com.tyron.builder.project.mock.MockFileManager;
+import com.tyron.common.TestUtil;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the tasks of the debug build pipeline on the bundled TestProject.
+ *
+ * Each benchmark runs a single task, the tasks it depends on are run during the setup of
+ * the invocation so they are not part of the measurement. The scenarios are:
+ * <ul>
+ *     <li>cold: the build directory and every cache are deleted before the invocation</li>
+ *     <li>warm: nothing has changed since the previous build</li>
+ *     <li>change: a single java file is modified before the invocation</li>
+ * </ul>
+ *
+ * Run it with {@code ./gradlew :build-logic:benchmark}, the results are written to
+ * {@code build-logic/build/reports/jmh}. The gc profiler is enabled so the allocation rate
+ * of each task is reported along with its time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class BuildBenchmark {
+
+    private static final List<String> PIPELINE = Arrays.asList(
+            ManifestMergeTask.class.getSimpleName(),
+            IncrementalAapt2Task.class.getSimpleName(),
+            MergeSymbolsTask.class.getSimpleName(),
+            IncrementalJavaTask.class.getSimpleName(),
+            IncrementalD8Task.class.getSimpleName());
+
+    @Param({"ManifestMergeTask", "MergeSymbolsTask", "IncrementalJavaTask",
+            "IncrementalD8Task"})
+    public String task;
+
+    @Param({"cold", "warm", "change"})
+    public String scenario;
+
+    private File mProjectDir;
+    private File mMainActivity;
+    private String mMainActivityContents;
+    private MockAndroidModule mModule;
+    private int mChangeCount;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        File resourcesDir = TestUtil.getResourcesDirectory();
+        mProjectDir = Files.createTempDirectory("benchmark").toFile();
+        FileUtils.copyDirectory(new File(resourcesDir, "TestProject"), mProjectDir);
+        BuildCache.setDirectory(new File(mProjectDir, "build-cache"));
+
+        mModule = AndroidAppBuilderTestBase.createModule(resourcesDir, mProjectDir,
+                new MockFileManager(mProjectDir));
+
+        mMainActivity = new File(mModule.getJavaDirectory(), "com/tyron/test/MainActivity.java");
+        mMainActivityContents = FileUtils.readFileToString(mMainActivity,
+                StandardCharsets.UTF_8);
+        mModule.addJavaFile(mMainActivity);
+        mModule.open();
+
+        AndroidAppBuilderTestBase.setupTools(resourcesDir);
+
+        runTasks(PIPELINE);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws Exception {
+        switch (scenario) {
+            case "cold":
+                Task<AndroidModule> clean = new CleanTask(mModule, ILogger.EMPTY);
+                clean.prepare(BuildType.RELEASE);
+                clean.run();
+                FileUtils.deleteDirectory(BuildCache.getDirectory());
+                break;
+            case "change":
+                String contents = mMainActivityContents.replace("public class MainActivity "
+                        + "extends Activity {", "public class MainActivity extends Activity {\n"
+                        + "    public static final int CHANGE = " + (++mChangeCount) + ";\n");
+                FileUtils.writeStringToFile(mMainActivity, contents, StandardCharsets.UTF_8);
+                break;
+            case "warm":
+            default:
+                break;
+        }
+        runTasks(PIPELINE.subList(0, PIPELINE.indexOf(task)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(mProjectDir);
+    }
+
+    @Benchmark
+    public void runTask() throws Exception {
+        runTasks(Collections.singletonList(task));
+    }
+
+    private void runTasks(List<String> names) throws Exception {
+        List<Task<? super AndroidModule>> tasks = new ArrayList<>();
+        for (String name : names) {
+            tasks.add(createTask(name));
+        }
+        for (Task<? super AndroidModule> task : tasks) {
+            task.prepare(BuildType.DEBUG);
+            task.run();
+        }
+    }
+
+    private Task<? super AndroidModule> createTask(String name) {
+        switch (name) {
+            case "ManifestMergeTask":
+                return new ManifestMergeTask(mModule, ILogger.EMPTY);
+            case "IncrementalAapt2Task":
+                return new IncrementalAapt2Task(mModule, ILogger.EMPTY, false);
+            case "MergeSymbolsTask":
+                return new MergeSymbolsTask(mModule, ILogger.EMPTY);
+            case "IncrementalJavaTask":
+                return new IncrementalJavaTask(mModule, ILogger.EMPTY);
+            case "IncrementalD8Task":
+                return new IncrementalD8Task(mModule, ILogger.EMPTY);
+            default:
+                throw new IllegalArgumentException("Unknown task " + name);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.tyron.builder.compiler;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.tyron.builder.log.ILogger;
 
 import org.apache.commons.io.FileUtils;
@@ -10,6 +12,7 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 
 @RunWith(RobolectricTestRunner.class)
 public class AndroidAppBuilderTest extends AndroidAppBuilderTestBase {
@@ -26,6 +29,12 @@ public class AndroidAppBuilderTest extends AndroidAppBuilderTestBase {
         File signedApk = new File(mProject.getBuildDirectory(), "bin/signed.apk");
         assertThat(signedApk.exists()).isTrue();
 
+        assertThat(builder.getBuildTraceFile().exists()).isTrue();
+        JsonObject trace = JsonParser.parseString(FileUtils.readFileToString(
+                builder.getBuildTraceFile(), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertThat(trace.getAsJsonArray("traceEvents").size()).isGreaterThan(0);
+        assertThat(builder.getBuildTrace().getTasks()).hasSize(builder.getTasksRan().size());
+
         FileUtils.deleteQuietly(mProject.getBuildDirectory());
     }
 }
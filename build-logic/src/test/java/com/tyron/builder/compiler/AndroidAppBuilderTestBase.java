@@ -8,6 +8,7 @@ import com.tyron.common.TestUtil;
 import org.junit.Before;
 
 import java.io.File;
+import java.io.IOException;
 
 public class AndroidAppBuilderTestBase {
 
@@ -21,21 +22,38 @@ public class AndroidAppBuilderTestBase {
         File projectDir = new File(mResourcesDir, "TestProject");
 
         mFileManager = new MockFileManager(projectDir);
-        mProject = new MockAndroidModule(new File(projectDir, "app"), mFileManager);
-        mProject.setLambdaStubsJarFile(new File(mResourcesDir, "bootstraps/core-lambda-stubs.jar"));
-        mProject.setBootstrapFile(new File(mResourcesDir, "bootstraps/rt.jar"));
+        mProject = createModule(mResourcesDir, projectDir, mFileManager);
+        setupTools(mResourcesDir);
+    }
 
+    /**
+     * Creates the app module of a copy of the TestProject using the bootstrap jars of the
+     * test resources
+     */
+    public static MockAndroidModule createModule(File resourcesDir, File projectDir,
+                                                 MockFileManager fileManager) {
+        MockAndroidModule module = new MockAndroidModule(new File(projectDir, "app"), fileManager);
+        module.setLambdaStubsJarFile(new File(resourcesDir, "bootstraps/core-lambda-stubs.jar"));
+        module.setBootstrapFile(new File(resourcesDir, "bootstraps/rt.jar"));
+        return module;
+    }
 
+    /**
+     * Points the build at the aapt2 binary and the signing keys of the test resources
+     */
+    public static void setupTools(File resourcesDir) throws IOException {
         File aapt2;
         if (TestUtil.isWindows()) {
-            aapt2 = new File(mResourcesDir, "aapt2/aapt2.exe");
+            aapt2 = new File(resourcesDir, "aapt2/aapt2.exe");
         } else {
-            aapt2 = new File(mResourcesDir, "aapt2/libaapt2.so");
-            assert aapt2.setExecutable(true);
+            aapt2 = new File(resourcesDir, "aapt2/libaapt2.so");
+            if (!aapt2.setExecutable(true)) {
+                throw new IOException("Unable to make " + aapt2 + " executable");
+            }
         }
         IncrementalAapt2Task.setAapt2Binary(aapt2);
 
-        ApkSigner.setTestCertFile(new File(mResourcesDir, "apksigner/testkey.x509.pem"));
-        ApkSigner.setTestKeyFile(new File(mResourcesDir, "apksigner/testkey.pk8"));
+        ApkSigner.setTestCertFile(new File(resourcesDir, "apksigner/testkey.x509.pem"));
+        ApkSigner.setTestKeyFile(new File(resourcesDir, "apksigner/testkey.pk8"));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,116 @@
+package com.tyron.builder.compiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BuildCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws Exception {
+        BuildCache.setDirectory(mFolder.newFolder("cache"));
+    }
+
+    @Test
+    public void testStoreAndRestore() throws Exception {
+        File source = mFolder.newFile("library.zip");
+        FileUtils.writeStringToFile(source, "compiled", StandardCharsets.UTF_8);
+
+        File destination = new File(mFolder.getRoot(), "restored.zip");
+        assertThat(BuildCache.restore("test", "key", destination)).isFalse();
+
+        BuildCache.store("test", "key", source);
+        assertThat(BuildCache.restore("test", "key", destination)).isTrue();
+        assertThat(FileUtils.readFileToString(destination, StandardCharsets.UTF_8))
+                .isEqualTo("compiled");
+    }
+
+    @Test
+    public void testStoreAndRestoreFiles() throws Exception {
+        File first = mFolder.newFile("classes.dex");
+        File second = mFolder.newFile("classes2.dex");
+        FileUtils.writeStringToFile(first, "first", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(second, "second", StandardCharsets.UTF_8);
+
+        File destination = new File(mFolder.getRoot(), "library");
+        assertThat(BuildCache.restoreFiles("test", "key", destination)).isFalse();
+
+        BuildCache.storeFiles("test", "key", Arrays.asList(first, second));
+        assertThat(BuildCache.restoreFiles("test", "key", destination)).isTrue();
+        assertThat(FileUtils.readFileToString(new File(destination, "classes.dex"),
+                StandardCharsets.UTF_8)).isEqualTo("first");
+        assertThat(FileUtils.readFileToString(new File(destination, "classes2.dex"),
+                StandardCharsets.UTF_8)).isEqualTo("second");
+    }
+
+    @Test
+    public void testTrimDeletesLeastRecentlyUsed() throws Exception {
+        File source = mFolder.newFile("library.zip");
+        FileUtils.writeStringToFile(source, "0123456789", StandardCharsets.UTF_8);
+        long time = System.currentTimeMillis() - 60_000;
+        for (String key : Arrays.asList("first", "second", "third")) {
+            BuildCache.store("test", key, source);
+            assertThat(BuildCache.getEntry("test", key).setLastModified(time)).isTrue();
+            time += 10_000;
+        }
+
+        // restoring an entry makes it the most recently used
+        assertThat(BuildCache.restore("test", "first", new File(mFolder.getRoot(), "restored")))
+                .isTrue();
+        BuildCache.trim(30);
+        assertThat(BuildCache.getEntry("test", "second").exists()).isTrue();
+
+        BuildCache.trim(20);
+        assertThat(BuildCache.getEntry("test", "first").exists()).isTrue();
+        assertThat(BuildCache.getEntry("test", "second").exists()).isFalse();
+        assertThat(BuildCache.getEntry("test", "third").exists()).isTrue();
+    }
+
+    @Test
+    public void testTrimKeepsLinkedEntries() throws Exception {
+        File dex = mFolder.newFile("classes.dex");
+        FileUtils.writeStringToFile(dex, "dex", StandardCharsets.UTF_8);
+        BuildCache.storeFiles("test", "key", Collections.singletonList(dex));
+
+        File destination = new File(mFolder.getRoot(), "library");
+        assertThat(BuildCache.restoreFiles("test", "key", destination)).isTrue();
+        BuildCache.trim(0);
+        assertThat(BuildCache.getEntry("test", "key").isDirectory()).isTrue();
+
+        // once the build no longer links to the files, the entry can be deleted
+        FileUtils.deleteDirectory(destination);
+        BuildCache.trim(0);
+        assertThat(BuildCache.getEntry("test", "key").exists()).isFalse();
+    }
+
+    @Test
+    public void testDirectoryHashDependsOnContents() throws Exception {
+        File first = mFolder.newFolder("first", "values");
+        File second = mFolder.newFolder("second", "values");
+        FileUtils.writeStringToFile(new File(first, "strings.xml"), "<resources/>",
+                StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(second, "strings.xml"), "<resources/>",
+                StandardCharsets.UTF_8);
+
+        String firstHash = BuildCache.hashDirectory(first.getParentFile());
+        assertThat(BuildCache.hashDirectory(second.getParentFile())).isEqualTo(firstHash);
+        assertThat(BuildCache.hashDirectory(first.getParentFile(), "aapt2"))
+                .isNotEqualTo(firstHash);
+
+        FileUtils.writeStringToFile(new File(second, "strings.xml"), "<resources></resources>",
+                StandardCharsets.UTF_8);
+        assertThat(BuildCache.hashDirectory(second.getParentFile())).isNotEqualTo(firstHash);
+    }
+}
@@ -0,0 +1,31 @@
+package com.tyron.builder.compiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class BuildTraceTest {
+
+    @Test
+    public void testHeapSamplesAreBounded() {
+        BuildTrace trace = new BuildTrace();
+        long interval = 0;
+        for (int i = 0; i < BuildTrace.MAX_HEAP_SAMPLES; i++) {
+            interval = trace.addHeapSample(i, i == 10 ? 1000 : i % 2);
+        }
+        assertThat(trace.getHeapSamples().size()).isEqualTo(BuildTrace.MAX_HEAP_SAMPLES);
+
+        long downsampled = trace.addHeapSample(BuildTrace.MAX_HEAP_SAMPLES, 0);
+        assertThat(downsampled).isEqualTo(interval * 2);
+        List<long[]> samples = trace.getHeapSamples();
+        assertThat(samples.size()).isEqualTo(BuildTrace.MAX_HEAP_SAMPLES / 2 + 1);
+        // the peak is kept and the samples stay in order
+        assertThat(samples.get(5)[0]).isEqualTo(10);
+        assertThat(samples.get(5)[1]).isEqualTo(1000);
+        for (int i = 1; i < samples.size(); i++) {
+            assertThat(samples.get(i)[0]).isGreaterThan(samples.get(i - 1)[0]);
+        }
+    }
+}
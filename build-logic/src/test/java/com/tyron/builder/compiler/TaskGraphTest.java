@@ -0,0 +1,113 @@
+package com.tyron.builder.compiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.tyron.builder.exception.CompilationFailedException;
+import com.tyron.builder.log.ILogger;
+import com.tyron.builder.project.api.Module;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class TaskGraphTest {
+
+    @Test
+    public void testIndependentTasks() {
+        TaskGraph<Task<Module>> graph = new TaskGraph<>(Arrays.asList(
+                new FakeTask(files("src/main/AndroidManifest.xml"), files("build/bin/AndroidManifest.xml")),
+                new FakeTask(files("google-services.json"), files("src/main/res/values/secrets.xml"))
+        ));
+
+        assertThat(graph.getDependencies(0)).isEmpty();
+        assertThat(graph.getDependencies(1)).isEmpty();
+        assertThat(graph.getReadyTasks(Collections.emptySet(), Collections.emptySet()))
+                .containsExactly(0, 1);
+    }
+
+    @Test
+    public void testOutputInsideInputDirectory() {
+        TaskGraph<Task<Module>> graph = new TaskGraph<>(Arrays.asList(
+                new FakeTask(files("google-services.json"), files("src/main/res/values/secrets.xml")),
+                new FakeTask(files("src/main/res"), files("build/bin/res"))
+        ));
+
+        assertThat(graph.getDependencies(1)).containsExactly(0);
+        assertThat(graph.getReadyTasks(Collections.emptySet(), Collections.emptySet()))
+                .containsExactly(0);
+        assertThat(graph.getReadyTasks(Collections.singleton(0), Collections.singleton(0)))
+                .containsExactly(1);
+    }
+
+    @Test
+    public void testLaterTaskWritesToInput() {
+        TaskGraph<Task<Module>> graph = new TaskGraph<>(Arrays.asList(
+                new FakeTask(files("build/gen"), files("build/bin/java/classes")),
+                new FakeTask(files("build/bin/res/R.txt"), files("build/gen"))
+        ));
+
+        assertThat(graph.getDependencies(1)).containsExactly(0);
+    }
+
+    @Test
+    public void testUndeclaredTaskIsBarrier() {
+        TaskGraph<Task<Module>> graph = new TaskGraph<>(Arrays.asList(
+                new FakeTask(files("a"), files("b")),
+                new FakeTask(null, null),
+                new FakeTask(files("c"), files("d"))
+        ));
+
+        assertThat(graph.getDependencies(1)).containsExactly(0);
+        assertThat(graph.getDependencies(2)).containsExactly(1);
+    }
+
+    private static Set<File> files(String... paths) {
+        Set<File> files = new HashSet<>();
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        return files;
+    }
+
+    private static class FakeTask extends Task<Module> {
+
+        private final Set<File> mInputs;
+        private final Set<File> mOutputs;
+
+        public FakeTask(Set<File> inputs, Set<File> outputs) {
+            super(null, ILogger.EMPTY);
+            mInputs = inputs;
+            mOutputs = outputs;
+        }
+
+        @Override
+        public Set<File> getInputs() {
+            return mInputs;
+        }
+
+        @Override
+        public Set<File> getOutputs() {
+            return mOutputs;
+        }
+
+        @Override
+        public String getName() {
+            return "FakeTask";
+        }
+
+        @Override
+        public void prepare(BuildType type) throws IOException {
+
+        }
+
+        @Override
+        public void run() throws IOException, CompilationFailedException {
+
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.tyron.builder.compiler.apk;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.android.apksig.ApkVerifier;
+import com.tyron.builder.compiler.ApkSigner;
+import com.tyron.common.TestUtil;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+public class IncrementalApkSignerTest {
+
+    private static final int KB = 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Random mRandom = new Random(0);
+    private File mApk;
+
+    @Before
+    public void setup() throws Exception {
+        File resourcesDir = TestUtil.getResourcesDirectory();
+        ApkSigner.setTestCertFile(new File(resourcesDir, "apksigner/testkey.x509.pem"));
+        ApkSigner.setTestKeyFile(new File(resourcesDir, "apksigner/testkey.pk8"));
+        mApk = new File(mFolder.getRoot(), "generated.apk");
+    }
+
+    @Test
+    public void testUnchangedChunksAreReused() throws Exception {
+        File manifest = mFolder.newFile("AndroidManifest.xml");
+        FileUtils.writeByteArrayToFile(manifest, ZipPatcherTest.binaryManifest());
+        // random data doesn't compress, the apk is a little over 3 MB with the dex file
+        // starting in the third chunk
+        try (ZipPatcher patcher = new ZipPatcher(mApk)) {
+            patcher.addFile("AndroidManifest.xml", manifest);
+            patcher.addFile("res/a.bin", randomFile("a.bin", 1200 * KB));
+            patcher.addFile("res/b.bin", randomFile("b.bin", 1200 * KB));
+            patcher.addFile("classes.dex", randomFile("classes.dex", 800 * KB));
+            patcher.commit();
+            IncrementalApkSigner.onPatched(mApk, patcher.getChangedRanges());
+        }
+        assertVerified(sign("signed.apk"));
+        assertThat(IncrementalApkSigner.getCachedChunks(mApk)).isEqualTo(4);
+
+        try (ZipPatcher patcher = new ZipPatcher(mApk)) {
+            patcher.addFile("classes.dex", randomFile("classes2.dex", 800 * KB));
+            patcher.commit();
+            IncrementalApkSigner.onPatched(mApk, patcher.getChangedRanges());
+        }
+        // only the chunks before the dex file are kept
+        assertThat(IncrementalApkSigner.getCachedChunks(mApk)).isEqualTo(2);
+        File signed = sign("signed2.apk");
+        assertVerified(signed);
+
+        // the signature is the same as one computed without the cache
+        IncrementalApkSigner.onPatched(mApk, null);
+        assertThat(IncrementalApkSigner.getCachedChunks(mApk)).isEqualTo(0);
+        assertArrayEquals(FileUtils.readFileToByteArray(sign("signed3.apk")),
+                FileUtils.readFileToByteArray(signed));
+    }
+
+    @Test
+    public void testChangedFileIsDigestedAgain() throws Exception {
+        File manifest = mFolder.newFile("AndroidManifest.xml");
+        FileUtils.writeByteArrayToFile(manifest, ZipPatcherTest.binaryManifest());
+        try (ZipPatcher patcher = new ZipPatcher(mApk)) {
+            patcher.addFile("AndroidManifest.xml", manifest);
+            patcher.addFile("res/a.bin", randomFile("a.bin", 1200 * KB));
+            patcher.commit();
+        }
+        assertVerified(sign("signed.apk"));
+
+        // the patch is not reported to the signer, none of the digests can be trusted
+        try (ZipPatcher patcher = new ZipPatcher(mApk)) {
+            patcher.addFile("res/a.bin", randomFile("a2.bin", 1300 * KB));
+            patcher.commit();
+        }
+        assertVerified(sign("signed2.apk"));
+    }
+
+    private File sign(String name) throws Exception {
+        File signed = new File(mFolder.getRoot(), name);
+        ApkSigner signer = new ApkSigner(mApk.getAbsolutePath(), signed.getAbsolutePath(),
+                ApkSigner.Mode.TEST);
+        signer.setMinSdkVersion(24);
+        signer.sign();
+        return signed;
+    }
+
+    private static void assertVerified(File signed) throws Exception {
+        ApkVerifier.Result result = new ApkVerifier.Builder(signed)
+                .setMinCheckedPlatformVersion(24)
+                .build()
+                .verify();
+        assertThat(result.getErrors()).isEmpty();
+        assertThat(result.isVerified()).isTrue();
+        assertThat(result.isVerifiedUsingV2Scheme()).isTrue();
+    }
+
+    private File randomFile(String name, int size) throws Exception {
+        byte[] data = new byte[size];
+        mRandom.nextBytes(data);
+        File file = mFolder.newFile(name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file;
+    }
+}
@@ -0,0 +1,344 @@
+package com.tyron.builder.compiler.apk;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.apksig.ApkVerifier;
+import com.tyron.builder.compiler.ApkSigner;
+import com.tyron.common.TestUtil;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class ZipPatcherTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mZip;
+
+    @Before
+    public void setup() throws Exception {
+        File resourcesDir = TestUtil.getResourcesDirectory();
+        ApkSigner.setTestCertFile(new File(resourcesDir, "apksigner/testkey.x509.pem"));
+        ApkSigner.setTestKeyFile(new File(resourcesDir, "apksigner/testkey.pk8"));
+        mZip = new File(mFolder.getRoot(), "test.apk");
+    }
+
+    @Test
+    public void testAddEntries() throws Exception {
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.addFile("a.txt", newFile("a"));
+            patcher.addFile("dir/b.txt", newFile("b"));
+            patcher.commit();
+            assertThat(patcher.getWastedBytes()).isEqualTo(0);
+        }
+        assertContents(entries("a.txt", "a", "dir/b.txt", "b"));
+
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            assertThat(patcher.getEntries().keySet()).containsExactly("a.txt", "dir/b.txt");
+            patcher.addFile("c.txt", newFile("c"));
+            patcher.commit();
+        }
+        assertContents(entries("a.txt", "a", "dir/b.txt", "b", "c.txt", "c"));
+    }
+
+    @Test
+    public void testReplaceEntry() throws Exception {
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.addFile("a.txt", newFile("a"));
+            patcher.addFile("b.txt", newFile("b"));
+            patcher.addFile("c.txt", newFile("c"));
+            patcher.commit();
+        }
+
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.addFile("b.txt", newFile("replaced"));
+            patcher.commit();
+            // the old b.txt is a hole now
+            assertThat(patcher.getWastedBytes()).isGreaterThan(0);
+        }
+        assertContents(entries("a.txt", "a", "b.txt", "replaced", "c.txt", "c"));
+
+        // replacing the last entry doesn't leave a hole
+        long wasted;
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            wasted = patcher.getWastedBytes();
+            patcher.addFile("b.txt", newFile("replaced again"));
+            patcher.commit();
+            assertThat(patcher.getWastedBytes()).isEqualTo(wasted);
+        }
+        assertContents(entries("a.txt", "a", "b.txt", "replaced again", "c.txt", "c"));
+    }
+
+    @Test
+    public void testRemoveEntry() throws Exception {
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.addFile("a.txt", newFile("a"));
+            patcher.addFile("b.txt", newFile("b"));
+            patcher.addFile("c.txt", newFile("c"));
+            patcher.commit();
+        }
+
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.remove("a.txt");
+            patcher.remove("c.txt");
+            patcher.commit();
+        }
+        assertContents(entries("b.txt", "b"));
+    }
+
+    @Test
+    public void testCopyEntry() throws Exception {
+        File source = mFolder.newFile("source.zip");
+        writeStoredZip(source, entries("stored.txt", "stored", "empty", ""));
+
+        try (ZipPatcher.Source zip = new ZipPatcher.Source(source);
+             ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.addFile("a.txt", newFile("a"));
+            for (ZipPatcher.Entry entry : zip.getEntries().values()) {
+                patcher.addEntry(entry.getName(), zip, entry);
+            }
+            patcher.commit();
+        }
+        assertContents(entries("a.txt", "a", "stored.txt", "stored", "empty", ""));
+    }
+
+    @Test
+    public void testHolesOfEverySize() throws Exception {
+        List<Integer> holeSizes = new ArrayList<>();
+        // the smallest hole is a local header with a name of a single byte
+        for (int size = 31; size <= 80; size++) {
+            holeSizes.add(size);
+        }
+        // holes that need more than one virtual entry
+        int maxVirtualEntry = 30 + 0xffff;
+        for (int size = maxVirtualEntry - 2; size <= maxVirtualEntry + 70; size++) {
+            holeSizes.add(size);
+        }
+        holeSizes.add(2 * maxVirtualEntry + 31);
+
+        for (int holeSize : holeSizes) {
+            FileUtils.deleteQuietly(mZip);
+            File source = new File(mFolder.getRoot(), "holes.zip");
+            // a stored entry named "x" takes 31 bytes plus its contents
+            char[] contents = new char[holeSize - 31];
+            Arrays.fill(contents, 'h');
+            writeStoredZip(source, entries("first", "1", "x", new String(contents),
+                    "last", "2"));
+
+            try (ZipPatcher.Source zip = new ZipPatcher.Source(source);
+                 ZipPatcher patcher = new ZipPatcher(mZip)) {
+                for (ZipPatcher.Entry entry : zip.getEntries().values()) {
+                    patcher.addEntry(entry.getName(), zip, entry);
+                }
+                patcher.commit();
+            }
+            try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+                patcher.remove("x");
+                patcher.commit();
+                assertThat(patcher.getWastedBytes()).isEqualTo(holeSize);
+            }
+
+            assertLocalHeaders();
+            assertContents(entries("first", "1", "last", "2"));
+        }
+    }
+
+    @Test
+    public void testFailedCommitInvalidatesFile() throws Exception {
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.addFile("a.txt", newFile("a"));
+            patcher.addFile("b.txt", newFile("b"));
+            patcher.commit();
+        }
+
+        try (ZipPatcher patcher = new ZipPatcher(mZip)) {
+            patcher.remove("a.txt");
+            // fails after the hole of a.txt has been filled, the old central directory
+            // is still intact and would point to the overwritten entry
+            patcher.addFile("c.txt", new File(mFolder.getRoot(), "missing"));
+            try {
+                patcher.commit();
+                fail("Expected the commit to fail");
+            } catch (IOException expected) {
+                // the file to add doesn't exist
+            }
+        }
+
+        try {
+            new ZipPatcher(mZip).close();
+            fail("Expected the interrupted zip to be rejected");
+        } catch (ZipException expected) {
+            // no end of central directory
+        }
+        try {
+            new ZipFile(mZip).close();
+            fail("Expected the interrupted zip to be rejected");
+        } catch (ZipException expected) {
+            // no end of central directory
+        }
+    }
+
+    /**
+     * Reads the zip with {@link ZipFile} and {@link ZipInputStream}, and signs and verifies
+     * it with apksig which checks the local headers against the central directory
+     */
+    private void assertContents(Map<String, String> expected) throws Exception {
+        Map<String, String> contents = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(mZip)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    contents.put(entry.getName(), IOUtils.toString(in, StandardCharsets.UTF_8));
+                }
+            }
+        }
+        assertThat(contents).containsExactlyEntriesIn(expected);
+
+        // virtual entries are seen by sequential readers, but they must be readable
+        Map<String, String> sequential = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(mZip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String data = IOUtils.toString(in, StandardCharsets.UTF_8);
+                if (expected.containsKey(entry.getName())) {
+                    sequential.put(entry.getName(), data);
+                } else {
+                    assertThat(data).isEmpty();
+                }
+            }
+        }
+        assertThat(sequential).containsExactlyEntriesIn(expected);
+
+        // apksig needs a manifest, it is added to a copy so the holes of the zip are kept
+        File apk = new File(mFolder.getRoot(), "manifest.apk");
+        FileUtils.copyFile(mZip, apk);
+        File manifest = mFolder.newFile();
+        FileUtils.writeByteArrayToFile(manifest, binaryManifest());
+        try (ZipPatcher patcher = new ZipPatcher(apk)) {
+            patcher.addFile("AndroidManifest.xml", manifest);
+            patcher.commit();
+        }
+
+        File signed = new File(mFolder.getRoot(), "signed.apk");
+        ApkSigner signer = new ApkSigner(apk.getAbsolutePath(), signed.getAbsolutePath(),
+                ApkSigner.Mode.TEST);
+        signer.setMinSdkVersion(21);
+        signer.sign();
+        ApkVerifier.Result result = new ApkVerifier.Builder(signed)
+                .setMinCheckedPlatformVersion(21)
+                .build()
+                .verify();
+        assertThat(result.getErrors()).isEmpty();
+        assertThat(result.isVerified()).isTrue();
+    }
+
+    /**
+     * Walks the local headers up to the central directory, every extra field must be empty
+     * or start with a complete extra field header
+     */
+    private void assertLocalHeaders() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(mZip.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        while (buffer.getInt(position) == 0x04034b50) {
+            int compressedSize = buffer.getInt(position + 18);
+            int nameLength = buffer.getShort(position + 26) & 0xffff;
+            int extraLength = buffer.getShort(position + 28) & 0xffff;
+            assertThat(extraLength == 0 || extraLength >= 4).isTrue();
+            if (extraLength > 0) {
+                int fieldSize = buffer.getShort(position + 30 + nameLength + 2) & 0xffff;
+                assertThat(fieldSize).isEqualTo(extraLength - 4);
+            }
+            position += 30 + nameLength + extraLength + compressedSize;
+        }
+        assertThat(buffer.getInt(position)).isEqualTo(0x02014b50);
+    }
+
+    /**
+     * @return a compiled manifest with nothing but an empty manifest element
+     */
+    static byte[] binaryManifest() {
+        ByteBuffer buffer = ByteBuffer.allocate(112).order(ByteOrder.LITTLE_ENDIAN);
+        // xml chunk
+        buffer.putShort((short) 0x0003).putShort((short) 8).putInt(112);
+        // string pool with the utf-8 string "manifest"
+        buffer.putShort((short) 0x0001).putShort((short) 28).putInt(44);
+        buffer.putInt(1).putInt(0).putInt(1 << 8).putInt(32).putInt(0);
+        buffer.putInt(0);
+        buffer.put((byte) 8).put((byte) 8).put("manifest".getBytes(StandardCharsets.UTF_8));
+        buffer.put((byte) 0).put((byte) 0);
+        // start of the manifest element without attributes
+        buffer.putShort((short) 0x0102).putShort((short) 16).putInt(36);
+        buffer.putInt(1).putInt(-1);
+        buffer.putInt(-1).putInt(0).putShort((short) 20).putShort((short) 20);
+        buffer.putShort((short) 0).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 0);
+        // end of the manifest element
+        buffer.putShort((short) 0x0103).putShort((short) 16).putInt(24);
+        buffer.putInt(1).putInt(-1);
+        buffer.putInt(-1).putInt(0);
+        return buffer.array();
+    }
+
+    private File newFile(String contents) throws IOException {
+        File file = mFolder.newFile();
+        FileUtils.writeStringToFile(file, contents, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static void writeStoredZip(File file, Map<String, String> entries)
+            throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                byte[] data = entry.getValue().getBytes(StandardCharsets.UTF_8);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(data.length);
+                zipEntry.setCrc(crc.getValue());
+                out.putNextEntry(zipEntry);
+                out.write(data);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static Map<String, String> entries(String... namesAndContents) {
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            entries.put(namesAndContents[i], namesAndContents[i + 1]);
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+}
@@ -0,0 +1,134 @@
+package com.tyron.builder.compiler.incremental.java;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.tyron.builder.compiler.BuildType;
+import com.tyron.builder.log.ILogger;
+import com.tyron.builder.project.mock.MockFileManager;
+import com.tyron.builder.project.mock.MockJavaModule;
+import com.tyron.common.TestUtil;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class IncrementalJavaTaskTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MockJavaModule mModule;
+    private File mA;
+    private File mB;
+    private File mC;
+    private File mD;
+    private File mE;
+
+    @Before
+    public void setup() throws Exception {
+        File resourcesDir = TestUtil.getResourcesDirectory();
+        File root = mFolder.newFolder("project");
+        mModule = new MockJavaModule(root, new MockFileManager(root));
+        mModule.setLambdaStubsJarFile(new File(resourcesDir, "bootstraps/core-lambda-stubs.jar"));
+        mModule.setBootstrapFile(new File(resourcesDir, "bootstraps/rt.jar"));
+
+        mA = write("A", "public class A {\n"
+                + "    public static final int CONSTANT = 1;\n"
+                + "    public int value() { return 1; }\n"
+                + "    private int secret() { return 1; }\n"
+                + "    public class Inner {}\n"
+                + "}");
+        mB = write("B", "public class B extends A {}");
+        mC = write("C", "public class C extends B {\n"
+                + "    Runnable mRunnable = new Runnable() { public void run() {} };\n"
+                + "}");
+        mD = write("D", "public class D { public int value() { return 1; } }");
+        mE = write("E", "public class E { int use() { return new D().value(); } }");
+    }
+
+    @Test
+    public void testUnchangedBuildCompilesNothing() throws Exception {
+        assertThat(build()).containsExactly(mA, mB, mC, mD, mE);
+        assertThat(classFile("A$Inner").exists()).isTrue();
+        assertThat(classFile("C$1").exists()).isTrue();
+
+        assertThat(build()).isEmpty();
+        assertThat(classFile("A$Inner").exists()).isTrue();
+        assertThat(classFile("C$1").exists()).isTrue();
+    }
+
+    @Test
+    public void testBodyChangeRecompilesOnlyTheFile() throws Exception {
+        build();
+
+        modify(mA, "return 1; }\n    private", "return 2; }\n    private");
+        assertThat(build()).containsExactly(mA);
+
+        modify(mA, "private int secret()", "private long secret()");
+        assertThat(build()).containsExactly(mA);
+    }
+
+    @Test
+    public void testSignatureChangeRecompilesDependents() throws Exception {
+        build();
+
+        // C only depends on A through B
+        modify(mA, "public int value()", "public long value()");
+        assertThat(build()).containsExactly(mA, mB, mC);
+
+        modify(mD, "public int value() { return 1; }", "public int value() { return 2; }");
+        assertThat(build()).containsExactly(mD);
+
+        modify(mA, "CONSTANT = 1", "CONSTANT = 2");
+        assertThat(build()).containsExactly(mA, mB, mC);
+    }
+
+    @Test
+    public void testRemovedNestedClassIsDeleted() throws Exception {
+        build();
+        assertThat(classFile("A$Inner").exists()).isTrue();
+
+        modify(mA, "    public class Inner {}\n", "");
+        assertThat(build()).containsExactly(mA, mB, mC);
+        assertThat(classFile("A").exists()).isTrue();
+        assertThat(classFile("A$Inner").exists()).isFalse();
+    }
+
+    private List<File> build() throws Exception {
+        IncrementalJavaTask task = new IncrementalJavaTask(mModule, ILogger.EMPTY);
+        task.prepare(BuildType.DEBUG);
+        task.run();
+        return task.getCompiledFiles();
+    }
+
+    private File write(String name, String contents) throws Exception {
+        File file = new File(mModule.getJavaDirectory(), "test/" + name + ".java");
+        FileUtils.writeStringToFile(file, "package test;\n" + contents,
+                StandardCharsets.UTF_8);
+        mModule.addJavaFile(file);
+        return file;
+    }
+
+    private void modify(File file, String target, String replacement) throws Exception {
+        String contents = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+        assertThat(contents).contains(target);
+        long lastModified = file.lastModified();
+        FileUtils.writeStringToFile(file, contents.replace(target, replacement),
+                StandardCharsets.UTF_8);
+        // make sure the change is visible even on file systems with a coarse timestamp
+        assertThat(file.setLastModified(lastModified + 2000)).isTrue();
+    }
+
+    private File classFile(String name) {
+        return new File(mModule.getBuildDirectory(), "bin/java/classes/test/" + name + ".class");
+    }
+}
@@ -0,0 +1,171 @@
+package com.tyron.builder.compiler.log;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.tyron.builder.exception.CompilationFailedException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transforms generated application classes, the android classes are needed to verify the
+ * types of the transformed methods
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LoggerTransformTaskTest {
+
+    private static final String CLASS_NAME = "com/example/MyApplication";
+    private static final String SUPER_NAME = "android/app/Application";
+    private static final String LOGGER_OWNER = InjectLoggerTask.LOGGER_CLASS.replace('.', '/');
+
+    private static final String SUPER_ON_CREATE = "INVOKESPECIAL " + SUPER_NAME + ".onCreate()V";
+    private static final String INITIALIZE = "INVOKESTATIC " + LOGGER_OWNER
+            + ".initialize(Landroid/content/Context;)V";
+
+    @Test
+    public void testOnCreateCallingSuper() throws Exception {
+        byte[] transformed = LoggerTransformTask.transform(generate(true, true, false));
+        assertThat(transformed).isNotNull();
+        verify(transformed);
+
+        // the logger is initialized right after the super call, before the rest of the method
+        assertThat(getCalls(transformed)).containsExactly(SUPER_ON_CREATE, INITIALIZE,
+                "INVOKEVIRTUAL java/lang/Object.hashCode()I").inOrder();
+    }
+
+    @Test
+    public void testClassWithoutOnCreate() throws Exception {
+        byte[] transformed = LoggerTransformTask.transform(generate(false, false, false));
+        assertThat(transformed).isNotNull();
+        verify(transformed);
+
+        assertThat(getCalls(transformed)).containsExactly(SUPER_ON_CREATE, INITIALIZE).inOrder();
+        MethodNode onCreate = getOnCreate(transformed);
+        assertThat(onCreate.access).isEqualTo(Opcodes.ACC_PUBLIC);
+    }
+
+    @Test
+    public void testAlreadyInjected() throws Exception {
+        byte[] transformed = LoggerTransformTask.transform(generate(true, true, false));
+        assertThat(LoggerTransformTask.transform(transformed)).isNull();
+
+        transformed = LoggerTransformTask.transform(generate(false, false, false));
+        assertThat(LoggerTransformTask.transform(transformed)).isNull();
+
+        assertThat(LoggerTransformTask.transform(generate(true, true, true))).isNull();
+    }
+
+    @Test
+    public void testOnCreateWithoutSuperCall() throws Exception {
+        try {
+            LoggerTransformTask.transform(generate(true, false, false));
+            fail("Expected an onCreate without a super call to be rejected");
+        } catch (CompilationFailedException expected) {
+            // the logger can't be initialized after the super call
+        }
+    }
+
+    /**
+     * Generates an application class with a constructor and optionally an onCreate method,
+     * which branches after the super call so the class has stack map frames
+     */
+    private static byte[] generate(boolean hasOnCreate, boolean callsSuper,
+                                   boolean initializesLogger) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, CLASS_NAME, null,
+                SUPER_NAME, null);
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V",
+                null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPER_NAME, "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        if (hasOnCreate) {
+            MethodVisitor onCreate = writer.visitMethod(Opcodes.ACC_PUBLIC, "onCreate", "()V",
+                    null, null);
+            onCreate.visitCode();
+            if (callsSuper) {
+                onCreate.visitVarInsn(Opcodes.ALOAD, 0);
+                onCreate.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPER_NAME, "onCreate", "()V",
+                        false);
+            }
+            if (initializesLogger) {
+                onCreate.visitVarInsn(Opcodes.ALOAD, 0);
+                onCreate.visitMethodInsn(Opcodes.INVOKESTATIC, LOGGER_OWNER, "initialize",
+                        "(Landroid/content/Context;)V", false);
+            }
+            Label end = new Label();
+            onCreate.visitVarInsn(Opcodes.ALOAD, 0);
+            onCreate.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "hashCode",
+                    "()I", false);
+            onCreate.visitJumpInsn(Opcodes.IFEQ, end);
+            onCreate.visitInsn(Opcodes.NOP);
+            onCreate.visitLabel(end);
+            onCreate.visitInsn(Opcodes.RETURN);
+            onCreate.visitMaxs(0, 0);
+            onCreate.visitEnd();
+        }
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void verify(byte[] classBytes) {
+        StringWriter errors = new StringWriter();
+        CheckClassAdapter.verify(new ClassReader(classBytes),
+                LoggerTransformTaskTest.class.getClassLoader(), false, new PrintWriter(errors));
+        assertThat(errors.toString()).isEmpty();
+    }
+
+    private static MethodNode getOnCreate(byte[] classBytes) {
+        ClassNode node = new ClassNode();
+        new ClassReader(classBytes).accept(node, 0);
+        MethodNode onCreate = null;
+        for (MethodNode method : node.methods) {
+            if ("onCreate".equals(method.name) && "()V".equals(method.desc)) {
+                assertThat(onCreate).isNull();
+                onCreate = method;
+            }
+        }
+        assertThat(onCreate).isNotNull();
+        return onCreate;
+    }
+
+    /**
+     * @return the method calls of the onCreate method in order
+     */
+    private static List<String> getCalls(byte[] classBytes) {
+        List<String> calls = new ArrayList<>();
+        for (AbstractInsnNode instruction : getOnCreate(classBytes).instructions) {
+            if (instruction instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) instruction;
+                String opcode = call.getOpcode() == Opcodes.INVOKESPECIAL ? "INVOKESPECIAL"
+                        : call.getOpcode() == Opcodes.INVOKESTATIC ? "INVOKESTATIC"
+                        : "INVOKEVIRTUAL";
+                calls.add(opcode + " " + call.owner + "." + call.name + call.desc);
+            }
+        }
+        return calls;
+    }
+}
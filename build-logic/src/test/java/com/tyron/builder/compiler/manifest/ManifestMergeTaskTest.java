@@ -0,0 +1,97 @@
+package com.tyron.builder.compiler.manifest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.tyron.builder.compiler.BuildCache;
+import com.tyron.builder.compiler.BuildType;
+import com.tyron.builder.compiler.log.InjectLoggerTask;
+import com.tyron.builder.log.ILogger;
+import com.tyron.builder.project.mock.MockAndroidModule;
+import com.tyron.builder.project.mock.MockFileManager;
+import com.tyron.common.TestUtil;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(RobolectricTestRunner.class)
+public class ManifestMergeTaskTest {
+
+    private static final String INJECTED_APPLICATION =
+            "com.tyron.builder.injected.LoggerApplication";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MockAndroidModule mModule;
+    private File mOutput;
+
+    @Before
+    public void setup() throws Exception {
+        File resourcesDir = TestUtil.getResourcesDirectory();
+        File projectDir = mFolder.newFolder("project");
+        FileUtils.copyDirectory(new File(resourcesDir, "TestProject"), projectDir);
+        BuildCache.setDirectory(mFolder.newFolder("build-cache"));
+
+        mModule = new MockAndroidModule(new File(projectDir, "app"),
+                new MockFileManager(projectDir));
+        mModule.setLambdaStubsJarFile(new File(resourcesDir, "bootstraps/core-lambda-stubs.jar"));
+        mModule.setBootstrapFile(new File(resourcesDir, "bootstraps/rt.jar"));
+        mModule.open();
+
+        mOutput = new File(mModule.getBuildDirectory(), "bin/AndroidManifest.xml");
+    }
+
+    @Test
+    public void testSecondDebugBuildSkipsMerge() throws Exception {
+        assertThat(merge().isUpToDate()).isFalse();
+        assertThat(readOutput()).doesNotContain(INJECTED_APPLICATION);
+
+        injectLogger();
+        assertThat(readOutput()).contains(INJECTED_APPLICATION);
+
+        // the application class injected by the previous build must not invalidate the merge
+        assertThat(merge().isUpToDate()).isTrue();
+        assertThat(readOutput()).doesNotContain(INJECTED_APPLICATION);
+
+        injectLogger();
+        assertThat(merge().isUpToDate()).isTrue();
+    }
+
+    @Test
+    public void testChangedManifestIsMergedAgain() throws Exception {
+        assertThat(merge().isUpToDate()).isFalse();
+
+        File manifest = mModule.getManifestFile();
+        String contents = FileUtils.readFileToString(manifest, StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(manifest, contents.replace("android:allowBackup=\"true\"",
+                "android:allowBackup=\"false\""), StandardCharsets.UTF_8);
+
+        assertThat(merge().isUpToDate()).isFalse();
+        assertThat(readOutput()).contains("android:allowBackup=\"false\"");
+    }
+
+    private ManifestMergeTask merge() throws Exception {
+        ManifestMergeTask task = new ManifestMergeTask(mModule, ILogger.EMPTY);
+        task.prepare(BuildType.DEBUG);
+        task.run();
+        return task;
+    }
+
+    private void injectLogger() throws Exception {
+        InjectLoggerTask task = new InjectLoggerTask(mModule, ILogger.EMPTY);
+        task.prepare(BuildType.DEBUG);
+        task.run();
+    }
+
+    private String readOutput() throws Exception {
+        return FileUtils.readFileToString(mOutput, StandardCharsets.UTF_8);
+    }
+}
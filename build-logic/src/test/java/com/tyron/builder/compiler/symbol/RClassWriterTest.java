@@ -0,0 +1,252 @@
+package com.tyron.builder.compiler.symbol;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+
+import com.tyron.builder.log.ILogger;
+import com.tyron.common.TestUtil;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openjdk.javax.tools.JavaFileObject;
+import org.openjdk.javax.tools.SimpleJavaFileObject;
+import org.openjdk.javax.tools.StandardJavaFileManager;
+import org.openjdk.javax.tools.StandardLocation;
+import org.openjdk.tools.javac.api.JavacTool;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Writes the R classes of a library to a jar and checks the classes that the JVM loads
+ * from it, along with classes compiled against it.
+ */
+public class RClassWriterTest {
+
+    private static final String PACKAGE_NAME = "com.example.library";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testFieldValues() throws Exception {
+        // the values of the library are replaced with the values of the full symbol table
+        File values = writeSymbols("R.txt",
+                "int attr colorAccent 0x7f010000",
+                "int attr colorPrimary 0x7f010001",
+                "int id button 0x7f080001",
+                "int id text 0x7f080002",
+                "int id unused 0x7f080003",
+                "int string app_name 0x7f0f0001",
+                "int string negative 0xffffffff",
+                "int[] styleable MyView { 0x7f010000, 0x0101000e, 0x7f010001 }",
+                "int styleable MyView_android_enabled 1",
+                "int styleable MyView_colorAccent 0",
+                "int styleable MyView_colorPrimary 2",
+                "int[] styleable Empty {  }");
+        File library = writeSymbols("library/R.txt",
+                "int attr colorAccent 0x7f020000",
+                "int attr colorPrimary 0x7f020001",
+                "int id button 0x7f090001",
+                "int id text 0x7f090002",
+                "int string app_name 0x7f100001",
+                "int string negative 0x7f100002",
+                "int[] styleable MyView { 0x7f020000, 0x0101000e, 0x7f020001 }",
+                "int styleable MyView_android_enabled 1",
+                "int styleable MyView_colorAccent 0",
+                "int styleable MyView_colorPrimary 2",
+                "int[] styleable Empty { }");
+
+        try (URLClassLoader loader = load(writeJar("R.jar", values, library))) {
+            Class<?> r = loader.loadClass(PACKAGE_NAME + ".R");
+            assertThat(Modifier.isPublic(r.getModifiers())).isTrue();
+            assertThat(Modifier.isFinal(r.getModifiers())).isTrue();
+            List<String> innerClasses = new ArrayList<>();
+            for (Class<?> innerClass : r.getDeclaredClasses()) {
+                innerClasses.add(innerClass.getSimpleName());
+            }
+            assertThat(innerClasses).containsExactly("attr", "id", "string", "styleable");
+
+            Class<?> id = loader.loadClass(PACKAGE_NAME + ".R$id");
+            assertThat(id.getDeclaringClass()).isSameInstanceAs(r);
+            assertThat(Modifier.isStatic(id.getModifiers())).isTrue();
+            assertThat(intField(id, "button")).isEqualTo(0x7f080001);
+            assertThat(intField(id, "text")).isEqualTo(0x7f080002);
+            // only the symbols of the library are written
+            assertThat(fieldNames(id)).containsExactly("button", "text");
+
+            Class<?> attr = loader.loadClass(PACKAGE_NAME + ".R$attr");
+            assertThat(intField(attr, "colorAccent")).isEqualTo(0x7f010000);
+            assertThat(intField(attr, "colorPrimary")).isEqualTo(0x7f010001);
+
+            Class<?> string = loader.loadClass(PACKAGE_NAME + ".R$string");
+            assertThat(intField(string, "app_name")).isEqualTo(0x7f0f0001);
+            assertThat(intField(string, "negative")).isEqualTo(-1);
+
+            Class<?> styleable = loader.loadClass(PACKAGE_NAME + ".R$styleable");
+            assertArrayEquals(new int[]{0x7f010000, 0x0101000e, 0x7f010001},
+                    intArrayField(styleable, "MyView"));
+            assertArrayEquals(new int[0], intArrayField(styleable, "Empty"));
+            assertThat(intField(styleable, "MyView_android_enabled")).isEqualTo(1);
+            assertThat(intField(styleable, "MyView_colorAccent")).isEqualTo(0);
+            assertThat(intField(styleable, "MyView_colorPrimary")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testLargeStyleable() throws Exception {
+        // the elements need every kind of constant instruction, including the constant pool
+        int[] expected = new int[1000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i % 2 == 0 ? 0x7f010000 + i : -i;
+        }
+        expected[1] = Short.MIN_VALUE;
+        expected[3] = Short.MAX_VALUE + 1;
+        expected[5] = Integer.MIN_VALUE;
+        StringBuilder array = new StringBuilder("int[] styleable Large { ");
+        for (int i = 0; i < expected.length; i++) {
+            if (i > 0) {
+                array.append(", ");
+            }
+            array.append("0x").append(Integer.toHexString(expected[i]));
+        }
+        array.append(" }");
+        File values = writeSymbols("R.txt", array.toString());
+
+        try (URLClassLoader loader = load(writeJar("R.jar", values, values))) {
+            Class<?> styleable = loader.loadClass(PACKAGE_NAME + ".R$styleable");
+            int[] actual = intArrayField(styleable, "Large");
+            assertArrayEquals(expected, actual);
+            // every access sees the same array
+            assertThat(intArrayField(styleable, "Large")).isSameInstanceAs(actual);
+        }
+    }
+
+    @Test
+    public void testAddedResourceIsSeenWithoutRecompiling() throws Exception {
+        File library = writeSymbols("library/R.txt",
+                "int id button 0x7f090001",
+                "int[] styleable MyView { 0x7f020000 }");
+        File values = writeSymbols("R.txt",
+                "int id button 0x7f080001",
+                "int[] styleable MyView { 0x7f010000 }");
+        File oldJar = writeJar("old/R.jar", values, library);
+
+        File classes = mFolder.newFolder("classes");
+        compile(classes, oldJar, "package com.example.app;\n"
+                + "public class Uses {\n"
+                + "    public static int button() {\n"
+                + "        return com.example.library.R.id.button;\n"
+                + "    }\n"
+                + "    public static int attr() {\n"
+                + "        return com.example.library.R.styleable.MyView[0];\n"
+                + "    }\n"
+                + "}\n");
+
+        // adding a resource of the app shifts the ids, the class using them isn't compiled again
+        values = writeSymbols("R.txt",
+                "int id added 0x7f080001",
+                "int id button 0x7f080002",
+                "int[] styleable MyView { 0x7f010001 }");
+        File newJar = writeJar("new/R.jar", values, library);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL(),
+                newJar.toURI().toURL()}, null)) {
+            Class<?> uses = loader.loadClass("com.example.app.Uses");
+            assertThat(uses.getMethod("button").invoke(null)).isEqualTo(0x7f080002);
+            assertThat(uses.getMethod("attr").invoke(null)).isEqualTo(0x7f010001);
+        }
+    }
+
+    private static void compile(File output, File rJar, String source) throws Exception {
+        File resourcesDir = TestUtil.getResourcesDirectory();
+        JavacTool tool = JavacTool.create();
+        StandardJavaFileManager fileManager = tool.getStandardFileManager(null, null,
+                StandardCharsets.UTF_8);
+        fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH,
+                Collections.singletonList(new File(resourcesDir, "bootstraps/rt.jar")));
+        fileManager.setLocation(StandardLocation.CLASS_PATH, Collections.singletonList(rJar));
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(output));
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("file:///Uses.java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        Boolean success = tool.getTask(null, fileManager, null,
+                Arrays.asList("-source", "8", "-target", "8"), null,
+                Collections.singletonList(file)).call();
+        assertThat(success).isTrue();
+    }
+
+    private File writeSymbols(String name, String... lines) throws Exception {
+        File file = new File(mFolder.getRoot(), name);
+        FileUtils.writeLines(file, StandardCharsets.UTF_8.name(), Arrays.asList(lines));
+        return file;
+    }
+
+    private File writeJar(String name, File values, File library) throws Exception {
+        SymbolLoader fullSymbols = new SymbolLoader(values, ILogger.EMPTY);
+        fullSymbols.load();
+        SymbolLoader librarySymbols = new SymbolLoader(library, ILogger.EMPTY);
+        librarySymbols.load();
+
+        SymbolWriter writer = new SymbolWriter(new File(mFolder.getRoot(), "gen").getAbsolutePath(),
+                PACKAGE_NAME, fullSymbols, null);
+        writer.addSymbolsToWrite(librarySymbols);
+
+        File jar = new File(mFolder.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(FileUtils.openOutputStream(jar))) {
+            writer.writeClasses(out);
+        }
+        return jar;
+    }
+
+    private static URLClassLoader load(File jar) throws Exception {
+        // no parent besides the boot class loader, so the classes can only come from the jar
+        return new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+    }
+
+    private static int intField(Class<?> type, String name) throws Exception {
+        Field field = getResourceField(type, name);
+        assertThat(field.getType()).isEqualTo(int.class);
+        return field.getInt(null);
+    }
+
+    private static int[] intArrayField(Class<?> type, String name) throws Exception {
+        Field field = getResourceField(type, name);
+        assertThat(field.getType()).isEqualTo(int[].class);
+        return (int[]) field.get(null);
+    }
+
+    private static Field getResourceField(Class<?> type, String name) throws Exception {
+        Field field = type.getField(name);
+        int modifiers = field.getModifiers();
+        assertThat(Modifier.isPublic(modifiers)).isTrue();
+        assertThat(Modifier.isStatic(modifiers)).isTrue();
+        // constants would be inlined into the classes that use them
+        assertThat(Modifier.isFinal(modifiers)).isFalse();
+        return field;
+    }
+
+    private static List<String> fieldNames(Class<?> type) {
+        List<String> names = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            names.add(field.getName());
+        }
+        return names;
+    }
+}
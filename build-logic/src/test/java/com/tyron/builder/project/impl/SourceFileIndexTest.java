@@ -0,0 +1,76 @@
+package com.tyron.builder.project.impl;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SourceFileIndexTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testOnlyChangedFilesAreRead() throws Exception {
+        File root = mFolder.newFolder("java");
+        File first = new File(root, "First.java");
+        File second = new File(root, "Second.java");
+        FileUtils.writeStringToFile(first, "First", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(second, "Second", StandardCharsets.UTF_8);
+
+        List<File> read = new ArrayList<>();
+        SourceFileIndex index = new SourceFileIndex(".java", file -> {
+            read.add(file);
+            try {
+                return "test." + FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Map<String, File> classes = new HashMap<>();
+        index.update(Collections.singletonList(root), classes);
+        assertThat(classes).containsExactly("test.First", first, "test.Second", second);
+        assertThat(read).containsExactly(first, second);
+
+        read.clear();
+        index.update(Collections.singletonList(root), classes);
+        assertThat(read).isEmpty();
+
+        FileUtils.writeStringToFile(first, "Renamed", StandardCharsets.UTF_8);
+        assertThat(second.delete()).isTrue();
+        index.update(Collections.singletonList(root), classes);
+        assertThat(read).containsExactly(first);
+        assertThat(classes).containsExactly("test.Renamed", first);
+    }
+
+    @Test
+    public void testRegisteredFileDeletedBeforeUpdate() throws Exception {
+        File root = mFolder.newFolder("java");
+        File first = new File(root, "First.java");
+        FileUtils.writeStringToFile(first, "First", StandardCharsets.UTF_8);
+        SourceFileIndex index = new SourceFileIndex(".java", file -> "test.First");
+        Map<String, File> classes = new HashMap<>();
+        index.update(Collections.singletonList(root), classes);
+
+        // added from the editor and deleted before the next update
+        File added = new File(root, "Added.java");
+        File outside = mFolder.newFile("Outside.java");
+        classes.put("test.Added", added);
+        classes.put("test.Outside", outside);
+        assertThat(index.update(Collections.singletonList(root), classes)).isTrue();
+        assertThat(classes).containsExactly("test.First", first, "test.Outside", outside);
+
+        assertThat(index.update(Collections.singletonList(root), classes)).isFalse();
+    }
+}
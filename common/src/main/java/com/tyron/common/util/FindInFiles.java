@@ -0,0 +1,319 @@
+package com.tyron.common.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Searches for a string in every file under a set of directories using {@link StringSearch}.
+ *
+ * Files are memory mapped and searched in parallel while the directories are still being
+ * walked, each match is reported to the {@link Callback} as soon as it is found. The search
+ * is done on bytes so the query and the files are expected to be UTF-8.
+ */
+public class FindInFiles {
+
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "java", "kt", "kts", "xml", "gradle", "json", "txt", "pro", "properties", "md",
+            "html", "css", "js"));
+
+    /**
+     * Accepts the source and resource files of a project, based on their extension
+     */
+    public static final Predicate<Path> TEXT_FILES = path -> {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot != -1 && TEXT_EXTENSIONS.contains(name.substring(dot + 1)
+                .toLowerCase(Locale.ROOT));
+    };
+
+    private static ExecutorService sSharedExecutor;
+
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sSharedExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            sSharedExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), r -> {
+                        Thread thread = new Thread(r, "Find in files #" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        return sSharedExecutor;
+    }
+
+    public static class Match {
+        private final Path mFile;
+        private final int mLine;
+        private final int mColumn;
+        private final String mLineText;
+
+        private Match(Path file, int line, int column, String lineText) {
+            mFile = file;
+            mLine = line;
+            mColumn = column;
+            mLineText = lineText;
+        }
+
+        public Path getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return the zero based line of the match
+         */
+        public int getLine() {
+            return mLine;
+        }
+
+        /**
+         * @return the zero based column of the match, in characters
+         */
+        public int getColumn() {
+            return mColumn;
+        }
+
+        /**
+         * @return the contents of the line containing the match, without the line terminator
+         */
+        public String getLineText() {
+            return mLineText;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return mFile + ":" + (mLine + 1) + ":" + (mColumn + 1) + ": " + mLineText;
+        }
+    }
+
+    public interface Callback {
+
+        /**
+         * Called from a worker thread for each match, matches of the same file are reported
+         * in order but files may be reported in any order
+         */
+        void onMatch(Match match);
+
+        /**
+         * Called once every file has been searched or after the search has been cancelled
+         */
+        default void onFinished(boolean cancelled) {
+
+        }
+    }
+
+    /**
+     * A running search, which can be cancelled or waited for
+     */
+    public static class Search {
+
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+        private final AtomicInteger mPending = new AtomicInteger(1);
+        private final AtomicInteger mFilesSearched = new AtomicInteger();
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+        private final Callback mCallback;
+
+        private Search(Callback callback) {
+            mCallback = callback;
+        }
+
+        /**
+         * Stops the search, files that are being searched stop at their next match
+         */
+        public void cancel() {
+            mCancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+
+        public boolean isDone() {
+            return mFinished.getCount() == 0;
+        }
+
+        /**
+         * @return the number of files that have been searched so far
+         */
+        public int getFilesSearched() {
+            return mFilesSearched.get();
+        }
+
+        /**
+         * Blocks until every file has been searched or the search has been cancelled
+         */
+        public void await() throws InterruptedException {
+            mFinished.await();
+        }
+
+        private void fork() {
+            mPending.incrementAndGet();
+        }
+
+        private void join() {
+            if (mPending.decrementAndGet() == 0) {
+                try {
+                    mCallback.onFinished(isCancelled());
+                } finally {
+                    mFinished.countDown();
+                }
+            }
+        }
+    }
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates a searcher that runs on a shared pool with one thread per core
+     */
+    public FindInFiles() {
+        this(getSharedExecutor());
+    }
+
+    public FindInFiles(ExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts searching for the query in the files under the given roots which are accepted
+     * by the filter. Hidden directories and build directories are skipped.
+     *
+     * @param roots directories or files to search
+     * @param wholeWord whether the query must not be surrounded by identifier characters
+     */
+    public Search search(@NonNull Collection<File> roots, @NonNull String query,
+                         boolean wholeWord, @NonNull Predicate<Path> filter,
+                         @NonNull Callback callback) {
+        if (query.isEmpty()) {
+            throw new IllegalArgumentException("Query must not be empty");
+        }
+        StringSearch pattern = new StringSearch(query);
+        Search search = new Search(callback);
+        search.fork();
+        try {
+            mExecutor.execute(() -> {
+                try {
+                    for (File root : roots) {
+                        walk(search, root.toPath(), pattern, wholeWord, filter);
+                    }
+                } finally {
+                    search.join();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            search.join();
+            throw e;
+        } finally {
+            search.join();
+        }
+        return search;
+    }
+
+    private void walk(Search search, Path path, StringSearch pattern, boolean wholeWord,
+                      Predicate<Path> filter) {
+        if (search.isCancelled()) {
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            String name = path.getFileName() == null ? "" : path.getFileName().toString();
+            if (name.startsWith(".") || name.equals("build")) {
+                return;
+            }
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    walk(search, child, pattern, wholeWord, filter);
+                }
+            } catch (IOException ignored) {
+                // the directory was deleted or is not readable
+            }
+        } else if (filter.test(path)) {
+            search.fork();
+            try {
+                mExecutor.execute(() -> {
+                    try {
+                        searchFile(search, path, pattern, wholeWord);
+                    } finally {
+                        search.join();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                search.join();
+                search.cancel();
+            }
+        }
+    }
+
+    private static void searchFile(Search search, Path file, StringSearch pattern,
+                                   boolean wholeWord) {
+        if (search.isCancelled()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            MappedByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            int line = 0;
+            int lineStart = 0;
+            int scanned = 0;
+            int offset = 0;
+            while (!search.isCancelled()) {
+                offset = wholeWord
+                        ? pattern.nextWord(text, offset)
+                        : pattern.next(text, offset);
+                if (offset == -1) {
+                    break;
+                }
+                for (; scanned < offset; scanned++) {
+                    if (text.get(scanned) == '\n') {
+                        line++;
+                        lineStart = scanned + 1;
+                    }
+                }
+                int lineEnd = offset;
+                while (lineEnd < text.limit() && text.get(lineEnd) != '\n'
+                        && text.get(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                int column = decode(text, lineStart, offset).length();
+                String lineText = decode(text, lineStart, lineEnd);
+                search.mCallback.onMatch(new Match(file, line, column, lineText));
+                offset += pattern.length();
+            }
+        } catch (NoSuchFileException ignored) {
+            // deleted while searching
+        } catch (IOException ignored) {
+            // not readable, treated as having no matches
+        } finally {
+            search.mFilesSearched.incrementAndGet();
+        }
+    }
+
+    private static String decode(ByteBuffer text, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = text.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
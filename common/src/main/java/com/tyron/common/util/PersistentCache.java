@@ -0,0 +1,207 @@
+package com.tyron.common.util;
+
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Cache} that is written to a file so it survives process death.
+ *
+ * Unlike {@link Cache}, an entry expires only if the file it is mapped to has a different
+ * modification time <b>and</b> different contents from when the entry was loaded. This way
+ * files that are rewritten with the same contents are not considered modified.
+ *
+ * The file is read on the first access to this cache and is only written on {@link #save()}.
+ * The keys and values of this cache must be {@link Serializable}.
+ */
+public class PersistentCache<K, V> extends Cache<K, V> {
+
+    private static final int VERSION = 1;
+
+    private static class Entry<V> {
+        final V value;
+        long lastModified;
+        final String hash;
+
+        Entry(V value, long lastModified, String hash) {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private final File mFile;
+    private final Map<Key<K>, Entry<V>> mEntries = new HashMap<>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    public PersistentCache(File file) {
+        mFile = file;
+    }
+
+    @Override
+    public synchronized void clear() {
+        ensureLoaded();
+        mEntries.clear();
+        mDirty = true;
+    }
+
+    @Override
+    public synchronized boolean needs(Path file, K k) {
+        ensureLoaded();
+
+        Entry<V> entry = mEntries.get(new Key<>(file, k));
+        if (entry == null) {
+            return true;
+        }
+
+        long lastModified = lastModified(file);
+        if (lastModified == -1) {
+            return true;
+        }
+        if (lastModified == entry.lastModified) {
+            return false;
+        }
+
+        // the file has been touched, check if the contents have actually changed
+        String hash = hash(file);
+        if (hash != null && hash.equals(entry.hash)) {
+            entry.lastModified = lastModified;
+            mDirty = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected synchronized void removeKey(Key<K> key) {
+        ensureLoaded();
+        if (mEntries.remove(key) != null) {
+            mDirty = true;
+        }
+    }
+
+    @Override
+    public synchronized Set<Key<K>> getKeys() {
+        ensureLoaded();
+        return mEntries.keySet();
+    }
+
+    @Override
+    public synchronized void load(Path file, K k, V v) {
+        ensureLoaded();
+        mEntries.put(new Key<>(file, k), new Entry<>(v, lastModified(file), hash(file)));
+        mDirty = true;
+    }
+
+    @Override
+    public synchronized V get(Path file, K k) {
+        ensureLoaded();
+        Entry<V> entry = mEntries.get(new Key<>(file, k));
+        if (entry == null) {
+            throw new IllegalArgumentException(k + " is not in cache " + mFile);
+        }
+        return entry.value;
+    }
+
+    /**
+     * Writes the contents of this cache to its file if it has been modified since it
+     * was last read or written.
+     */
+    public synchronized void save() throws IOException {
+        if (!mLoaded || !mDirty) {
+            return;
+        }
+
+        File parent = mFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + parent);
+        }
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+            out.writeInt(VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<Key<K>, Entry<V>> entry : mEntries.entrySet()) {
+                Key<K> key = entry.getKey();
+                Entry<V> value = entry.getValue();
+                out.writeUTF(key.file.toString());
+                out.writeObject(key.key);
+                out.writeObject(value.value);
+                out.writeLong(value.lastModified);
+                out.writeObject(value.hash);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        Files.move(temp.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        mDirty = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        if (!mFile.exists()) {
+            return;
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(Files.newInputStream(mFile.toPath())))) {
+            if (in.readInt() != VERSION) {
+                mDirty = true;
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                Path file = Paths.get(in.readUTF());
+                K key = (K) in.readObject();
+                V value = (V) in.readObject();
+                long lastModified = in.readLong();
+                String hash = (String) in.readObject();
+                mEntries.put(new Key<>(file, key), new Entry<>(value, lastModified, hash));
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // the cache is corrupted or was written by an incompatible version,
+            // start from an empty cache instead
+            mEntries.clear();
+            mDirty = true;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static String hash(Path file) {
+        try {
+            return com.google.common.io.Files.asByteSource(file.toFile())
+                    .hash(Hashing.murmur3_128())
+                    .toString();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.tyron.common.util;
 import android.util.Log;
 
+import com.google.common.base.Throwables;
+
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
@@ -9,7 +11,14 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.io.BufferedReader;
 import java.util.regex.Matcher;
@@ -101,7 +110,11 @@ public class StringSearch {
         return next(text, 0);
     }
 
-    private int next(ByteBuffer text, int startingAfter) {
+    int length() {
+        return pattern.length;
+    }
+
+    int next(ByteBuffer text, int startingAfter) {
         int i = startingAfter + pattern.length - 1;
         while (i < text.limit()) {
             // Compare backwards from the end until the first unmatching character.
@@ -145,7 +158,11 @@ public class StringSearch {
     }
 
     private int nextWord(ByteBuffer text) {
-        int i = 0;
+        return nextWord(text, 0);
+    }
+
+    int nextWord(ByteBuffer text, int startingAfter) {
+        int i = startingAfter;
         while (true) {
             i = next(text, i);
             if (i == -1) return -1;
@@ -163,7 +180,7 @@ public class StringSearch {
     }
 
     private boolean isWordChar(byte b) {
-        char c = (char) (b + 128);
+        char c = (char) (b & 0xff);
         return Character.isAlphabetic(c) || Character.isDigit(c) || c == '$' || c == '_';
     }
 
@@ -188,21 +205,77 @@ public class StringSearch {
 //            var text = FileStore.contents(java).getBytes();
 //            return search.nextWord(text) != -1;
 //        }
-        try (FileChannel channel = FileChannel.open(java)) {
-            // Read up to 1 MB of data from file
-            int limit = Math.min((int) channel.size(), SEARCH_BUFFER.capacity());
-            SEARCH_BUFFER.position(0);
-            SEARCH_BUFFER.limit(limit);
-            channel.read(SEARCH_BUFFER);
-            SEARCH_BUFFER.position(0);
-            return search.nextWord(SEARCH_BUFFER) != -1;
+        return search.matches(java, true);
+    }
+
+    /**
+     * Searches the files in parallel for the word
+     *
+     * @return the files containing the word, in the iteration order of the given files
+     */
+    public static List<Path> filesContainingWord(Collection<Path> files, String query) {
+        StringSearch search = new StringSearch(query);
+        List<Path> paths = new ArrayList<>(files);
+        if (paths.size() <= 1) {
+            List<Path> result = new ArrayList<>(1);
+            for (Path path : paths) {
+                if (search.matches(path, true)) {
+                    result.add(path);
+                }
+            }
+            return result;
+        }
+
+        List<Future<Boolean>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            futures.add(SEARCH_EXECUTOR.submit(() -> search.matches(path, true)));
+        }
+
+        List<Path> result = new ArrayList<>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                if (futures.get(i).get()) {
+                    result.add(paths.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Reads the file into the buffer of the current thread, or maps it if it doesn't fit,
+     * and searches it for the pattern
+     */
+    private boolean matches(Path file, boolean word) {
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            ByteBuffer text;
+            if (size > BUFFER_SIZE) {
+                text = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                text = SEARCH_BUFFER.get();
+                text.clear();
+                text.limit((int) size);
+                while (text.hasRemaining() && channel.read(text) != -1) {
+                    // keep reading until the whole file is in the buffer
+                }
+                text.flip();
+            }
+            return (word ? nextWord(text) : next(text)) != -1;
         } catch (NoSuchFileException e) {
             return false;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
-    
+
     public static boolean matchesPartialName(CharSequence candidate, CharSequence partialName) {
 		if (partialName.length() == 1 && partialName.equals(".")) {
 			return true;
@@ -306,19 +379,7 @@ public class StringSearch {
 //            var text = FileStore.contents(java).getBytes();
 //            return search.next(text) != -1;
 //        }
-        try (FileChannel channel = FileChannel.open(java)) {
-            // Read up to 1 MB of data from file
-            int limit = Math.min((int) channel.size(), SEARCH_BUFFER.capacity());
-            SEARCH_BUFFER.position(0);
-            SEARCH_BUFFER.limit(limit);
-            channel.read(SEARCH_BUFFER);
-            SEARCH_BUFFER.position(0);
-            return search.next(SEARCH_BUFFER) != -1;
-        } catch (NoSuchFileException e) {
-            return false;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return search.matches(java, false);
     }
 
     private static class Slice {
@@ -344,5 +405,19 @@ public class StringSearch {
         }
     }
 
-    private static final ByteBuffer SEARCH_BUFFER = ByteBuffer.allocateDirect(1024 * 1024);
+    /**
+     * Files up to this size are read into a buffer owned by the searching thread, bigger
+     * files are memory mapped
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> SEARCH_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final ExecutorService SEARCH_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "StringSearch");
+                thread.setDaemon(true);
+                return thread;
+            });
 }
@@ -0,0 +1,108 @@
+package com.tyron.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class FindInFilesTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testReportsLineAndColumn() throws Exception {
+        File root = mFolder.newFolder("src");
+        write(new File(root, "a/Main.java"), "class Main {\n    Foo foo = new Foo();\n}\n");
+        write(new File(root, "b/Other.kt"), "val x: Foo? = null");
+        write(new File(root, "b/image.png"), "Foo");
+        write(new File(root, "build/Generated.java"), "Foo");
+
+        List<FindInFiles.Match> matches = search(root, "Foo", false);
+        matches.sort(Comparator.comparing((FindInFiles.Match m) -> m.getFile().toString())
+                .thenComparingInt(FindInFiles.Match::getColumn));
+
+        assertEquals(3, matches.size());
+        assertEquals(1, matches.get(0).getLine());
+        assertEquals(4, matches.get(0).getColumn());
+        assertEquals("    Foo foo = new Foo();", matches.get(0).getLineText());
+        assertEquals(18, matches.get(1).getColumn());
+        assertEquals(0, matches.get(2).getLine());
+        assertEquals(7, matches.get(2).getColumn());
+    }
+
+    @Test
+    public void testWholeWord() throws Exception {
+        File root = mFolder.newFolder("src");
+        write(new File(root, "Main.java"), "class Main{} class MainActivity {}");
+
+        assertEquals(2, search(root, "Main", false).size());
+        assertEquals(1, search(root, "Main", true).size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        File root = mFolder.newFolder("src");
+        write(new File(root, "Main.java"), "Main Main Main");
+
+        // don't let the search start until it has been cancelled
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.execute(() -> {
+            try {
+                started.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        List<Boolean> cancelled = new ArrayList<>();
+        FindInFiles.Search search = new FindInFiles(executor).search(
+                Collections.singletonList(root), "Main", false, FindInFiles.TEXT_FILES, new FindInFiles.Callback() {
+                    @Override
+                    public void onMatch(FindInFiles.Match match) {
+
+                    }
+
+                    @Override
+                    public void onFinished(boolean wasCancelled) {
+                        cancelled.add(wasCancelled);
+                    }
+                });
+        search.cancel();
+        started.countDown();
+        search.await();
+        executor.shutdown();
+
+        assertTrue(search.isDone());
+        assertEquals(Collections.singletonList(true), cancelled);
+    }
+
+    private static List<FindInFiles.Match> search(File root, String query, boolean wholeWord)
+            throws InterruptedException {
+        List<FindInFiles.Match> matches = Collections.synchronizedList(new ArrayList<>());
+        FindInFiles.Search search = new FindInFiles().search(Collections.singletonList(root),
+                query, wholeWord, FindInFiles.TEXT_FILES, matches::add);
+        search.await();
+        assertFalse(search.isCancelled());
+        return new ArrayList<>(matches);
+    }
+
+    private static void write(File file, String contents) throws Exception {
+        assertTrue(file.getParentFile().exists() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,64 @@
+package com.tyron.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+public class PersistentCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testSurvivesReload() throws Exception {
+        File cacheFile = new File(mFolder.getRoot(), "caches/test.bin");
+        File source = mFolder.newFile("Test.java");
+        Files.write(source.toPath(), "class Test {}".getBytes(StandardCharsets.UTF_8));
+
+        PersistentCache<String, List<File>> cache = new PersistentCache<>(cacheFile);
+        assertTrue(cache.needs(source.toPath(), "class"));
+        cache.load(source.toPath(), "class", Collections.singletonList(new File("Test.class")));
+        cache.save();
+
+        PersistentCache<String, List<File>> reloaded = new PersistentCache<>(cacheFile);
+        assertFalse(reloaded.needs(source.toPath(), "class"));
+        assertEquals(Collections.singletonList(new File("Test.class")),
+                reloaded.get(source.toPath(), "class"));
+    }
+
+    @Test
+    public void testTouchedFileWithSameContents() throws Exception {
+        File cacheFile = new File(mFolder.getRoot(), "test.bin");
+        File source = mFolder.newFile("Test.java");
+        Files.write(source.toPath(), "class Test {}".getBytes(StandardCharsets.UTF_8));
+
+        PersistentCache<String, String> cache = new PersistentCache<>(cacheFile);
+        cache.load(source.toPath(), "class", "value");
+
+        assertTrue(source.setLastModified(source.lastModified() + 10_000));
+        assertFalse(cache.needs(source.toPath(), "class"));
+
+        Files.write(source.toPath(), "class Test { int a; }".getBytes(StandardCharsets.UTF_8));
+        assertTrue(source.setLastModified(source.lastModified() + 20_000));
+        assertTrue(cache.needs(source.toPath(), "class"));
+    }
+
+    @Test
+    public void testCorruptedFile() throws Exception {
+        File cacheFile = mFolder.newFile("corrupted.bin");
+        Files.write(cacheFile.toPath(), "not a cache".getBytes(StandardCharsets.UTF_8));
+
+        PersistentCache<String, String> cache = new PersistentCache<>(cacheFile);
+        assertTrue(cache.getKeys().isEmpty());
+    }
+}
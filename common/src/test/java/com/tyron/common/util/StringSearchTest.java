@@ -0,0 +1,113 @@
+package com.tyron.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class StringSearchTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testContainsWordInLargeFile() throws Exception {
+        StringBuilder contents = new StringBuilder();
+        while (contents.length() < 3 * 1024 * 1024) {
+            contents.append("class Filler {}\n");
+        }
+        contents.append("class Target{}");
+        Path file = write("Large.java", contents.toString());
+
+        assertTrue(StringSearch.containsWord(file, "Target"));
+        assertFalse(StringSearch.containsWord(file, "Targ"));
+    }
+
+    @Test
+    public void testFilesContainingWord() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            files.add(write("File" + i + ".java", i % 10 == 0
+                    ? "class File" + i + " extends Target {}"
+                    : "class File" + i + " extends TargetActivity {}"));
+        }
+
+        List<Path> result = StringSearch.filesContainingWord(files, "Target");
+        assertEquals(Arrays.asList(files.get(0), files.get(10), files.get(20), files.get(30),
+                files.get(40)), result);
+        assertEquals(Collections.emptyList(), StringSearch.filesContainingWord(files, "Missing"));
+    }
+
+    @Test
+    public void testContainsWordConcurrently() throws Exception {
+        // the searches of a thread reuse its buffer, a smaller file must not see the end of
+        // the larger file searched before it
+        StringBuilder filler = new StringBuilder();
+        while (filler.length() < 512 * 1024) {
+            filler.append("class Filler {}\n");
+        }
+        List<Path> files = new ArrayList<>();
+        List<Boolean> expected = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            boolean matches = i % 2 == 0;
+            String contents = matches
+                    ? filler + "class Target {}"
+                    : filler.substring(0, filler.length() / (i + 1));
+            files.add(write("File" + i + ".java", contents));
+            expected.add(matches);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int round = 0; round < 20; round++) {
+                for (Path file : files) {
+                    futures.add(executor.submit(() -> StringSearch.containsWord(file, "Target")));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(files.get(i % files.size()).toString(),
+                        expected.get(i % files.size()), futures.get(i).get(30, TimeUnit.SECONDS));
+            }
+
+            List<Path> containing = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                if (expected.get(i)) {
+                    containing.add(files.get(i));
+                }
+            }
+            List<Future<List<Path>>> batchFutures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                batchFutures.add(executor.submit(() ->
+                        StringSearch.filesContainingWord(files, "Target")));
+            }
+            for (Future<List<Path>> future : batchFutures) {
+                assertEquals(containing, future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Path write(String name, String contents) throws Exception {
+        File file = mFolder.newFile(name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file.toPath();
+    }
+}
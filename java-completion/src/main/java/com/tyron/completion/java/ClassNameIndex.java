@@ -0,0 +1,259 @@
+package com.tyron.completion.java;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An index of fully qualified class names that can be queried by the simple name of the
+ * classes, used to complete type names without matching the query against every class.
+ *
+ * Simple names are matched by prefix, by camel humps (e.g. {@code AL} or {@code ArLi} for
+ * {@code ArrayList}) and by substring through an index of the trigrams of each name.
+ * The index is updated incrementally with {@link #update(Collection)}.
+ */
+public class ClassNameIndex {
+
+    private final Set<String> mClassNames = new HashSet<>();
+    private final TreeSet<String> mQualifiedNames = new TreeSet<>();
+    /** lower case simple name to the qualified names having that simple name */
+    private final TreeMap<String, Set<String>> mSimpleNames = new TreeMap<>();
+    /** trigram to the lower case simple names containing it */
+    private final Map<String, Set<String>> mTrigrams = new HashMap<>();
+
+    /**
+     * Adds and removes classes so the index contains exactly the given classes, only the
+     * classes that differ from the current contents are indexed
+     */
+    public synchronized void update(@NonNull Collection<String> classNames) {
+        Set<String> current = classNames instanceof Set
+                ? (Set<String>) classNames
+                : new HashSet<>(classNames);
+        for (String className : new ArrayList<>(mClassNames)) {
+            if (!current.contains(className)) {
+                remove(className);
+            }
+        }
+        for (String className : current) {
+            add(className);
+        }
+    }
+
+    public synchronized void add(@NonNull String className) {
+        if (!mClassNames.add(className)) {
+            return;
+        }
+        mQualifiedNames.add(className);
+
+        String key = getSimpleName(className).toLowerCase(Locale.ROOT);
+        Set<String> classes = mSimpleNames.get(key);
+        if (classes == null) {
+            classes = new HashSet<>(1);
+            mSimpleNames.put(key, classes);
+            for (String trigram : getTrigrams(key)) {
+                Set<String> names = mTrigrams.get(trigram);
+                if (names == null) {
+                    names = new HashSet<>();
+                    mTrigrams.put(trigram, names);
+                }
+                names.add(key);
+            }
+        }
+        classes.add(className);
+    }
+
+    public synchronized void remove(@NonNull String className) {
+        if (!mClassNames.remove(className)) {
+            return;
+        }
+        mQualifiedNames.remove(className);
+
+        String key = getSimpleName(className).toLowerCase(Locale.ROOT);
+        Set<String> classes = mSimpleNames.get(key);
+        if (classes == null) {
+            return;
+        }
+        classes.remove(className);
+        if (classes.isEmpty()) {
+            mSimpleNames.remove(key);
+            for (String trigram : getTrigrams(key)) {
+                Set<String> names = mTrigrams.get(trigram);
+                if (names != null) {
+                    names.remove(key);
+                    if (names.isEmpty()) {
+                        mTrigrams.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return mClassNames.size();
+    }
+
+    /**
+     * @return the qualified names starting with the given prefix, in alphabetical order
+     */
+    public synchronized List<String> findByQualifiedPrefix(@NonNull String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        for (String className : mQualifiedNames.tailSet(prefix, true)) {
+            if (!className.startsWith(prefix) || result.size() >= limit) {
+                break;
+            }
+            result.add(className);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the classes whose simple name matches the query. Classes whose name starts with
+     * the query come first, followed by the camel hump matches and then the names that
+     * contain the query. The comparisons ignore case.
+     *
+     * @return at most {@code limit} qualified class names
+     */
+    public synchronized List<String> find(@NonNull String query, int limit) {
+        if (query.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<String> result = new LinkedHashSet<>();
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+
+        // prefix
+        for (Set<String> classes : getPrefixRange(lowerQuery).values()) {
+            if (addAll(result, classes, limit)) {
+                return new ArrayList<>(result);
+            }
+        }
+
+        // camel humps, the first hump always matches the start of the name
+        String first = lowerQuery.substring(0, 1);
+        for (Map.Entry<String, Set<String>> entry : getPrefixRange(first).entrySet()) {
+            Set<String> classes = entry.getValue();
+            String simpleName = getSimpleName(classes.iterator().next());
+            if (matchesCamelHumps(simpleName, query)
+                    && addAll(result, classes, limit)) {
+                return new ArrayList<>(result);
+            }
+        }
+
+        // substring
+        if (lowerQuery.length() >= 3) {
+            for (String key : getTrigramCandidates(lowerQuery)) {
+                if (key.contains(lowerQuery)
+                        && addAll(result, mSimpleNames.get(key), limit)) {
+                    return new ArrayList<>(result);
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * @return whether the result has reached the limit
+     */
+    private static boolean addAll(Set<String> result, Set<String> classes, int limit) {
+        for (String className : classes) {
+            if (result.size() >= limit) {
+                return true;
+            }
+            result.add(className);
+        }
+        return result.size() >= limit;
+    }
+
+    private NavigableMap<String, Set<String>> getPrefixRange(String lowerPrefix) {
+        return mSimpleNames.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE,
+                false);
+    }
+
+    /**
+     * @return the lower case simple names containing every trigram of the query, sorted
+     */
+    private Collection<String> getTrigramCandidates(String lowerQuery) {
+        List<Set<String>> postings = new ArrayList<>();
+        for (String trigram : getTrigrams(lowerQuery)) {
+            Set<String> names = mTrigrams.get(trigram);
+            if (names == null) {
+                return Collections.emptyList();
+            }
+            postings.add(names);
+        }
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        Set<String> candidates = new TreeSet<>(postings.get(0));
+        for (int i = 1; i < postings.size() && !candidates.isEmpty(); i++) {
+            candidates.retainAll(postings.get(i));
+        }
+        return candidates;
+    }
+
+    private static Set<String> getTrigrams(String lowerName) {
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= lowerName.length(); i++) {
+            trigrams.add(lowerName.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Checks whether each hump of the query is the start of a hump of the name, in order.
+     * An upper case character in the query starts a new hump, lower case characters may
+     * either continue the current hump or start a new one.
+     */
+    public static boolean matchesCamelHumps(@NonNull String name, @NonNull String query) {
+        if (query.isEmpty()) {
+            return true;
+        }
+        return matchesCamelHumps(name, 0, query, 0);
+    }
+
+    private static boolean matchesCamelHumps(String name, int start, String query, int q) {
+        int i = start;
+        int j = q;
+        while (i < name.length() && j < query.length()
+                && Character.toLowerCase(name.charAt(i)) == Character.toLowerCase(query.charAt(j))
+                && (j == q || !Character.isUpperCase(query.charAt(j)))) {
+            i++;
+            j++;
+            if (j == query.length()) {
+                return true;
+            }
+            for (int hump = nextHump(name, i); hump != -1; hump = nextHump(name, hump + 1)) {
+                if (matchesCamelHumps(name, hump, query, j)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int nextHump(String name, int from) {
+        for (int i = from; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isUpperCase(c) || Character.isDigit(c)
+                    || (i > 0 && name.charAt(i - 1) == '_' && c != '_')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String getSimpleName(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot == -1 ? className : className.substring(dot + 1);
+    }
+}
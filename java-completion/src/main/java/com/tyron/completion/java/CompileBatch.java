@@ -12,6 +12,7 @@ import org.apache.commons.io.FileUtils;
 import org.openjdk.javax.lang.model.util.Elements;
 import org.openjdk.javax.lang.model.util.Types;
 import org.openjdk.javax.tools.Diagnostic;
+import org.openjdk.javax.tools.DiagnosticListener;
 import org.openjdk.javax.tools.JavaFileObject;
 import org.openjdk.source.util.JavacTask;
 import org.openjdk.source.util.Trees;
@@ -42,19 +43,26 @@ public class CompileBatch implements AutoCloseable {
     public final JavaCompilerService parent;
     public final ReusableCompiler.Borrow borrow;
     /**
-     * Indicates the task that requested the compilation is finished with it.
+     * Indicates the task that requested the compilation is finished with it, guarded by
+     * the parent.
      */
-    public boolean closed;
+    public volatile boolean closed;
+    /**
+     * Indicates the context must not be reused once the batch is closed, guarded by the
+     * parent.
+     */
+    boolean discardOnClose;
 
     public final JavacTask task;
     public final Trees trees;
     public final Elements elements;
     public final Types types;
     public final List<CompilationUnitTree> roots;
+    private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
 
     public CompileBatch(JavaCompilerService parent, Collection<? extends JavaFileObject> files) {
         this.parent = parent;
-        this.borrow = batchTask(parent, files);
+        this.borrow = batchTask(parent, files, this::addDiagnostic);
         this.task = borrow.task;
         this.trees = Trees.instance(borrow.task);
         this.elements = borrow.task.getElements();
@@ -68,11 +76,27 @@ public class CompileBatch implements AutoCloseable {
             // The results of borrow.task.analyze() are unreliable when errors are present
             // You can get at `Element` values using `Trees`
             task.analyze();
+            parent.publishDiagnostics(this);
         } catch (IOException e) {
+            borrow.discard();
             throw new RuntimeException(e);
+        } catch (RuntimeException | Error e) {
+            borrow.discard();
+            throw e;
         }
     }
 
+    private synchronized void addDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
+        diagnostics.add(diagnostic);
+    }
+
+    /**
+     * @return the diagnostics reported while compiling this batch
+     */
+    public synchronized List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+        return new ArrayList<>(diagnostics);
+    }
+
     /**
      * If the compilation failed because javac didn't find some package-private files in source
      * files with different
@@ -85,7 +109,7 @@ public class CompileBatch implements AutoCloseable {
         JavaModule module = parent.getCurrentModule();
         // Check for "class not found errors" that refer to package private classes
         Set<Path> addFiles = new HashSet<>();
-        for (Diagnostic<? extends JavaFileObject> err : parent.getDiagnostics()) {
+        for (Diagnostic<? extends JavaFileObject> err : getDiagnostics()) {
             if (!err.getCode().equals("compiler.err.cant.resolve.location")) {
                 continue;
             }
@@ -151,16 +175,19 @@ public class CompileBatch implements AutoCloseable {
 
     private static final Path FILE_NOT_FOUND = Paths.get("");
 
+    /**
+     * Marks this batch as no longer used by the task that requested it, the compiler context
+     * is returned to the pool unless the batch is kept as the cached compilation
+     */
     @Override
     public void close() {
-        closed = true;
+        parent.onBatchClosed(this);
     }
 
     private static ReusableCompiler.Borrow batchTask(JavaCompilerService parent, Collection<?
-            extends JavaFileObject> sources) {
-        parent.clearDiagnostics();
+            extends JavaFileObject> sources, DiagnosticListener<? super JavaFileObject> listener) {
         List<String> options = options(parent.classPath, parent.addExports);
-        return parent.compiler.getTask(parent.mSourceFileManager, parent::addDiagnostic, options,
+        return parent.compiler.getTask(parent.mSourceFileManager, listener, options,
                 Collections.emptyList(), sources);
     }
 
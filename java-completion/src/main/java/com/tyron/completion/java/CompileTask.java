@@ -23,7 +23,7 @@ public class CompileTask implements AutoCloseable {
         mCompileBatch = batch;
         this.task = batch.task;
         this.roots = batch.roots;
-        this.diagnostics = batch.parent.getDiagnostics();
+        this.diagnostics = batch.getDiagnostics();
     }
 
     public CompilationUnitTree root() {
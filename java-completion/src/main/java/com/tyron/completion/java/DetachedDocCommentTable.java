@@ -0,0 +1,202 @@
+package com.tyron.completion.java;
+
+import org.openjdk.javax.tools.JavaFileObject;
+import org.openjdk.tools.javac.api.JavacTaskImpl;
+import org.openjdk.tools.javac.api.JavacTool;
+import org.openjdk.tools.javac.parser.DocCommentParser;
+import org.openjdk.tools.javac.parser.ParserFactory;
+import org.openjdk.tools.javac.parser.Tokens;
+import org.openjdk.tools.javac.tree.DCTree;
+import org.openjdk.tools.javac.tree.DocCommentTable;
+import org.openjdk.tools.javac.tree.JCTree;
+import org.openjdk.tools.javac.tree.TreeScanner;
+import org.openjdk.tools.javac.util.Context;
+import org.openjdk.tools.javac.util.DiagnosticSource;
+import org.openjdk.tools.javac.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A doc comment table that doesn't reference the compiler context of the parse it came from.
+ * The table of javac keeps the tokenizer of every comment, and with it the whole context, so
+ * a cached tree would keep its compiler alive. The comments are copied out of that table and
+ * their trees are parsed on demand with a single context that every table shares.
+ */
+class DetachedDocCommentTable implements DocCommentTable {
+
+    private static Context sDocContext;
+
+    /**
+     * Replaces the doc comment table of the unit with one that doesn't reference the context
+     * of its parser
+     */
+    static void detach(JCTree.JCCompilationUnit unit) {
+        DocCommentTable table = unit.docComments;
+        if (table == null || table instanceof DetachedDocCommentTable) {
+            return;
+        }
+        Map<JCTree, Entry> entries = new HashMap<>();
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree == null) {
+                    return;
+                }
+                if (table.hasComment(tree)) {
+                    entries.put(tree, new Entry(new DetachedComment(table.getComment(tree))));
+                }
+                super.scan(tree);
+            }
+
+            @Override
+            public void visitErroneous(JCTree.JCErroneous tree) {
+                scan(tree.errs);
+            }
+        }.scan(unit);
+        unit.docComments = new DetachedDocCommentTable(unit.sourcefile, entries);
+    }
+
+    private final JavaFileObject mFile;
+    private final Map<JCTree, Entry> mEntries;
+
+    private DetachedDocCommentTable(JavaFileObject file, Map<JCTree, Entry> entries) {
+        mFile = file;
+        mEntries = entries;
+    }
+
+    @Override
+    public synchronized boolean hasComment(JCTree tree) {
+        return mEntries.containsKey(tree);
+    }
+
+    @Override
+    public synchronized Tokens.Comment getComment(JCTree tree) {
+        Entry entry = mEntries.get(tree);
+        return entry == null ? null : entry.comment;
+    }
+
+    @Override
+    public String getCommentText(JCTree tree) {
+        Tokens.Comment comment = getComment(tree);
+        return comment == null ? null : comment.getText();
+    }
+
+    @Override
+    public DCTree.DCDocComment getCommentTree(JCTree tree) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(tree);
+        }
+        if (entry == null) {
+            return null;
+        }
+        // the parser and tree maker of the shared context are not thread safe
+        synchronized (DetachedDocCommentTable.class) {
+            if (entry.tree == null) {
+                Context context = getDocContext();
+                DiagnosticSource source = new DiagnosticSource(mFile, Log.instance(context));
+                entry.tree = new DocCommentParser(ParserFactory.instance(context), source,
+                        entry.comment).parse();
+            }
+            return entry.tree;
+        }
+    }
+
+    @Override
+    public synchronized void putComment(JCTree tree, Tokens.Comment comment) {
+        mEntries.put(tree, new Entry(new DetachedComment(comment)));
+    }
+
+    private static Context getDocContext() {
+        if (sDocContext == null) {
+            sDocContext = ((JavacTaskImpl) JavacTool.create().getTask(null, null, null,
+                    Collections.emptyList(), Collections.emptyList(), Collections.emptyList()))
+                    .getContext();
+        }
+        return sDocContext;
+    }
+
+    private static class Entry {
+        final Tokens.Comment comment;
+        DCTree.DCDocComment tree;
+
+        Entry(Tokens.Comment comment) {
+            this.comment = comment;
+        }
+    }
+
+    /**
+     * A copy of a comment that only keeps its text and the mapping of the text to the
+     * positions in the file
+     */
+    private static class DetachedComment implements Tokens.Comment {
+
+        private final String mText;
+        private final CommentStyle mStyle;
+        private final boolean mDeprecated;
+
+        /**
+         * The source positions move along with the text except where the comment skips
+         * characters, such as the leading asterisks of a line. Each run starts at an index of
+         * the text and has the offset from that index to its position in the file.
+         */
+        private final int[] mRunStarts;
+        private final int[] mRunOffsets;
+
+        DetachedComment(Tokens.Comment comment) {
+            mText = comment.getText();
+            mStyle = comment.getStyle();
+            mDeprecated = comment.isDeprecated();
+
+            int length = mText == null ? 0 : mText.length();
+            int[] starts = new int[length + 1];
+            int[] offsets = new int[length + 1];
+            int runs = 0;
+            for (int i = 0; i <= length; i++) {
+                int offset = comment.getSourcePos(i) - i;
+                if (runs == 0 || offsets[runs - 1] != offset) {
+                    starts[runs] = i;
+                    offsets[runs] = offset;
+                    runs++;
+                }
+            }
+            mRunStarts = Arrays.copyOf(starts, runs);
+            mRunOffsets = Arrays.copyOf(offsets, runs);
+        }
+
+        @Override
+        public String getText() {
+            return mText;
+        }
+
+        @Override
+        public int getSourcePos(int index) {
+            if (index < 0) {
+                return -1;
+            }
+            int length = mText == null ? 0 : mText.length();
+            if (index > length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            int run = Arrays.binarySearch(mRunStarts, index);
+            if (run < 0) {
+                // the run that starts before the index
+                run = -run - 2;
+            }
+            return index + mRunOffsets[run];
+        }
+
+        @Override
+        public CommentStyle getStyle() {
+            return mStyle;
+        }
+
+        @Override
+        public boolean isDeprecated() {
+            return mDeprecated;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.tyron.completion.java;
 
+import com.tyron.builder.compiler.symbol.MergeSymbolsTask;
 import com.tyron.builder.project.Project;
 import com.tyron.builder.project.api.JavaModule;
 import com.tyron.builder.project.api.Module;
@@ -9,8 +10,10 @@ import com.tyron.completion.index.CompilerProvider;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class JavaCompilerProvider extends CompilerProvider<JavaCompilerService> {
@@ -18,9 +21,13 @@ public class JavaCompilerProvider extends CompilerProvider<JavaCompilerService>
 
     private volatile JavaCompilerService mProvider;
     private final Set<File> mCachedPaths;
+    private final Set<String> mCachedClasses;
+    private final Map<File, Long> mCachedRJars;
 
     public JavaCompilerProvider() {
         mCachedPaths = new HashSet<>();
+        mCachedClasses = new HashSet<>();
+        mCachedRJars = new HashMap<>();
     }
 
     @Override
@@ -31,58 +38,98 @@ public class JavaCompilerProvider extends CompilerProvider<JavaCompilerService>
         return null;
     }
 
-    public void destroy() {
+    public synchronized void destroy() {
         mCachedPaths.clear();
+        mCachedClasses.clear();
+        mCachedRJars.clear();
         mProvider = null;
     }
 
-    public JavaCompilerService getCompiler(Project project, JavaModule module) {
+    /**
+     * Returns the compiler for the module, it is only created again when the libraries have
+     * changed. Source files that have been added or removed since the last call are applied
+     * to the existing compiler so it stays warm. When the R classes of the libraries are
+     * generated as a jar, the jar is on the classpath and the compiler is also created again
+     * when it has been rewritten.
+     */
+    public synchronized JavaCompilerService getCompiler(Project project, JavaModule module) {
 
         List<Module> dependencies = new ArrayList<>();
         if (project != null) {
             dependencies.addAll(project.getDependencies(module));
         }
 
-        Set<File> paths = new HashSet<>();
-        paths.addAll(module.getJavaFiles().values());
-        paths.addAll(module.getLibraries());
+        Set<File> paths = new HashSet<>(module.getLibraries());
+        Set<String> classes = new HashSet<>(module.getJavaFiles().keySet());
+        Map<File, Long> rJars = new HashMap<>();
+        addRJar(module, rJars);
 
         for (Module dependency : dependencies) {
             if (dependency instanceof JavaModule) {
-                paths.addAll(((JavaModule) dependency).getJavaFiles().values());
                 paths.addAll(((JavaModule) dependency).getLibraries());
+                classes.addAll(((JavaModule) dependency).getJavaFiles().keySet());
+                addRJar(dependency, rJars);
             }
         }
+        paths.addAll(rJars.keySet());
 
         String target =
                 CompletionModule.getPreferences().getString(SharedPreferenceKeys.JAVA_COMPLETIONS_TARGET_VERSION, "8");
         String source =
                 CompletionModule.getPreferences().getString(SharedPreferenceKeys.JAVA_COMPLETIONS_SOURCE_VERSION, "8");
 
-        if (mProvider == null || changed(mCachedPaths, paths)) {
+        if (mProvider == null || changed(mCachedPaths, paths) || !mCachedRJars.equals(rJars)) {
             mProvider = new JavaCompilerService(project, paths, Collections.emptySet(),
                     Collections.emptySet());
 
             mCachedPaths.clear();
             mCachedPaths.addAll(paths);
+            mCachedClasses.clear();
+            mCachedClasses.addAll(classes);
+            mCachedRJars.clear();
+            mCachedRJars.putAll(rJars);
             mProvider.setCurrentModule(module);
+        } else {
+            if (mProvider.getCurrentModule() != module) {
+                mProvider.setCurrentModule(module);
+            }
+            if (changed(mCachedClasses, classes)) {
+                Set<String> changedClasses = new HashSet<>(classes);
+                changedClasses.removeAll(mCachedClasses);
+                for (String className : mCachedClasses) {
+                    if (!classes.contains(className)) {
+                        changedClasses.add(className);
+                    }
+                }
+                mProvider.invalidateClasses(changedClasses);
+
+                mCachedClasses.clear();
+                mCachedClasses.addAll(classes);
+            }
         }
 
         return mProvider;
     }
 
-    private boolean changed(Set<File> oldFiles, Set<File> newFiles) {
+    private static void addRJar(Module module, Map<File, Long> rJars) {
+        File rJar = MergeSymbolsTask.getRJar(module);
+        if (rJar != null) {
+            rJars.put(rJar, rJar.lastModified());
+        }
+    }
+
+    private static <T> boolean changed(Set<T> oldFiles, Set<T> newFiles) {
         if (oldFiles.size() != newFiles.size()) {
             return true;
         }
 
-        for (File oldFile : oldFiles) {
+        for (T oldFile : oldFiles) {
             if (!newFiles.contains(oldFile)) {
                 return true;
             }
         }
 
-        for (File newFile : newFiles) {
+        for (T newFile : newFiles) {
             if (!oldFiles.contains(newFile)) {
                 return true;
             }
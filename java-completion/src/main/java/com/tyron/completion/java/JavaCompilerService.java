@@ -1,6 +1,7 @@
 package com.tyron.completion.java;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -9,6 +10,7 @@ import com.google.common.collect.ImmutableList;
 import com.tyron.builder.model.SourceFileObject;
 import com.tyron.builder.project.Project;
 import com.tyron.builder.project.api.JavaModule;
+import com.tyron.builder.project.api.KotlinModule;
 import com.tyron.builder.project.api.Module;
 import com.tyron.common.util.Cache;
 import com.tyron.common.util.StringSearch;
@@ -19,11 +21,10 @@ import org.openjdk.javax.tools.DiagnosticListener;
 import org.openjdk.javax.tools.JavaFileObject;
 import org.openjdk.javax.tools.StandardLocation;
 import org.openjdk.source.tree.CompilationUnitTree;
-import org.openjdk.tools.javac.file.PathFileObject;
+import org.openjdk.tools.javac.tree.JCTree;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
@@ -31,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -54,10 +56,19 @@ public class JavaCompilerService implements CompilerProvider {
     public final ReusableCompiler compiler = new ReusableCompiler();
     private final Docs docs;
 
-    private final CompilerContainer mContainer = new CompilerContainer();
     private CompileBatch cachedCompile;
+    /** the last compilation for code completion, updated in place while typing in a method */
+    private CompileBatch cachedCompletion;
     private final Map<JavaFileObject, Long> cachedModified = new HashMap<>();
 
+    private final ClassNameIndex mClassIndex = new ClassNameIndex();
+    private JavaModule mIndexedModule;
+    private int mIndexedModificationCount;
+    /** the hash of the jars whose classes are in the index, guarded by the index */
+    private String mIndexedClassPath;
+    private Set<String> mLibraryClasses = Collections.emptySet();
+    private Set<String> mSourceClasses = Collections.emptySet();
+
     public final ReentrantLock mLock = new ReentrantLock();
 
     public JavaCompilerService(Project project, Set<File> classPath, Set<File> docPath, Set<String> addExports) {
@@ -102,20 +113,6 @@ public class JavaCompilerService implements CompilerProvider {
         return false;
     }
 
-    private void loadCompile(Collection<? extends JavaFileObject> sources) {
-        if (cachedCompile != null) {
-            if (!cachedCompile.closed) {
-                throw new RuntimeException("Compiler is still in-use!");
-            }
-            cachedCompile.borrow.close();
-        }
-        cachedCompile = doCompile(sources);
-        cachedModified.clear();
-        for (JavaFileObject f : sources) {
-            cachedModified.put(f, f.getLastModified());
-        }
-    }
-
     private CompileBatch doCompile(Collection<? extends JavaFileObject> sources) {
         if (sources.isEmpty()) throw new RuntimeException("empty sources");
         CompileBatch firstAttempt = new CompileBatch(this, sources);
@@ -125,7 +122,6 @@ public class JavaCompilerService implements CompilerProvider {
         //  LOG.info("...need to recompile with " + addFiles);
         Log.d("JavaCompilerService", "Need to recompile with " + addFiles);
         firstAttempt.close();
-        firstAttempt.borrow.close();
         List<JavaFileObject> moreSources = new ArrayList<>(sources);
         for (Path add : addFiles) {
             moreSources.add(new SourceFileObject(add, mCurrentModule));
@@ -134,32 +130,93 @@ public class JavaCompilerService implements CompilerProvider {
     }
 
     /**
-     * Creates a compile batch only if it has not been compiled before
+     * Creates a compile batch only if it has not been compiled before. The cached batch is
+     * only reused when no one else is using it, otherwise the sources are compiled again
+     * with another context from the pool so callers on other threads don't have to wait.
      *
      * @param sources Files to compile
      * @return CompileBatch for this compilation
      */
     private CompileBatch compileBatch(Collection<? extends JavaFileObject> sources) {
-        if (needsCompile(sources)) {
-            loadCompile(sources);
-        } else {
-            Log.d("JavaCompilerService", "Using cached compile");
+        synchronized (this) {
+            if (cachedCompile != null && cachedCompile.closed) {
+                if (!needsCompile(sources) && cachedCompile.borrow.resume()) {
+                    Log.d("JavaCompilerService", "Using cached compile");
+                    cachedCompile.closed = false;
+                    return cachedCompile;
+                }
+                // the cached batch is going to be replaced or the pool has no room for it,
+                // return its context to the pool so this compilation can use it
+                cachedCompile.borrow.close();
+                cachedCompile = null;
+                cachedModified.clear();
+            }
         }
-        return cachedCompile;
 
+        CompileBatch batch = doCompile(sources);
+
+        synchronized (this) {
+            if (cachedCompile == null || cachedCompile.closed) {
+                if (cachedCompile != null) {
+                    cachedCompile.borrow.close();
+                }
+                cachedCompile = batch;
+                cachedModified.clear();
+                for (JavaFileObject f : sources) {
+                    cachedModified.put(f, f.getLastModified());
+                }
+            }
+        }
+        return batch;
     }
-    
-    public void clearDiagnostics() {
-        diagnostics.clear();
-        if (mDiagnosticListener != null) {
-            mDiagnosticListener.report(null);
+
+    /**
+     * Called when the task that requested the batch is finished with it, batches that are
+     * not cached return their context to the pool right away. Cached batches keep their
+     * context but are parked so they don't count as used by the thread that closed them,
+     * the pool may take the context back later which drops them from the cache.
+     */
+    void onBatchClosed(CompileBatch batch) {
+        synchronized (this) {
+            batch.closed = true;
+            if (batch.discardOnClose) {
+                batch.borrow.discard();
+                return;
+            }
+            if (batch == cachedCompile || batch == cachedCompletion) {
+                batch.borrow.park(() -> onBatchEvicted(batch));
+                return;
+            }
         }
+        batch.borrow.close();
     }
 
-    public void addDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
-        diagnostics.add(diagnostic);
+    private synchronized void onBatchEvicted(CompileBatch batch) {
+        if (batch == cachedCompile) {
+            cachedCompile = null;
+            cachedModified.clear();
+        }
+        if (batch == cachedCompletion) {
+            cachedCompletion = null;
+        }
+    }
+
+    /**
+     * Replaces the diagnostics of the service with the ones of a batch that has finished
+     * compiling, each batch collects its own diagnostics so compilations running at the same
+     * time don't clear each other's.
+     */
+    void publishDiagnostics(CompileBatch batch) {
+        List<Diagnostic<? extends JavaFileObject>> batchDiagnostics = batch.getDiagnostics();
+        synchronized (diagnostics) {
+            diagnostics.clear();
+            diagnostics.addAll(batchDiagnostics);
+        }
         if (mDiagnosticListener != null) {
-            mDiagnosticListener.report(diagnostic);
+            mDiagnosticListener.report(null);
+            for (Diagnostic<? extends JavaFileObject> diagnostic : batchDiagnostics) {
+                mDiagnosticListener.report(diagnostic);
+            }
         }
     }
 
@@ -168,7 +225,9 @@ public class JavaCompilerService implements CompilerProvider {
     }
 
     public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
-        return ImmutableList.copyOf(diagnostics);
+        synchronized (diagnostics) {
+            return ImmutableList.copyOf(diagnostics);
+        }
     }
 
     @Override
@@ -189,6 +248,81 @@ public class JavaCompilerService implements CompilerProvider {
         return classes;
     }
 
+    /**
+     * @return an index of {@link #publicTopLevelTypes()}. The classes of the libraries are
+     * stored on disk by the hash of the classpath and are only indexed again when a jar has
+     * changed, source files that have been added or removed are applied to the index one by
+     * one.
+     */
+    public ClassNameIndex getClassIndex() {
+        synchronized (mClassIndex) {
+            List<JavaModule> modules = new ArrayList<>();
+            modules.add(mCurrentModule);
+            for (Module module : mProject.getDependencies(mCurrentModule)) {
+                if (module instanceof JavaModule) {
+                    modules.add((JavaModule) module);
+                }
+            }
+            int modificationCount = 0;
+            for (JavaModule module : modules) {
+                modificationCount = 31 * modificationCount + module.getModificationCount();
+            }
+            if (mIndexedModule == mCurrentModule
+                    && mIndexedModificationCount == modificationCount) {
+                return mClassIndex;
+            }
+
+            List<File> jars = LibraryClassNames.getJars(modules);
+            String classPath = LibraryClassNames.hash(jars);
+            if (!classPath.equals(mIndexedClassPath)) {
+                Set<String> libraryClasses = LibraryClassNames.load(jars, getClassIndexDir());
+                for (String className : mLibraryClasses) {
+                    if (!libraryClasses.contains(className)
+                            && !mSourceClasses.contains(className)) {
+                        mClassIndex.remove(className);
+                    }
+                }
+                for (String className : libraryClasses) {
+                    mClassIndex.add(className);
+                }
+                mLibraryClasses = libraryClasses;
+                mIndexedClassPath = classPath;
+            }
+
+            Set<String> sourceClasses = new HashSet<>();
+            for (JavaModule module : modules) {
+                sourceClasses.addAll(module.getJavaFiles().keySet());
+                if (module instanceof KotlinModule) {
+                    sourceClasses.addAll(((KotlinModule) module).getKotlinFiles().keySet());
+                }
+            }
+            for (String className : mSourceClasses) {
+                if (!sourceClasses.contains(className)
+                        && !mLibraryClasses.contains(className)) {
+                    mClassIndex.remove(className);
+                }
+            }
+            for (String className : sourceClasses) {
+                if (!mSourceClasses.contains(className)) {
+                    mClassIndex.add(className);
+                }
+            }
+            mSourceClasses = sourceClasses;
+
+            mIndexedModule = mCurrentModule;
+            mIndexedModificationCount = modificationCount;
+        }
+        return mClassIndex;
+    }
+
+    private static File getClassIndexDir() {
+        Context context = CompletionModule.getContext();
+        if (context == null) {
+            return null;
+        }
+        return new File(context.getCacheDir(), "class-index");
+    }
+
     @Override
     public List<String> packagePrivateTopLevelTypes(String packageName) {
         return Collections.emptyList();
@@ -259,11 +393,31 @@ public class JavaCompilerService implements CompilerProvider {
 
     private static final Cache<String, Boolean> cacheContainsWord = new Cache<>();
 
-    private boolean containsWord(Path file, String word) {
-        if (cacheContainsWord.needs(file, word)) {
-            cacheContainsWord.load(file, word, StringSearch.containsWord(file, word));
+    /**
+     * @return the files that contain the word, files which are not cached yet are searched
+     * in parallel
+     */
+    private List<Path> filesContainingWord(List<Path> files, String word) {
+        List<Path> uncached = new ArrayList<>();
+        for (Path file : files) {
+            if (cacheContainsWord.needs(file, word)) {
+                uncached.add(file);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            Set<Path> containing = new HashSet<>(StringSearch.filesContainingWord(uncached, word));
+            for (Path file : uncached) {
+                cacheContainsWord.load(file, word, containing.contains(file));
+            }
+        }
+
+        List<Path> result = new ArrayList<>();
+        for (Path file : files) {
+            if (cacheContainsWord.get(file, word)) {
+                result.add(file);
+            }
         }
-        return cacheContainsWord.get(file, word);
+        return result;
     }
 
     private static final Cache<Void, List<String>> cacheContainsType = new Cache<>();
@@ -288,11 +442,15 @@ public class JavaCompilerService implements CompilerProvider {
 
         String packageName = packageName(className);
         String simpleName = simpleName(className);
+        List<Path> candidates = new ArrayList<>();
         for (File file : SourceFileManager.list(mCurrentModule, packageName)) {
-            if (containsWord(file.toPath(), simpleName) && containsType(file.toPath(), className)) {
-                if (file.getName().endsWith(".java")) {
-                    return file.toPath();
-                }
+            if (file.getName().endsWith(".java")) {
+                candidates.add(file.toPath());
+            }
+        }
+        for (Path file : filesContainingWord(candidates, simpleName)) {
+            if (containsType(file, className)) {
+                return file;
             }
         }
         return NOT_FOUND;
@@ -335,34 +493,15 @@ public class JavaCompilerService implements CompilerProvider {
         return null;
     }
 
-    private final Cache<String, ParseTask> parseCache = new Cache<>();
-
+    /**
+     * Parses are cached by {@link Parser}, which keeps the most recently used files
+     */
     private ParseTask cachedParse(Path file) {
-        if (parseCache.needs(file, file.toFile().getName())) {
-            Parser parser = Parser.parseFile(mProject, file);
-            parseCache.load(file, file.toFile().getName(), new ParseTask(parser.task, parser.root));
-        }
-        return parseCache.get(file, file.toFile().getName());
+        Parser parser = Parser.parseFile(mProject, file);
+        return new ParseTask(parser.task, parser.root);
     }
 
     private ParseTask cachedParse(JavaFileObject file) {
-        if (file instanceof PathFileObject) {
-            // workaround to get the file uri of a JarFileObject
-            String path = file.toUri().toString()
-                    .substring(4, file.toUri().toString().lastIndexOf("!"));
-
-            Path parsedPath = new File(URI.create(path)).toPath();
-            if (parseCache.needs(parsedPath, file.getName())) {
-                Parser parser = Parser.parseJavaFileObject(mProject, file);
-                parseCache.load(parsedPath, file.getName(), new ParseTask(parser.task, parser.root));
-            } else {
-                Log.d("JavaCompilerService", "Using cached parse for " + file.getName());
-            }
-            return parseCache.get(parsedPath, file.getName());
-        } else if (file instanceof SourceFileObject) {
-            return cachedParse(((SourceFileObject) file).mFile);
-        }
-
         Parser parser = Parser.parseJavaFileObject(mProject, file);
         return new ParseTask(parser.task, parser.root);
     }
@@ -403,7 +542,7 @@ public class JavaCompilerService implements CompilerProvider {
      * @return a CompileTask for this compilation
      */
     @Override
-    public synchronized CompilerContainer compile(Path... files) {
+    public CompilerContainer compile(Path... files) {
         List<JavaFileObject> sources = new ArrayList<>();
         for (Path f : files) {
             sources.add(new SourceFileObject(f, mCurrentModule));
@@ -413,45 +552,148 @@ public class JavaCompilerService implements CompilerProvider {
 
     /**
      * Compiles a list of {@link JavaFileObject} not all of them needs no be compiled if
-     * they have been compiled before
+     * they have been compiled before. This can be called from multiple threads at the same
+     * time, each call gets its own container which must be closed once it is no longer used.
      *
      * @param sources list of java sources
      * @return a CompileTask for this compilation
      */
     @Override
-    public synchronized CompilerContainer compile(Collection<? extends JavaFileObject> sources) {
-        synchronized (mContainer) {
-            CompileBatch compile = compileBatch(sources);
-            CompileTask task = new CompileTask(compile);
-            mContainer.setCompileTask(task);
-            return mContainer;
+    public CompilerContainer compile(Collection<? extends JavaFileObject> sources) {
+        CompilerContainer container = new CompilerContainer();
+        container.setCompileTask(new CompileTask(compileBatch(sources)));
+        return container;
+    }
+
+    /**
+     * Compiles a single file for code completion. If the previous completion was for the
+     * same file and only the body of a method has changed since then, only that method is
+     * parsed and attributed again, otherwise the file is compiled normally.
+     *
+     * <p>The diagnostics of a reused compilation are not updated, this should only be used
+     * where the trees and their types are needed.
+     *
+     * @param source the current contents of the file
+     * @return a CompileTask whose root is the given file
+     */
+    public CompilerContainer compileForCompletion(SourceFileObject source) {
+        CompileBatch batch = null;
+        synchronized (this) {
+            if (cachedCompletion != null && cachedCompletion.closed) {
+                if (cachedCompletion.borrow.resume()) {
+                    batch = cachedCompletion;
+                    batch.closed = false;
+                } else {
+                    // the pool has no room for it, the new compilation needs its context
+                    cachedCompletion.borrow.close();
+                    cachedCompletion = null;
+                }
+            }
+        }
+
+        if (batch != null) {
+            boolean reparsed;
+            try {
+                reparsed = reparse(batch, source);
+            } catch (RuntimeException e) {
+                Log.w("JavaCompilerService", "Failed to reparse " + source.toUri(), e);
+                reparsed = false;
+            }
+            if (!reparsed) {
+                synchronized (this) {
+                    cachedCompletion = null;
+                }
+                // the context is reset when it is borrowed again, only the trees are stale
+                batch.borrow.close();
+                batch = null;
+            }
+        }
+
+        if (batch == null) {
+            batch = doCompile(Collections.singletonList(source));
+            synchronized (this) {
+                if (cachedCompletion == null) {
+                    cachedCompletion = batch;
+                }
+            }
         }
+
+        CompilerContainer container = new CompilerContainer();
+        container.setCompileTask(new CompileTask(batch));
+        return container;
     }
 
-    public synchronized void close() {
-        if (cachedCompile != null && !cachedCompile.closed) {
-            cachedCompile.close();
+    private boolean reparse(CompileBatch batch, SourceFileObject source) {
+        for (CompilationUnitTree root : batch.roots) {
+            if (root.getSourceFile().toUri().equals(source.toUri())) {
+                return new PartialReparser(batch.task, (JCTree.JCCompilationUnit) root)
+                        .reparse(source);
+            }
         }
+        return false;
+    }
+
+    /**
+     * Releases the lock if it is held by this thread, the compilations themselves are closed
+     * by their {@link CompilerContainer}
+     */
+    public void close() {
         if (mLock.isHeldByCurrentThread() && mLock.isLocked()) {
             mLock.unlock();
         }
     }
 
-    public synchronized boolean isReady() {
-        if (CompletionEngine.isIndexing()) {
-            return false;
-        }
-        if (cachedCompile == null) {
-            return true;
-        }
-        return cachedCompile.closed;
+    /**
+     * @return whether the compiler can be used, compilations don't have to wait for each
+     * other so this is only false while indexing
+     */
+    public boolean isReady() {
+        return !CompletionEngine.isIndexing();
     }
 
     public JavaModule getCurrentModule() {
         return mCurrentModule;
     }
 
-    public void destroy() {
+    /**
+     * Called when source files have been added or removed. The compiler contexts are kept
+     * warm, they only forget the given classes so their packages are listed again.
+     *
+     * @param classNames fully qualified names of the added or removed classes
+     */
+    public synchronized void invalidateClasses(Collection<String> classNames) {
+        compiler.invalidateClasses(classNames);
+        if (cachedCompile != null && cachedCompile.closed) {
+            cachedCompile.borrow.close();
+        }
         cachedCompile = null;
+        cachedModified.clear();
+        if (cachedCompletion != null && cachedCompletion.closed) {
+            cachedCompletion.borrow.close();
+        }
+        cachedCompletion = null;
+    }
+
+    /**
+     * Drops the cached compilations, called after a compilation has failed. Their contexts
+     * are not reused, a batch that is still in use is discarded once it is closed.
+     */
+    public synchronized void destroy() {
+        discard(cachedCompile);
+        cachedCompile = null;
+        cachedModified.clear();
+        discard(cachedCompletion);
+        cachedCompletion = null;
+    }
+
+    private void discard(CompileBatch batch) {
+        if (batch == null) {
+            return;
+        }
+        if (batch.closed) {
+            batch.borrow.discard();
+        } else {
+            batch.discardOnClose = true;
+        }
     }
 }
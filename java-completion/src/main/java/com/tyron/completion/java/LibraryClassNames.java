@@ -0,0 +1,117 @@
+package com.tyron.completion.java;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.tyron.builder.project.api.JavaModule;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Lists the top level classes of a classpath. The list is stored in a file named after the
+ * hash of the classpath, so the jars are only read again when one of them has changed.
+ */
+class LibraryClassNames {
+
+    private static final String TAG = "LibraryClassNames";
+
+    /**
+     * @return a hash of the paths, sizes and modification times of the jars
+     */
+    @NonNull
+    static String hash(@NonNull Collection<File> jars) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (File jar : jars) {
+            hasher.putString(jar.getAbsolutePath(), StandardCharsets.UTF_8);
+            hasher.putLong(jar.lastModified());
+            hasher.putLong(jar.length());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param cacheDir the directory of the stored lists, null to always read the jars
+     * @return the fully qualified names of the top level classes in the jars
+     */
+    @NonNull
+    static Set<String> load(@NonNull Collection<File> jars, @Nullable File cacheDir) {
+        File cacheFile = cacheDir == null ? null : new File(cacheDir, hash(jars));
+        if (cacheFile != null && cacheFile.isFile()) {
+            try {
+                return new HashSet<>(FileUtils.readLines(cacheFile, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + cacheFile, e);
+            }
+        }
+
+        Set<String> classNames = new HashSet<>();
+        for (File jar : jars) {
+            addClasses(jar, classNames);
+        }
+
+        if (cacheFile != null) {
+            // written next to the list first so a partial list is never read
+            File temp = new File(cacheDir, cacheFile.getName() + ".tmp");
+            try {
+                FileUtils.writeLines(temp, StandardCharsets.UTF_8.name(), classNames);
+                if (!temp.renameTo(cacheFile)) {
+                    FileUtils.deleteQuietly(temp);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write " + cacheFile, e);
+                FileUtils.deleteQuietly(temp);
+            }
+        }
+        return classNames;
+    }
+
+    private static void addClasses(File file, Set<String> classNames) {
+        try (JarFile jar = new JarFile(file)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                // inner classes are not indexed
+                if (!name.endsWith(".class") || name.contains("$")) {
+                    continue;
+                }
+                classNames.add(name.substring(0, name.length() - ".class".length())
+                        .replace('/', '.'));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file, e);
+        }
+    }
+
+    /**
+     * @return the jars of the modules in order, without duplicates
+     */
+    @NonNull
+    static List<File> getJars(@NonNull Collection<? extends JavaModule> modules) {
+        Set<File> jars = new LinkedHashSet<>();
+        for (JavaModule module : modules) {
+            jars.addAll(module.getLibraries());
+            File bootstrap = module.getBootstrapJarFile();
+            if (bootstrap != null) {
+                jars.add(bootstrap);
+            }
+        }
+        return new ArrayList<>(jars);
+    }
+}
@@ -24,19 +24,39 @@ import org.openjdk.source.util.SourcePositions;
 import org.openjdk.source.util.TreeScanner;
 import org.openjdk.source.util.Trees;
 import org.openjdk.tools.javac.api.JavacTool;
+import org.openjdk.tools.javac.tree.JCTree;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 public class Parser {
 
     private static final JavaCompiler COMPILER = JavacTool.create();
     private static SourceFileManager FILE_MANAGER;
+    private static Project FILE_MANAGER_PROJECT;
+
+    /**
+     * The maximum number of parsed files that are kept
+     */
+    private static final int MAX_CACHED_PARSES = 16;
+
+    /**
+     * The maximum number of characters of the parsed files that are kept, only the trees are
+     * kept so their size is roughly proportional to the size of their source
+     */
+    private static final int MAX_CACHED_CHARACTERS = 2 * 1024 * 1024;
 
     /**
      * Create a task that compiles a single file
@@ -47,8 +67,16 @@ public class Parser {
                 COMPILER.getTask(null, getFileManager(project), Parser::ignoreError, Collections.emptyList(), Collections.emptyList(), Collections.singletonList(file));
     }
 
-    private static SourceFileManager getFileManager(Project project) {
-        return new SourceFileManager(project);
+    /**
+     * The file manager is shared by every parse of the same project so its jar index is only
+     * built once
+     */
+    private static synchronized SourceFileManager getFileManager(Project project) {
+        if (FILE_MANAGER == null || FILE_MANAGER_PROJECT != project) {
+            FILE_MANAGER = new SourceFileManager(project);
+            FILE_MANAGER_PROJECT = project;
+        }
+        return FILE_MANAGER;
     }
 
 
@@ -58,19 +86,30 @@ public class Parser {
     public final CompilationUnitTree root;
     public final Trees trees;
 
-    private Parser(Project project, JavaFileObject file) {
+    private Parser(Project project, JavaFileObject file, String contents) {
         this.file = file;
-        try {
-            this.contents = file.getCharContent(false).toString();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        this.contents = contents;
         this.task = singleFileTask(project, file);
         try {
             this.root = task.parse().iterator().next();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        // the tree is cached, it must not keep the context of this task alive
+        DetachedDocCommentTable.detach((JCTree.JCCompilationUnit) root);
+        this.trees = Trees.instance(task);
+    }
+
+    /**
+     * Creates a parser for a tree that has already been parsed, the task is only used to
+     * inspect the tree and does not parse the file again
+     */
+    private Parser(Project project, JavaFileObject file, String contents,
+                   CompilationUnitTree root) {
+        this.file = file;
+        this.contents = contents;
+        this.task = singleFileTask(project, file);
+        this.root = root;
         this.trees = Trees.instance(task);
     }
 
@@ -78,29 +117,152 @@ public class Parser {
         return parseJavaFileObject(project, new SourceFileObject(file));
     }
 
-    private static Parser cachedParse;
-    private static long cachedModified = -1;
+    private static String readContents(JavaFileObject file) {
+        try {
+            return file.getCharContent(false).toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A tree that is kept between parses. Only the tree is kept, which holds its line map and
+     * end positions, so its size follows the size of the source.
+     */
+    private static class CachedParse {
+        final String contents;
+        final CompilationUnitTree root;
 
-    private static boolean needsParse(JavaFileObject file) {
-        if (cachedParse == null) return true;
-        if (!cachedParse.file.equals(file)) return true;
-        if (file.getLastModified() > cachedModified) return true;
-        return false;
+        CachedParse(String contents, CompilationUnitTree root) {
+            this.contents = contents;
+            this.root = root;
+        }
     }
 
-    private static void loadParse(Project project, JavaFileObject file) {
-        cachedParse = new Parser(project, file);
-        cachedModified = file.getLastModified();
+    /**
+     * A parse that is still running, parses of the same contents of the file wait for it
+     * instead of parsing the file again
+     */
+    private static class PendingParse {
+        final String contents;
+        final FutureTask<Parser> future;
+
+        PendingParse(String contents, FutureTask<Parser> future) {
+            this.contents = contents;
+            this.future = future;
+        }
     }
 
+    /**
+     * The most recently used parses keyed by the uri of their file, in access order. Guards
+     * the pending parses and the number of cached characters as well.
+     */
+    private static final LinkedHashMap<URI, CachedParse> sCachedParses =
+            new LinkedHashMap<>(MAX_CACHED_PARSES, 0.75f, true);
+    private static final Map<URI, PendingParse> sPendingParses = new HashMap<>();
+    private static int sCachedCharacters;
+
+    /**
+     * Parses the file, or returns the cached parse of the same file if its contents have not
+     * changed. The contents are compared rather than the modification time since the editor
+     * passes its unsaved contents with the current time, this way switching between files
+     * does not parse them again.
+     *
+     * <p>The file is parsed outside of the lock of the cache so other files can be parsed at
+     * the same time, a parse of the same contents that is already running is waited for.
+     */
     public static Parser parseJavaFileObject(Project project, JavaFileObject file) {
-        if (needsParse(file)) {
-            Log.d("Parser", "Parsing file " + file.getName());
-            loadParse(project, file);
-        } else {
+        URI uri = file.toUri();
+        String contents = readContents(file);
+
+        CachedParse cached;
+        PendingParse pending = null;
+        boolean parsing = false;
+        synchronized (sCachedParses) {
+            cached = sCachedParses.get(uri);
+            if (cached == null || !cached.contents.equals(contents)) {
+                cached = null;
+                pending = sPendingParses.get(uri);
+                if (pending == null || !pending.contents.equals(contents)) {
+                    pending = new PendingParse(contents,
+                            new FutureTask<>(() -> new Parser(project, file, contents)));
+                    sPendingParses.put(uri, pending);
+                    parsing = true;
+                }
+            }
+        }
+
+        if (cached != null) {
             Log.d("Parser", "Using cached parse for " + file.getName());
+            return new Parser(project, file, contents, cached.root);
+        }
+        if (!parsing) {
+            Log.d("Parser", "Waiting for the parse of " + file.getName());
+            return new Parser(project, file, contents, getResult(pending).root);
+        }
+
+        Log.d("Parser", "Parsing file " + file.getName());
+        pending.future.run();
+        Parser parser = null;
+        try {
+            parser = getResult(pending);
+        } finally {
+            synchronized (sCachedParses) {
+                // a parse of newer contents that started in the meantime replaces this one
+                if (sPendingParses.get(uri) == pending) {
+                    sPendingParses.remove(uri);
+                    if (parser != null) {
+                        CachedParse previous = sCachedParses.put(uri,
+                                new CachedParse(contents, parser.root));
+                        if (previous != null) {
+                            sCachedCharacters -= previous.contents.length();
+                        }
+                        sCachedCharacters += contents.length();
+                        trimCache();
+                    }
+                }
+            }
+        }
+        return parser;
+    }
+
+    private static Parser getResult(PendingParse pending) {
+        try {
+            return pending.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static void trimCache() {
+        Iterator<CachedParse> iterator = sCachedParses.values().iterator();
+        // the most recent parse is always kept even if it is larger than the limit
+        while (sCachedParses.size() > 1
+                && (sCachedParses.size() > MAX_CACHED_PARSES
+                || sCachedCharacters > MAX_CACHED_CHARACTERS)) {
+            sCachedCharacters -= iterator.next().contents.length();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes every cached parse, used when memory is low
+     */
+    public static void clearCache() {
+        synchronized (sCachedParses) {
+            sCachedParses.clear();
+            sCachedCharacters = 0;
         }
-        return cachedParse;
     }
 
     public Set<Name> packagePrivateClasses() {
@@ -0,0 +1,256 @@
+package com.tyron.completion.java;
+
+import org.openjdk.javax.tools.JavaFileObject;
+import org.openjdk.source.util.JavacTask;
+import org.openjdk.tools.javac.api.JavacTaskImpl;
+import org.openjdk.tools.javac.comp.Attr;
+import org.openjdk.tools.javac.comp.AttrContext;
+import org.openjdk.tools.javac.comp.Enter;
+import org.openjdk.tools.javac.comp.Env;
+import org.openjdk.tools.javac.main.JavaCompiler;
+import org.openjdk.tools.javac.parser.JavacParser;
+import org.openjdk.tools.javac.parser.ParserFactory;
+import org.openjdk.tools.javac.parser.ScannerFactory;
+import org.openjdk.tools.javac.parser.Tokens;
+import org.openjdk.tools.javac.tree.EndPosTable;
+import org.openjdk.tools.javac.tree.JCTree;
+import org.openjdk.tools.javac.tree.TreeInfo;
+import org.openjdk.tools.javac.tree.TreeScanner;
+import org.openjdk.tools.javac.util.Context;
+import org.openjdk.tools.javac.util.Log;
+import org.openjdk.tools.javac.util.Position;
+
+import java.io.IOException;
+
+/**
+ * Updates an attributed compilation unit to new contents of its file by parsing and
+ * attributing only the method that has changed, the rest of the unit keeps the trees and
+ * symbols of the previous compilation.
+ *
+ * <p>This only works when the contents differ inside the body of a single method of a
+ * class that is not local, which is the case while typing in a method. Everything else
+ * needs a full compilation, including bodies that declare local or anonymous classes since
+ * attributing them again would enter new class symbols next to the old ones.
+ */
+public class PartialReparser {
+
+    private final Context mContext;
+    private final JCTree.JCCompilationUnit mUnit;
+
+    public PartialReparser(JavacTask task, JCTree.JCCompilationUnit unit) {
+        mContext = ((JavacTaskImpl) task).getContext();
+        mUnit = unit;
+    }
+
+    /**
+     * Changes the unit to represent the new source. If this returns false the unit has not
+     * been changed and has to be compiled again.
+     *
+     * @param source the new contents of the file of the unit
+     * @return whether the unit now matches the new source
+     * @throws RuntimeException if the compiler failed after the unit was changed, the unit
+     * and its context should not be used anymore
+     */
+    public boolean reparse(JavaFileObject source) {
+        if (!mUnit.getSourceFile().toUri().equals(source.toUri())) {
+            return false;
+        }
+        String oldContents;
+        String newContents;
+        try {
+            oldContents = mUnit.getSourceFile().getCharContent(true).toString();
+            newContents = source.getCharContent(true).toString();
+        } catch (IOException e) {
+            return false;
+        }
+
+        int prefix = 0;
+        int maxPrefix = Math.min(oldContents.length(), newContents.length());
+        while (prefix < maxPrefix && oldContents.charAt(prefix) == newContents.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == oldContents.length() && prefix == newContents.length()) {
+            mUnit.sourcefile = source;
+            return true;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && oldContents.charAt(oldContents.length() - 1 - suffix)
+                == newContents.charAt(newContents.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int oldChangeEnd = oldContents.length() - suffix;
+
+        JCTree.JCMethodDecl method = findChangedMethod(prefix, oldChangeEnd);
+        if (method == null || declaresClass(method.body)) {
+            return false;
+        }
+        Env<AttrContext> classEnv = Enter.instance(mContext).getClassEnv(method.sym.enclClass());
+        if (classEnv == null) {
+            return false;
+        }
+
+        EndPosTable endPositions = mUnit.endPositions;
+        int bodyStart = TreeInfo.getStartPos(method.body);
+        // the end of the body is exclusive, endpos is the position of the closing brace
+        int oldBodyEnd = method.body.endpos + 1;
+        int delta = newContents.length() - oldContents.length();
+        int newBodyEnd = oldBodyEnd + delta;
+
+        Log log = Log.instance(mContext);
+        Log.DeferredDiagnosticHandler handler = new Log.DeferredDiagnosticHandler(log);
+        JavaFileObject previousSource = log.useSource(source);
+        try {
+            // pad the body so the positions of the new trees are the positions in the file
+            StringBuilder text = new StringBuilder(newBodyEnd);
+            for (int i = 0; i < bodyStart; i++) {
+                text.append(' ');
+            }
+            text.append(newContents, bodyStart, newBodyEnd);
+            JavacParser parser = ParserFactory.instance(mContext)
+                    .newParser(text, false, true, false);
+            JCTree.JCBlock body = parser.block();
+            if (body.endpos != newBodyEnd - 1 || newContents.charAt(body.endpos) != '}'
+                    || parser.token().kind != Tokens.TokenKind.EOF) {
+                // the braces don't match anymore, the body would not be the same in a full parse
+                return false;
+            }
+            if (declaresClass(body)) {
+                return false;
+            }
+
+            // the unit is modified from here on
+            removeEndPositions(method.body, body);
+            shiftPositions(method.body, oldBodyEnd, delta);
+            new ErroneousScanner() {
+                @Override
+                public void scan(JCTree tree) {
+                    if (tree == null) {
+                        return;
+                    }
+                    int end = parser.getEndPos(tree);
+                    if (end != Position.NOPOS) {
+                        endPositions.storeEnd(tree, end);
+                    }
+                    super.scan(tree);
+                }
+            }.scan(body);
+            method.body = body;
+
+            // the scanner of javac only expands tabs in the line map when it keeps comments
+            JavaCompiler compiler = JavaCompiler.instance(mContext);
+            boolean keepComments = compiler.keepComments || compiler.sourceOutput;
+            mUnit.lineMap = ScannerFactory.instance(mContext)
+                    .newScanner(newContents, keepComments)
+                    .getLineMap();
+            mUnit.sourcefile = source;
+
+            Attr.instance(mContext).attribStat(method, classEnv);
+            return true;
+        } finally {
+            log.popDiagnosticHandler(handler);
+            log.useSource(previousSource);
+        }
+    }
+
+    /**
+     * @return the method of a member class whose body contains the changed region, the
+     * braces of the body must not have changed
+     */
+    private JCTree.JCMethodDecl findChangedMethod(int changeStart, int changeEnd) {
+        JCTree.JCMethodDecl[] result = new JCTree.JCMethodDecl[1];
+        new ErroneousScanner() {
+            @Override
+            public void visitClassDef(JCTree.JCClassDecl tree) {
+                // only members are scanned, classes in method bodies are local
+                for (JCTree def : tree.defs) {
+                    if (def instanceof JCTree.JCClassDecl || def instanceof JCTree.JCMethodDecl) {
+                        scan(def);
+                    }
+                }
+            }
+
+            @Override
+            public void visitMethodDef(JCTree.JCMethodDecl tree) {
+                if (tree.body == null || tree.sym == null) {
+                    return;
+                }
+                int start = TreeInfo.getStartPos(tree.body);
+                int end = tree.body.endpos;
+                if (start < changeStart && changeEnd <= end) {
+                    result[0] = tree;
+                }
+            }
+        }.scan(mUnit);
+        return result[0];
+    }
+
+    private static boolean declaresClass(JCTree.JCBlock body) {
+        boolean[] result = new boolean[1];
+        new ErroneousScanner() {
+            @Override
+            public void visitClassDef(JCTree.JCClassDecl tree) {
+                result[0] = true;
+            }
+        }.scan(body);
+        return result[0];
+    }
+
+    /**
+     * Removes the end positions of the trees of the old body so the table doesn't keep them
+     */
+    private void removeEndPositions(JCTree.JCBlock oldBody, JCTree.JCBlock newBody) {
+        EndPosTable endPositions = mUnit.endPositions;
+        new ErroneousScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree != null) {
+                    // there is no remove, replacing moves the entry to the new body which
+                    // gets its own end position afterwards
+                    endPositions.replaceTree(tree, newBody);
+                    super.scan(tree);
+                }
+            }
+        }.scan(oldBody);
+    }
+
+    /**
+     * Moves the trees after the old body by the difference in length of the new body
+     */
+    private void shiftPositions(JCTree.JCBlock oldBody, int oldBodyEnd, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        EndPosTable endPositions = mUnit.endPositions;
+        new ErroneousScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree == null || tree == oldBody) {
+                    return;
+                }
+                if (tree.pos >= oldBodyEnd) {
+                    tree.pos += delta;
+                }
+                if (tree instanceof JCTree.JCBlock && ((JCTree.JCBlock) tree).endpos >= oldBodyEnd) {
+                    ((JCTree.JCBlock) tree).endpos += delta;
+                }
+                int end = endPositions.getEndPos(tree);
+                if (end != Position.NOPOS && end >= oldBodyEnd) {
+                    endPositions.storeEnd(tree, end + delta);
+                }
+                super.scan(tree);
+            }
+        }.scan(mUnit);
+    }
+
+    /**
+     * The trees of incomplete code are only reachable through {@link JCTree.JCErroneous},
+     * which the default scanner skips
+     */
+    private static class ErroneousScanner extends TreeScanner {
+        @Override
+        public void visitErroneous(JCTree.JCErroneous tree) {
+            scan(tree.errs);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.tyron.completion.java;
 
+import androidx.annotation.VisibleForTesting;
+
 import org.openjdk.javax.tools.Diagnostic;
 import org.openjdk.javax.tools.DiagnosticListener;
 import org.openjdk.javax.tools.JavaFileManager;
@@ -11,6 +13,9 @@ import org.openjdk.tools.javac.api.JavacTaskImpl;
 import org.openjdk.tools.javac.api.JavacTool;
 import org.openjdk.tools.javac.api.JavacTrees;
 import org.openjdk.tools.javac.api.MultiTaskListener;
+import org.openjdk.tools.javac.code.ClassFinder;
+import org.openjdk.tools.javac.code.Symbol;
+import org.openjdk.tools.javac.code.Symtab;
 import org.openjdk.tools.javac.code.Types;
 import org.openjdk.tools.javac.comp.Annotate;
 import org.openjdk.tools.javac.comp.Check;
@@ -23,11 +28,21 @@ import org.openjdk.tools.javac.model.JavacElements;
 import org.openjdk.tools.javac.util.Context;
 import org.openjdk.tools.javac.util.DefinedBy;
 import org.openjdk.tools.javac.util.Log;
+import org.openjdk.tools.javac.util.Name;
+import org.openjdk.tools.javac.util.Names;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -59,15 +74,50 @@ public class ReusableCompiler {
     private static final Logger LOG = Logger.getLogger("main");
     private static final JavacTool systemProvider = JavacTool.create();
 
-    private List<String> currentOptions = new ArrayList<>();
-    private ReusableContext currentContext;
-    private boolean checkedOut;
+    /**
+     * The default number of contexts that can be checked out or parked at the same time,
+     * each context keeps its own symbol tables so this is kept small
+     */
+    public static final int DEFAULT_MAX_CONTEXTS = 3;
+
+    private final int mMaxContexts;
+    private final Deque<ReusableContext> mIdleContexts = new ArrayDeque<>();
+    private final Set<ReusableContext> mContextsInUse = new HashSet<>();
+    private final Map<Thread, Integer> mBorrowers = new HashMap<>();
+    private int mCheckedOut;
+    /**
+     * borrows whose tasks are kept for later but are not used by any thread right now, the
+     * most recently parked first
+     */
+    private final Deque<Borrow> mParked = new ArrayDeque<>();
+
+    public ReusableCompiler() {
+        this(DEFAULT_MAX_CONTEXTS);
+    }
+
+    /**
+     * @param maxContexts the number of contexts that may be checked out or parked at the same
+     *                    time, a thread asking for a task while every context is in use waits
+     *                    for one to be returned
+     */
+    public ReusableCompiler(int maxContexts) {
+        if (maxContexts < 1) {
+            throw new IllegalArgumentException("maxContexts must be at least 1");
+        }
+        mMaxContexts = maxContexts;
+    }
 
     /**
      * Creates a new task as if by JavaCompiler and runs the provided worker with it. The
      * task is only valid while the worker is running. The internal structures may be reused from some previous
      * compilation.
      *
+     * <p>The context of the task is checked out of the pool until the returned {@link Borrow}
+     * is closed. Parked borrows count against the limit of the pool, when it is reached the
+     * context of the oldest parked borrow is taken back. If every context is used by a thread,
+     * this blocks until one is returned, unless the calling thread already holds one in which
+     * case a new context is created so nested compilations can't deadlock.
+     *
      * @param fileManager a file manager; if {@code null} use the compiler's standard filemanager
      * @param diagnosticListener a diagnostic listener; if {@code null} use the compiler's default method for reporting
      *     diagnostics
@@ -86,56 +136,317 @@ public class ReusableCompiler {
 		Iterable<String> options,
 		Iterable<String> classes,
 		Iterable<? extends JavaFileObject> compilationUnits) {
-        if (checkedOut) {
-            throw new RuntimeException("Compiler is already in-use!");
-        }
-        checkedOut = true;
         List<String> opts =
 			StreamSupport.stream(options.spliterator(), false).collect(Collectors.toCollection(ArrayList::new));
-        if (!opts.equals(currentOptions)) {
-            LOG.warning(String.format("Options changed from %s to %s, creating new compiler", options, opts));
-            currentOptions.clear();
-            currentOptions.addAll(opts);
-            currentContext = new ReusableContext(opts);
+        List<Borrow> evicted = new ArrayList<>();
+        ReusableContext context = checkOut(opts, evicted);
+        // the owners of the evicted borrows may take their own locks, don't hold the pool's
+        for (Borrow borrow : evicted) {
+            if (borrow.onEvicted != null) {
+                borrow.onEvicted.run();
+            }
+        }
+        JavacTaskImpl task;
+        try {
+            task = (JavacTaskImpl)
+                    systemProvider.getTask(
+                    null, fileManager, diagnosticListener, opts, classes, compilationUnits, context);
+        } catch (RuntimeException | Error e) {
+            // the context may be in a broken state, don't return it to the pool
+            synchronized (this) {
+                release(context, Thread.currentThread(), false);
+            }
+            throw e;
         }
-        JavacTaskImpl task =
-			(JavacTaskImpl)
-			systemProvider.getTask(
-			null, fileManager, diagnosticListener, opts, classes, compilationUnits, currentContext);
 
-        task.addTaskListener(currentContext);
-        return new Borrow(task, currentContext);
+        task.addTaskListener(context);
+        return new Borrow(task, context);
+    }
+
+    /**
+     * @param evicted the parked borrows whose contexts were taken back to make room are
+     *                added to this list
+     */
+    private synchronized ReusableContext checkOut(List<String> options, List<Borrow> evicted) {
+        Thread thread = Thread.currentThread();
+        boolean nested = mBorrowers.containsKey(thread);
+        while (mCheckedOut + mParked.size() >= mMaxContexts) {
+            Borrow oldest = evictOldestParked();
+            if (oldest != null) {
+                evicted.add(oldest);
+                continue;
+            }
+            if (nested) {
+                break;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        mCheckedOut++;
+        mBorrowers.merge(thread, 1, Integer::sum);
+
+        ReusableContext context = null;
+        for (Iterator<ReusableContext> it = mIdleContexts.iterator(); it.hasNext(); ) {
+            ReusableContext idle = it.next();
+            if (idle.arguments.equals(options)) {
+                it.remove();
+                context = idle;
+                break;
+            }
+        }
+        if (context == null) {
+            if (!mIdleContexts.isEmpty()) {
+                LOG.warning(String.format("Options changed from %s to %s, creating new compiler",
+                        mIdleContexts.peekLast().arguments, options));
+                // the oldest context is the least likely to be used again
+                mIdleContexts.removeLast();
+            }
+            context = new ReusableContext(options);
+        }
+        context.refreshChangedClasses();
+        mContextsInUse.add(context);
+        return context;
+    }
+
+    /**
+     * Takes the context of the oldest parked borrow back to the pool, the borrow is closed
+     * and its task can't be resumed anymore
+     *
+     * @return the evicted borrow, null if there is no parked borrow that can be evicted
+     */
+    private Borrow evictOldestParked() {
+        for (Iterator<Borrow> it = mParked.descendingIterator(); it.hasNext(); ) {
+            Borrow borrow = it.next();
+            synchronized (borrow) {
+                if (borrow.closed) {
+                    // it is being closed by another thread which returns it to the pool
+                    continue;
+                }
+                borrow.closed = true;
+            }
+            it.remove();
+            borrow.parked = false;
+            // no thread uses a parked task, so it can be cleaned up like a closed one
+            boolean reuse;
+            try {
+                reuse = borrow.cleanup();
+            } catch (RuntimeException e) {
+                LOG.warning("Failed to clean up an evicted context: " + e);
+                reuse = false;
+            }
+            mContextsInUse.remove(borrow.context);
+            if (reuse && mIdleContexts.size() + mCheckedOut + mParked.size() < mMaxContexts) {
+                mIdleContexts.addFirst(borrow.context);
+            }
+            return borrow;
+        }
+        return null;
+    }
+
+    private synchronized void checkIn(Borrow borrow, boolean reuse) {
+        if (borrow.parked) {
+            mParked.remove(borrow);
+            borrow.parked = false;
+            mContextsInUse.remove(borrow.context);
+            if (reuse && mIdleContexts.size() + mCheckedOut + mParked.size() < mMaxContexts) {
+                mIdleContexts.addFirst(borrow.context);
+            }
+            notifyAll();
+            return;
+        }
+        release(borrow.context, borrow.borrower, reuse);
+    }
+
+    /**
+     * @param reuse whether the context can be returned to the pool, false if it may be
+     *              in a broken state
+     */
+    private void release(ReusableContext context, Thread borrower, boolean reuse) {
+        mCheckedOut--;
+        mBorrowers.computeIfPresent(borrower, (t, count) -> count == 1 ? null : count - 1);
+        mContextsInUse.remove(context);
+        if (reuse && mIdleContexts.size() + mCheckedOut + mParked.size() < mMaxContexts) {
+            mIdleContexts.addFirst(context);
+        }
+        notifyAll();
+    }
+
+    private synchronized void park(Borrow borrow, Runnable onEvicted) {
+        synchronized (borrow) {
+            if (borrow.parked || borrow.closed) {
+                return;
+            }
+        }
+        borrow.parked = true;
+        borrow.onEvicted = onEvicted;
+        mParked.addFirst(borrow);
+        mCheckedOut--;
+        mBorrowers.computeIfPresent(borrow.borrower, (t, count) -> count == 1 ? null : count - 1);
+        notifyAll();
+    }
+
+    private synchronized boolean resume(Borrow borrow) {
+        synchronized (borrow) {
+            if (borrow.closed) {
+                // evicted while it was parked
+                return false;
+            }
+        }
+        if (!borrow.parked) {
+            return true;
+        }
+        Thread thread = Thread.currentThread();
+        if (!mBorrowers.containsKey(thread) && mCheckedOut >= mMaxContexts) {
+            return false;
+        }
+        borrow.parked = false;
+        borrow.onEvicted = null;
+        borrow.borrower = thread;
+        mParked.remove(borrow);
+        mCheckedOut++;
+        mBorrowers.merge(thread, 1, Integer::sum);
+        return true;
+    }
+
+    /**
+     * @return the number of contexts used by a thread right now, parked borrows are not
+     * included
+     */
+    @VisibleForTesting
+    public synchronized int getCheckedOut() {
+        return mCheckedOut;
+    }
+
+    @VisibleForTesting
+    public synchronized int getParked() {
+        return mParked.size();
+    }
+
+    @VisibleForTesting
+    public synchronized int getIdleContexts() {
+        return mIdleContexts.size();
+    }
+
+    /**
+     * Makes every context forget the given classes and list their packages again, so source
+     * files that have been added or removed are seen without creating a new context. Contexts
+     * that are in use are updated the next time they are checked out.
+     *
+     * @param classNames fully qualified names of the classes that have been added or removed
+     */
+    public synchronized void invalidateClasses(Collection<String> classNames) {
+        for (ReusableContext context : mIdleContexts) {
+            context.changedClasses.addAll(classNames);
+        }
+        for (ReusableContext context : mContextsInUse) {
+            context.changedClasses.addAll(classNames);
+        }
     }
 
     public class Borrow implements AutoCloseable {
         final JavacTask task;
+        private final ReusableContext context;
+        /** the thread using the task, guarded by the compiler */
+        private Thread borrower;
+        /** guarded by the compiler */
+        private boolean parked;
+        /** called when the context is taken back while parked, guarded by the compiler */
+        private Runnable onEvicted;
         boolean closed;
 
         Borrow(JavacTask task, ReusableContext ctx) {
             this.task = task;
+            this.context = ctx;
+            this.borrower = Thread.currentThread();
         }
 
+        /**
+         * Returns the context to the pool, the task must not be used after this
+         */
         @Override
         public void close() {
-            if (closed) return;
-            // not returning the context to the pool if task crashes with an exception
-            // the task/context may be in a broken state
-            currentContext.clear();
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            boolean reuse = false;
+            try {
+                reuse = cleanup();
+            } finally {
+                // not returning the context to the pool if task crashes with an exception
+                // the task/context may be in a broken state
+                checkIn(this, reuse);
+            }
+        }
+
+        /**
+         * Resets the context so it can be used by another task
+         *
+         * @return whether the context can be reused
+         */
+        private boolean cleanup() {
             try {
+                context.clear();
                 Method method = JavacTaskImpl.class.getDeclaredMethod("cleanup");
                 method.setAccessible(true);
                 method.invoke(task);
+                return true;
             } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
                 throw new RuntimeException(e);
             }
-            checkedOut = false;
-            closed = true;
+        }
+
+        /**
+         * Keeps the task for later while no thread uses it. A parked borrow doesn't make the
+         * thread that created it a nested borrower, but it counts against the limit of the
+         * pool until it is closed or evicted.
+         */
+        public void park() {
+            park(null);
+        }
+
+        /**
+         * @param onEvicted called when the pool needs the context of this borrow while it is
+         *                  still parked, the borrow is closed by then and can't be resumed.
+         *                  This is called without holding the lock of the pool.
+         */
+        public void park(Runnable onEvicted) {
+            ReusableCompiler.this.park(this, onEvicted);
+        }
+
+        /**
+         * Makes the calling thread the user of a parked task again, this doesn't wait for a
+         * context to be returned to the pool
+         *
+         * @return false if the pool has no room for the task or it has been evicted, it
+         * should be closed instead
+         */
+        public boolean resume() {
+            return ReusableCompiler.this.resume(this);
+        }
+
+        /**
+         * Releases the context without returning it to the pool, used when the compilation
+         * failed and the context may be in a broken state
+         */
+        void discard() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            checkIn(this, false);
         }
     }
 
     static class ReusableContext extends Context implements TaskListener {
 
         List<String> arguments;
+        /** classes added or removed since this context was last used */
+        final Set<String> changedClasses = new HashSet<>();
 
         ReusableContext(List<String> arguments) {
             super();
@@ -168,6 +479,41 @@ public class ReusableCompiler {
             }
         }
 
+        /**
+         * Removes the changed classes from the symbol table and resets the members of their
+         * packages so they are listed from the file manager again when they are needed
+         */
+        void refreshChangedClasses() {
+            if (changedClasses.isEmpty()) {
+                return;
+            }
+            if (ht.get(Log.logKey) instanceof ReusableLog) {
+                // the symbol table only exists once the context has been used
+                Symtab symtab = Symtab.instance(this);
+                Names names = Names.instance(this);
+                Symbol.Completer completer = ClassFinder.instance(this).getCompleter();
+                Set<String> packages = new HashSet<>();
+                for (String className : changedClasses) {
+                    Name flatName = names.fromString(className);
+                    List<Symbol.ClassSymbol> symbols = new ArrayList<>();
+                    symtab.getClassesForName(flatName).forEach(symbols::add);
+                    for (Symbol.ClassSymbol symbol : symbols) {
+                        symtab.removeClass(symbol.packge().modle, flatName);
+                    }
+                    int dot = className.lastIndexOf('.');
+                    packages.add(dot == -1 ? "" : className.substring(0, dot));
+                }
+                for (String packageName : packages) {
+                    for (Symbol.PackageSymbol packageSymbol :
+                            symtab.getPackagesForName(names.fromString(packageName))) {
+                        packageSymbol.members_field = null;
+                        packageSymbol.completer = completer;
+                    }
+                }
+            }
+            changedClasses.clear();
+        }
+
         @Override
         @DefinedBy(DefinedBy.Api.COMPILER_TREE)
         public void finished(TaskEvent e) {
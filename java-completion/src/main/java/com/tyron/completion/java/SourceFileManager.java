@@ -28,6 +28,11 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * File manager shared by every compilation of a {@link JavaCompilerService}. The lookups are
+ * synchronized since the pooled compilers may use it from several threads and the caches of
+ * the standard file manager are not thread safe.
+ */
 public class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
 
     private final Project mProject;
@@ -52,7 +57,7 @@ public class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFil
     }
 
 	@Override
-	public Iterable<JavaFileObject> list(JavaFileManager.Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+	public synchronized Iterable<JavaFileObject> list(JavaFileManager.Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
 		if (location == StandardLocation.SOURCE_PATH) {
 			Stream<JavaFileObject> stream = list(mCurrentModule, packageName)
                     .stream()
@@ -67,7 +72,7 @@ public class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFil
 	}
 	
 	@Override
-    public String inferBinaryName(Location location, JavaFileObject file) {
+    public synchronized String inferBinaryName(Location location, JavaFileObject file) {
         if (location == StandardLocation.SOURCE_PATH) {
             SourceFileObject source = (SourceFileObject) file;
             String packageName = StringSearch.packageName(source.mFile.toFile());
@@ -90,7 +95,7 @@ public class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFil
     }
 
     @Override
-    public JavaFileObject getJavaFileForInput(Location location, String className, JavaFileObject.Kind kind)
+    public synchronized JavaFileObject getJavaFileForInput(Location location, String className, JavaFileObject.Kind kind)
 	throws IOException {
 	    if (TextUtils.isEmpty(className)) {
 	        return null;
@@ -110,14 +115,14 @@ public class SourceFileManager extends ForwardingJavaFileManager<StandardJavaFil
     }
 	
 	@Override
-    public FileObject getFileForInput(Location location, String packageName, String relativeName) throws IOException {
+    public synchronized FileObject getFileForInput(Location location, String packageName, String relativeName) throws IOException {
         if (location == StandardLocation.SOURCE_PATH) {
             return null;
         }
         return super.getFileForInput(location, packageName, relativeName);
     }
 
-    public void setLocation(Location location, Iterable<? extends  File> path) throws IOException {
+    public synchronized void setLocation(Location location, Iterable<? extends  File> path) throws IOException {
 	    fileManager.setLocation(location, path);
     }
 
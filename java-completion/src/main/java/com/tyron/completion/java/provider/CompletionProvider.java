@@ -132,7 +132,7 @@ public class CompletionProvider {
         boolean endsWithParen = endsWithParen(contents, (int) cursor);
 
         checkCanceled();
-        try (CompilerContainer container = compiler.compile(Collections.singletonList(source))) {
+        try (CompilerContainer container = compiler.compileForCompletion(source)) {
             return container.get(task -> {
                 TreePath path = new FindCompletionsAt(task.task).scan(task.root(), cursor);
                 switch (path.getLeaf().getKind()) {
@@ -622,20 +622,19 @@ public class CompletionProvider {
 
         Set<String> names = new HashSet<>();
         CompletionList list = new CompletionList();
-        for (String className : compiler.publicTopLevelTypes()) {
-            if (className.startsWith(path)) {
-                int start = path.lastIndexOf('.');
-                int end = className.indexOf('.', path.length());
-                if (end == -1) end = className.length();
-                String segment = className.substring(start + 1, end);
-                if (names.contains(segment)) continue;
-                names.add(segment);
-                boolean isClass = end == path.length();
-                if (isClass) {
-                    list.items.add(classItem(className));
-                } else {
-                    list.items.add(packageItem(segment));
-                }
+        for (String className : compiler.getClassIndex()
+                .findByQualifiedPrefix(path, Integer.MAX_VALUE)) {
+            int start = path.lastIndexOf('.');
+            int end = className.indexOf('.', path.length());
+            if (end == -1) end = className.length();
+            String segment = className.substring(start + 1, end);
+            if (names.contains(segment)) continue;
+            names.add(segment);
+            boolean isClass = end == path.length();
+            if (isClass) {
+                list.items.add(classItem(className));
+            } else {
+                list.items.add(packageItem(segment));
             }
         }
         return list;
@@ -759,8 +758,7 @@ public class CompletionProvider {
             list.items.add(classItem(className));
             uniques.add(className);
         }
-        for (String className : compiler.publicTopLevelTypes()) {
-            if (FuzzySearch.partialRatio(className, partial) < 90) continue;
+        for (String className : compiler.getClassIndex().find(partial, MAX_COMPLETION_ITEMS)) {
             if (uniques.contains(className)) continue;
             list.items.add(classItem(className));
             uniques.add(className);
@@ -0,0 +1,60 @@
+package com.tyron.completion.java;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ClassNameIndexTest {
+
+    private ClassNameIndex mIndex;
+
+    @Before
+    public void setup() {
+        mIndex = new ClassNameIndex();
+        mIndex.update(Arrays.asList("java.util.ArrayList", "java.util.List",
+                "java.util.LinkedList", "java.util.HashMap",
+                "java.util.concurrent.ConcurrentHashMap", "android.widget.ArrayAdapter"));
+    }
+
+    @Test
+    public void testPrefixMatchesComeFirst() {
+        assertThat(mIndex.find("list", 10)).containsExactly("java.util.List",
+                "java.util.ArrayList", "java.util.LinkedList").inOrder();
+    }
+
+    @Test
+    public void testCamelHumps() {
+        assertThat(mIndex.find("AL", 10)).containsExactly("java.util.ArrayList");
+        assertThat(mIndex.find("ArAd", 10)).containsExactly("android.widget.ArrayAdapter");
+    }
+
+    @Test
+    public void testSubstring() {
+        assertThat(mIndex.find("ashMap", 10)).containsExactly("java.util.HashMap",
+                "java.util.concurrent.ConcurrentHashMap");
+    }
+
+    @Test
+    public void testLimit() {
+        assertThat(mIndex.find("list", 1)).containsExactly("java.util.List");
+    }
+
+    @Test
+    public void testQualifiedPrefix() {
+        assertThat(mIndex.findByQualifiedPrefix("java.util.c", 10))
+                .containsExactly("java.util.concurrent.ConcurrentHashMap");
+    }
+
+    @Test
+    public void testUpdateRemovesClasses() {
+        mIndex.update(Collections.singletonList("java.util.List"));
+
+        assertThat(mIndex.size()).isEqualTo(1);
+        assertThat(mIndex.find("arr", 10)).isEmpty();
+        assertThat(mIndex.find("lis", 10)).containsExactly("java.util.List");
+    }
+}
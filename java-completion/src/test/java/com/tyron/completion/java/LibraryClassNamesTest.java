@@ -0,0 +1,60 @@
+package com.tyron.completion.java;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class LibraryClassNamesTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testTopLevelClasses() throws Exception {
+        File jar = writeJar("library.jar", "com/example/Foo.class", "com/example/Foo$Inner.class",
+                "com/example/Bar.class", "META-INF/MANIFEST.MF");
+        assertThat(LibraryClassNames.load(Collections.singletonList(jar), null))
+                .containsExactly("com.example.Foo", "com.example.Bar");
+    }
+
+    @Test
+    public void testListIsStoredByClassPath() throws Exception {
+        File cacheDir = new File(mFolder.getRoot(), "cache");
+        File jar = writeJar("library.jar", "com/example/Foo.class");
+        List<File> jars = Collections.singletonList(jar);
+        assertThat(LibraryClassNames.load(jars, cacheDir)).containsExactly("com.example.Foo");
+
+        File cacheFile = new File(cacheDir, LibraryClassNames.hash(jars));
+        assertThat(cacheFile.isFile()).isTrue();
+        // the stored list is used while the jar hasn't changed
+        FileUtils.writeStringToFile(cacheFile, "com.example.Stored\n", StandardCharsets.UTF_8);
+        assertThat(LibraryClassNames.load(jars, cacheDir)).containsExactly("com.example.Stored");
+
+        writeJar("library.jar", "com/example/Foo.class", "com/example/Bar.class");
+        assertThat(jar.setLastModified(cacheFile.lastModified() + 10_000)).isTrue();
+        assertThat(LibraryClassNames.hash(jars)).isNotEqualTo(cacheFile.getName());
+        assertThat(LibraryClassNames.load(jars, cacheDir))
+                .containsExactly("com.example.Foo", "com.example.Bar");
+    }
+
+    private File writeJar(String name, String... entries) throws Exception {
+        File jar = new File(mFolder.getRoot(), name);
+        try (JarOutputStream out = new JarOutputStream(FileUtils.openOutputStream(jar))) {
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
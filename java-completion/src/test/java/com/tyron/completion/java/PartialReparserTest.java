@@ -0,0 +1,238 @@
+package com.tyron.completion.java;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.tyron.completion.TestUtil;
+
+import org.junit.Test;
+import org.openjdk.javax.tools.SimpleJavaFileObject;
+import org.openjdk.javax.tools.StandardJavaFileManager;
+import org.openjdk.javax.tools.StandardLocation;
+import org.openjdk.source.util.JavacTask;
+import org.openjdk.tools.javac.api.JavacTool;
+import org.openjdk.tools.javac.tree.JCTree;
+import org.openjdk.tools.javac.tree.TreeInfo;
+import org.openjdk.tools.javac.tree.TreeScanner;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks that a partially reparsed unit is the same as the unit of a full compilation of
+ * the new contents.
+ */
+public class PartialReparserTest {
+
+    private static final URI FILE = URI.create("file:///test/Test.java");
+
+    // tabs make sure the columns of the line map match the ones of javac
+    private static final String SOURCE = "package test;\n"
+            + "\n"
+            + "import java.util.List;\n"
+            + "\n"
+            + "public class Test {\n"
+            + "\tprivate int mField;\n"
+            + "\n"
+            + "\tpublic void first(List<String> list) {\n"
+            + "\t\tint x = 1;\n"
+            + "\t}\n"
+            + "\n"
+            + "\tpublic int second() {\n"
+            + "\t\treturn mField;\n"
+            + "\t}\n"
+            + "\n"
+            + "\tclass Inner {\n"
+            + "\t\tvoid third() {\n"
+            + "\t\t\tint y = 2;\n"
+            + "\t\t}\n"
+            + "\t}\n"
+            + "}\n";
+
+    @Test
+    public void testEditInsideBody() throws Exception {
+        String edited = SOURCE.replace("int x = 1;", "String s = \"\";\n\t\ts.len");
+        Compilation partial = reparse(SOURCE, edited, true);
+        Compilation full = compile(edited);
+
+        assertSame(partial, full, edited);
+        int cursor = edited.indexOf("s.len");
+        assertThat(typeAt(partial.unit, cursor)).isEqualTo("java.lang.String");
+        assertThat(typeAt(full.unit, cursor)).isEqualTo("java.lang.String");
+    }
+
+    @Test
+    public void testEditInsideNestedClass() throws Exception {
+        String edited = SOURCE.replace("int y = 2;", "int y = 2;\n\t\t\tlong z = y + mField;");
+        assertSame(reparse(SOURCE, edited, true), compile(edited), edited);
+    }
+
+    @Test
+    public void testConsecutiveEdits() throws Exception {
+        Compilation partial = compile(SOURCE);
+        String edited = SOURCE.replace("int x = 1;", "int x = 1 + mField;");
+        assertThat(reparse(partial, edited)).isTrue();
+        edited = edited.replace("return mField;", "return mField\n\t\t\t* 2;");
+        assertThat(reparse(partial, edited)).isTrue();
+        // shorter than the previous contents
+        edited = edited.replace("int x = 1 + mField;", "");
+        assertThat(reparse(partial, edited)).isTrue();
+
+        assertSame(partial, compile(edited), edited);
+    }
+
+    @Test
+    public void testEditOutsideBody() throws Exception {
+        reparse(SOURCE, SOURCE.replace("private int mField;", "private long mField;"), false);
+        reparse(SOURCE, SOURCE.replace("first(List<String> list)", "first(List<Integer> list)"),
+                false);
+        reparse(SOURCE, SOURCE.replace("public int second()", "public int second() {}\n"
+                + "\tpublic int fourth()"), false);
+    }
+
+    @Test
+    public void testBraceChange() throws Exception {
+        reparse(SOURCE, SOURCE.replace("int x = 1;", "int x = 1; {"), false);
+        reparse(SOURCE, SOURCE.replace("int x = 1;", "int x = 1; }"), false);
+        reparse(SOURCE, SOURCE.replace("int x = 1;\n\t}", "int x = 1;\n"), false);
+    }
+
+    @Test
+    public void testLocalAndAnonymousClasses() throws Exception {
+        // the classes of the old body would stay entered next to the new ones
+        String anonymous = SOURCE.replace("int x = 1;",
+                "Runnable r = new Runnable() { public void run() {} };");
+        reparse(anonymous, anonymous.replace("public void run() {}", "public void run() { }"),
+                false);
+        reparse(anonymous, anonymous.replace("Runnable r", "final Runnable r"), false);
+
+        reparse(SOURCE, SOURCE.replace("int x = 1;", "class Local {}"), false);
+        reparse(SOURCE, SOURCE.replace("int x = 1;", "Object o = new Object() {};"), false);
+
+        // lambdas don't declare classes
+        String lambda = SOURCE.replace("int x = 1;", "Runnable r = () -> {};");
+        assertSame(reparse(SOURCE, lambda, true), compile(lambda), lambda);
+    }
+
+    private static Compilation reparse(String contents, String edited, boolean expected)
+            throws Exception {
+        Compilation compilation = compile(contents);
+        List<String> before = describe(compilation.unit);
+        assertThat(reparse(compilation, edited)).isEqualTo(expected);
+        if (!expected) {
+            assertThat(describe(compilation.unit)).isEqualTo(before);
+            assertThat(compilation.unit.getSourceFile().getCharContent(true).toString())
+                    .isEqualTo(contents);
+        }
+        return compilation;
+    }
+
+    private static boolean reparse(Compilation compilation, String contents) {
+        return new PartialReparser(compilation.task, compilation.unit)
+                .reparse(new SourceObject(contents));
+    }
+
+    private static void assertSame(Compilation partial, Compilation full, String contents) {
+        assertThat(describe(partial.unit)).isEqualTo(describe(full.unit));
+        for (int i = 0; i <= contents.length(); i++) {
+            assertThat(partial.unit.getLineMap().getLineNumber(i))
+                    .isEqualTo(full.unit.getLineMap().getLineNumber(i));
+            assertThat(partial.unit.getLineMap().getColumnNumber(i))
+                    .isEqualTo(full.unit.getLineMap().getColumnNumber(i));
+        }
+    }
+
+    /**
+     * @return the kind, positions and type of every tree of the unit
+     */
+    private static List<String> describe(JCTree.JCCompilationUnit unit) {
+        List<String> trees = new ArrayList<>();
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree == null) {
+                    return;
+                }
+                trees.add(tree.getTag() + " " + TreeInfo.getStartPos(tree) + " " + tree.pos + " "
+                        + TreeInfo.getEndPos(tree, unit.endPositions) + " " + tree.type);
+                super.scan(tree);
+            }
+
+            @Override
+            public void visitErroneous(JCTree.JCErroneous tree) {
+                scan(tree.errs);
+            }
+        }.scan(unit);
+        return trees;
+    }
+
+    /**
+     * @return the type of the smallest attributed tree that contains the position
+     */
+    private static String typeAt(JCTree.JCCompilationUnit unit, int position) {
+        JCTree[] result = new JCTree[1];
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                if (tree == null) {
+                    return;
+                }
+                int start = TreeInfo.getStartPos(tree);
+                int end = TreeInfo.getEndPos(tree, unit.endPositions);
+                if (tree.type != null && start <= position && position < end) {
+                    result[0] = tree;
+                }
+                super.scan(tree);
+            }
+
+            @Override
+            public void visitErroneous(JCTree.JCErroneous tree) {
+                scan(tree.errs);
+            }
+        }.scan(unit);
+        return result[0] == null ? null : result[0].type.toString();
+    }
+
+    private static Compilation compile(String contents) throws Exception {
+        JavacTool tool = JavacTool.create();
+        StandardJavaFileManager fileManager = tool.getStandardFileManager(null, null,
+                StandardCharsets.UTF_8);
+        fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH, Arrays.asList(
+                new File(TestUtil.resolveBasePath(), "classpath/rt.jar"),
+                new File(TestUtil.resolveBasePath(), "classpath/core-lambda-stubs.jar")));
+        JavacTask task = tool.getTask(null, fileManager, diagnostic -> {},
+                Collections.singletonList("-proc:none"), null,
+                Collections.singletonList(new SourceObject(contents)));
+        JCTree.JCCompilationUnit unit = (JCTree.JCCompilationUnit) task.parse().iterator().next();
+        task.analyze();
+        return new Compilation(task, unit);
+    }
+
+    private static class Compilation {
+        final JavacTask task;
+        final JCTree.JCCompilationUnit unit;
+
+        Compilation(JavacTask task, JCTree.JCCompilationUnit unit) {
+            this.task = task;
+            this.unit = unit;
+        }
+    }
+
+    private static class SourceObject extends SimpleJavaFileObject {
+        private final String mContents;
+
+        SourceObject(String contents) {
+            super(FILE, Kind.SOURCE);
+            mContents = contents;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mContents;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.tyron.completion.java;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openjdk.javax.tools.JavaFileObject;
+import org.openjdk.javax.tools.SimpleJavaFileObject;
+import org.openjdk.tools.javac.api.JavacTaskImpl;
+import org.openjdk.tools.javac.util.Context;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReusableCompilerTest {
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testReturnedContextIsReused() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(2);
+        ReusableCompiler.Borrow borrow = borrow(compiler);
+        Context context = contextOf(borrow);
+        assertThat(compiler.getCheckedOut()).isEqualTo(1);
+
+        borrow.close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+        assertThat(compiler.getIdleContexts()).isEqualTo(1);
+
+        borrow = borrow(compiler);
+        assertThat(contextOf(borrow)).isSameInstanceAs(context);
+        assertThat(compiler.getIdleContexts()).isEqualTo(0);
+        borrow.close();
+    }
+
+    @Test
+    public void testDiscardedContextIsNotReused() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(2);
+        ReusableCompiler.Borrow borrow = borrow(compiler);
+        Context context = contextOf(borrow);
+
+        borrow.discard();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+        assertThat(compiler.getIdleContexts()).isEqualTo(0);
+
+        borrow = borrow(compiler);
+        assertThat(contextOf(borrow)).isNotSameInstanceAs(context);
+        borrow.close();
+    }
+
+    @Test
+    public void testBorrowWaitsForReturnedContext() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(1);
+        ReusableCompiler.Borrow borrow = borrow(compiler);
+
+        Future<ReusableCompiler.Borrow> other = mExecutor.submit(() -> borrow(compiler));
+        assertBlocked(other);
+
+        borrow.close();
+        other.get(10, TimeUnit.SECONDS).close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+    }
+
+    @Test
+    public void testNestedBorrowDoesNotWait() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(1);
+        ReusableCompiler.Borrow outer = borrow(compiler);
+        ReusableCompiler.Borrow inner = borrow(compiler);
+        assertThat(contextOf(inner)).isNotSameInstanceAs(contextOf(outer));
+        assertThat(compiler.getCheckedOut()).isEqualTo(2);
+
+        inner.close();
+        outer.close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+        assertThat(compiler.getIdleContexts()).isEqualTo(1);
+    }
+
+    @Test
+    public void testParkedBorrowIsNotHeldByItsThread() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(2);
+        ReusableCompiler.Borrow parked = mExecutor.submit(() -> {
+            ReusableCompiler.Borrow borrow = borrow(compiler);
+            borrow.park();
+            return borrow;
+        }).get(10, TimeUnit.SECONDS);
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+        assertThat(compiler.getParked()).isEqualTo(1);
+
+        ReusableCompiler.Borrow other = borrow(compiler);
+        // the thread that parked it has to wait like any other thread, the parked borrow
+        // counts against the limit and is evicted for it
+        mExecutor.submit(() -> {
+            borrow(compiler).close();
+            return null;
+        }).get(10, TimeUnit.SECONDS);
+        assertThat(compiler.getParked()).isEqualTo(0);
+        assertThat(parked.resume()).isFalse();
+        other.close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+
+        parked = borrow(compiler);
+        parked.park();
+        assertThat(parked.resume()).isTrue();
+        assertThat(compiler.getCheckedOut()).isEqualTo(1);
+        assertThat(compiler.getParked()).isEqualTo(0);
+        // resuming makes this thread the borrower
+        borrow(compiler).close();
+        parked.close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+    }
+
+    @Test
+    public void testParkedBorrowIsEvicted() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(1);
+        AtomicInteger evictions = new AtomicInteger();
+        ReusableCompiler.Borrow parked = borrow(compiler);
+        Context context = contextOf(parked);
+        parked.park(evictions::incrementAndGet);
+
+        // the pool is full, the context of the parked borrow is taken back instead of waiting
+        ReusableCompiler.Borrow other = mExecutor.submit(() -> borrow(compiler))
+                .get(10, TimeUnit.SECONDS);
+        assertThat(evictions.get()).isEqualTo(1);
+        assertThat(contextOf(other)).isSameInstanceAs(context);
+        assertThat(compiler.getParked()).isEqualTo(0);
+        assertThat(compiler.getCheckedOut()).isEqualTo(1);
+
+        assertThat(parked.resume()).isFalse();
+        parked.close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(1);
+
+        // a nested borrow evicts parked borrows before going over the limit
+        other.park(evictions::incrementAndGet);
+        ReusableCompiler.Borrow outer = borrow(compiler);
+        assertThat(evictions.get()).isEqualTo(2);
+        ReusableCompiler.Borrow inner = borrow(compiler);
+        assertThat(compiler.getCheckedOut()).isEqualTo(2);
+        inner.close();
+        outer.close();
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+        assertThat(compiler.getIdleContexts()).isEqualTo(1);
+    }
+
+    @Test
+    public void testClosingParkedBorrow() throws Exception {
+        ReusableCompiler compiler = new ReusableCompiler(2);
+        ReusableCompiler.Borrow borrow = borrow(compiler);
+        Context context = contextOf(borrow);
+        borrow.park();
+        borrow.park();
+        assertThat(compiler.getParked()).isEqualTo(1);
+
+        borrow.close();
+        assertThat(compiler.getParked()).isEqualTo(0);
+        assertThat(compiler.getCheckedOut()).isEqualTo(0);
+        assertThat(compiler.getIdleContexts()).isEqualTo(1);
+        borrow = borrow(compiler);
+        assertThat(contextOf(borrow)).isSameInstanceAs(context);
+        borrow.close();
+
+        borrow = borrow(compiler);
+        borrow.park();
+        borrow.discard();
+        assertThat(compiler.getParked()).isEqualTo(0);
+        assertThat(compiler.getIdleContexts()).isEqualTo(0);
+    }
+
+    /**
+     * @return a borrow whose task has been used, the components of a context only exist
+     * once it has parsed something
+     */
+    private static ReusableCompiler.Borrow borrow(ReusableCompiler compiler) throws IOException {
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("file:///Test.java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return "class Test {}";
+            }
+        };
+        ReusableCompiler.Borrow borrow = compiler.getTask(null, null, Collections.emptyList(),
+                null, Collections.singletonList(source));
+        borrow.task.parse();
+        return borrow;
+    }
+
+    private static Context contextOf(ReusableCompiler.Borrow borrow) {
+        return ((JavacTaskImpl) borrow.task).getContext();
+    }
+
+    private static void assertBlocked(Future<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("Expected the borrow to wait for a context");
+        } catch (TimeoutException expected) {
+            // still waiting
+        }
+    }
+}